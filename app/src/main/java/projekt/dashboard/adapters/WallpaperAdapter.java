@@ -1,6 +1,8 @@
 package projekt.dashboard.adapters;
 
 import android.graphics.Color;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.CardView;
 import android.support.v7.widget.RecyclerView;
@@ -13,10 +15,18 @@ import com.bumptech.glide.Glide;
 import com.github.florent37.glidepalette.GlidePalette;
 
 import java.util.ArrayList;
-import java.util.Locale;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import butterknife.ButterKnife;
 import projekt.dashboard.R;
+import projekt.dashboard.util.ListDiff;
+import projekt.dashboard.util.WallpaperSearch;
 import projekt.dashboard.util.WallpaperUtils;
 import projekt.dashboard.views.WallpaperAuthorView;
 import projekt.dashboard.views.WallpaperBgFrame;
@@ -26,9 +36,24 @@ import projekt.dashboard.views.WallpaperNameView;
 public class WallpaperAdapter extends RecyclerView.Adapter<WallpaperAdapter.WallpaperViewHolder> {
 
     public final static int SEARCH_RESULT_LIMIT = 10;
+    // Bounds of the search debounce, which is a few times what searching has been costing
+    private final static long MIN_SEARCH_DELAY = 50;
+    private final static long MAX_SEARCH_DELAY = 400;
+    // Searches run one after another, so each one can narrow down the one before
+    private final static ExecutorService mSearchExecutor = Executors.newSingleThreadExecutor();
+    private final static Handler mHandler = new Handler(Looper.getMainLooper());
     private final ClickListener mListener;
     private WallpaperUtils.WallpapersHolder mWallpapers;
     private ArrayList<WallpaperUtils.Wallpaper> mFiltered;
+    private String mQuery;
+    // Bumped by every search and every change of the list, a search that isn't the latest is
+    // dropped
+    private final AtomicInteger mSearchGeneration = new AtomicInteger();
+    // Average nanoseconds a search took, only ever touched from the main thread
+    private long mSearchCost;
+    // Only ever touched from mSearchExecutor's thread
+    private WallpaperSearch<WallpaperUtils.Wallpaper> mSearch;
+    private WallpaperUtils.Wallpaper[] mSearched;
 
     public WallpaperAdapter(ClickListener listener) {
         mListener = listener;
@@ -41,32 +66,110 @@ public class WallpaperAdapter extends RecyclerView.Adapter<WallpaperAdapter.Wall
     public void clear() {
         mWallpapers = null;
         mFiltered = null;
+        mSearchGeneration.incrementAndGet();
+        notifyDataSetChanged();
     }
 
-    public void filter(String str) {
-        if (str == null || mWallpapers == null) {
-            mFiltered = null;
-            notifyDataSetChanged();
-            return;
-        }
-        str = str.toLowerCase(Locale.getDefault());
-        mFiltered = new ArrayList<>();
-        for (WallpaperUtils.Wallpaper wallpaper : mWallpapers.wallpapers) {
-            if (mFiltered.size() == SEARCH_RESULT_LIMIT)
-                break;
-            if (wallpaper.name.toLowerCase(Locale.getDefault()).contains(str) ||
-                    wallpaper.author.toLowerCase(Locale.getDefault()).contains(str)) {
-                mFiltered.add(wallpaper);
+    /**
+     * @return how long to wait for more typing before searching
+     */
+    public long getSearchDelay() {
+        long delay = TimeUnit.NANOSECONDS.toMillis(mSearchCost * 4);
+        return Math.max(MIN_SEARCH_DELAY, Math.min(MAX_SEARCH_DELAY, delay));
+    }
+
+    /**
+     * Searches in the background, any search still running is dropped. The results are shown
+     * by animating just what changed; a null {@code query} shows every wallpaper again.
+     */
+    public void filter(final String query) {
+        mQuery = query;
+        final int generation = mSearchGeneration.incrementAndGet();
+        final List<WallpaperUtils.Wallpaper> before = getShown();
+        final WallpaperUtils.WallpapersHolder wallpapers = mWallpapers;
+        mSearchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mSearchGeneration.get() != generation) return;
+                long start = System.nanoTime();
+                final ArrayList<WallpaperUtils.Wallpaper> filtered = search(wallpapers, query);
+                final ListDiff diff = ListDiff.between(before, filtered != null ? filtered :
+                        getAll(wallpapers));
+                final long cost = System.nanoTime() - start;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mSearchGeneration.get() != generation) return;
+                        mFiltered = filtered;
+                        diff.dispatchTo(WallpaperAdapter.this);
+                        mSearchCost = mSearchCost == 0 ? cost : (mSearchCost * 3 + cost) / 4;
+                    }
+                });
             }
+        });
+    }
+
+    /**
+     * @return the best matches of {@code query}, null to show every wallpaper. Called on
+     * mSearchExecutor's thread.
+     */
+    private ArrayList<WallpaperUtils.Wallpaper> search(WallpaperUtils.WallpapersHolder wallpapers,
+                                                       String query) {
+        if (query == null || wallpapers == null || wallpapers.wallpapers == null) return null;
+        if (mSearched != wallpapers.wallpapers) {
+            mSearch = new WallpaperSearch<>(wallpapers.wallpapers);
+            mSearched = wallpapers.wallpapers;
         }
-        if (mFiltered.size() == 0)
-            mFiltered = null;
-        notifyDataSetChanged();
+        ArrayList<WallpaperUtils.Wallpaper> filtered = new ArrayList<>(SEARCH_RESULT_LIMIT);
+        mSearch.search(query, SEARCH_RESULT_LIMIT, filtered);
+        return filtered.size() > 0 ? filtered : null;
+    }
+
+    private List<WallpaperUtils.Wallpaper> getShown() {
+        return mFiltered != null ? mFiltered : getAll(mWallpapers);
     }
 
+    private static List<WallpaperUtils.Wallpaper> getAll(WallpaperUtils.WallpapersHolder holder) {
+        if (holder == null || holder.wallpapers == null)
+            return Collections.emptyList();
+        return Arrays.asList(holder.wallpapers);
+    }
+
+    /**
+     * Shows {@code holder}, searched for the current query if there is one. Until that search is
+     * done the previous results stay up, so they can animate into the new ones.
+     */
     public void set(WallpaperUtils.WallpapersHolder holder) {
         mWallpapers = holder;
-        notifyDataSetChanged();
+        if (mQuery == null || mFiltered == null) {
+            mFiltered = null;
+            mSearchGeneration.incrementAndGet();
+            notifyDataSetChanged();
+        }
+        if (mQuery != null) filter(mQuery);
+    }
+
+    /**
+     * Like {@link #set}, but when {@code holder} only adds wallpapers to the end of the current
+     * ones, as it does while a feed is downloading, just those are inserted.
+     */
+    public void update(WallpaperUtils.WallpapersHolder holder) {
+        if (mQuery != null || mFiltered != null || !startsWith(holder, mWallpapers)) {
+            set(holder);
+            return;
+        }
+        int count = getItemCount();
+        mWallpapers = holder;
+        mSearchGeneration.incrementAndGet();
+        notifyItemRangeInserted(count, getItemCount() - count);
+    }
+
+    private static boolean startsWith(WallpaperUtils.WallpapersHolder holder,
+                                      WallpaperUtils.WallpapersHolder prefix) {
+        if (prefix == null || holder == null || holder.length() < prefix.length()) return false;
+        for (int i = 0; i < prefix.length(); i++)
+            if (holder.get(i) != prefix.get(i)) return false;
+        return true;
     }
 
     @Override
@@ -0,0 +1,61 @@
+package projekt.dashboard.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import projekt.dashboard.util.RootShell;
+
+/**
+ * Everything the patch flows need from the device: reading system paths, writing into them as
+ * root and restarting processes. {@link RootBackend} does this for real through the root shell,
+ * {@link LocalBackend} maps it onto a plain directory so the same flows run on a desktop JVM.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public interface Backend {
+
+    /**
+     * @param path absolute device path, e.g. /data/resource-cache/...
+     * @return a file the app itself can read the path through
+     */
+    File resolve(String path);
+
+    /**
+     * Atomically replaces the device path {@code path} with a world readable copy of {@code apk}.
+     * Readers never see a partly written file, and if anything fails the old file is untouched.
+     * The file that was replaced is kept for {@link #rollback(String)}.
+     */
+    void install(File apk, String path) throws IOException;
+
+    /**
+     * Atomically puts back the file the last {@link #install(File, String)} of {@code path}
+     * replaced. There is only one level: every install replaces the file the one before it kept,
+     * and rolling back uses it up, so a second rollback throws until the next install.
+     */
+    void rollback(String path) throws IOException;
+
+    /**
+     * Recursively deletes the given device paths, ignoring the ones that don't exist.
+     */
+    void delete(List<String> paths) throws IOException;
+
+    void restart(List<String> processes);
+
+    /**
+     * @return whether {@code mountPoint} is currently mounted read-write
+     */
+    boolean isWritable(String mountPoint);
+
+    void remount(String mountPoint, boolean writable) throws IOException;
+
+    /**
+     * @return the session shared by everyone who needs {@code mountPoint} writable
+     */
+    MountSession mount(String mountPoint);
+
+    /**
+     * Runs raw shell commands as root, for whatever the operations above don't cover.
+     */
+    List<RootShell.Result> run(List<String> commands);
+}
@@ -0,0 +1,156 @@
+package projekt.dashboard.backend;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import projekt.dashboard.pipeline.StageMetrics;
+import projekt.dashboard.util.RootShell;
+
+/**
+ * Simulates the device inside a directory: /data/resource-cache/... becomes
+ * {@code <root>/data/resource-cache/...}. Restarts, remounts and raw commands aren't executed,
+ * only recorded, so a run can be checked afterwards. Every mount point starts out read-only.
+ * Only needs a plain JVM, which is what makes the patch flows benchmarkable off the device.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class LocalBackend implements Backend {
+
+    private final File mRoot;
+    private final List<String> mRestarts = new ArrayList<>();
+    private final List<String> mCommands = new ArrayList<>();
+    private final Set<String> mWritable = new HashSet<>();
+    private final Map<String, MountSession> mSessions = new HashMap<>();
+
+    public LocalBackend(File root) {
+        mRoot = root;
+    }
+
+    public File getRoot() {
+        return mRoot;
+    }
+
+    @Override
+    public File resolve(String path) {
+        return new File(mRoot, path.startsWith("/") ? path.substring(1) : path);
+    }
+
+    @Override
+    public void install(File apk, String path) throws IOException {
+        File target = resolve(path);
+        File staging = new File(target.getPath() + RootBackend.STAGING_SUFFIX);
+        File previous = new File(target.getPath() + RootBackend.PREVIOUS_SUFFIX);
+        FileUtils.forceMkdir(target.getParentFile());
+        try {
+            InputStream in = new FileInputStream(apk);
+            try {
+                FileOutputStream out = new FileOutputStream(staging);
+                try {
+                    IOUtils.copyLarge(in, out);
+                    out.getFD().sync();
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            StageMetrics.addCopy(staging.length());
+            if (!staging.setReadable(true, false))
+                throw new IOException("Unable to change permissions of " + staging);
+            // Stands in for the hard link the device uses
+            if (target.exists()) FileUtils.copyFile(target, previous);
+            if (!staging.renameTo(target))
+                throw new IOException("Unable to move " + staging + " to " + target);
+        } catch (IOException e) {
+            staging.delete();
+            throw e;
+        }
+    }
+
+    @Override
+    public void rollback(String path) throws IOException {
+        File target = resolve(path);
+        File previous = new File(target.getPath() + RootBackend.PREVIOUS_SUFFIX);
+        if (!previous.exists() || !previous.renameTo(target))
+            throw new IOException("Unable to roll back " + target);
+    }
+
+    @Override
+    public void delete(List<String> paths) throws IOException {
+        for (String path : paths) {
+            File file = resolve(path);
+            if (file.exists()) FileUtils.forceDelete(file);
+        }
+    }
+
+    @Override
+    public synchronized void restart(List<String> processes) {
+        mRestarts.addAll(processes);
+    }
+
+    @Override
+    public synchronized boolean isWritable(String mountPoint) {
+        return mWritable.contains(mountPoint);
+    }
+
+    @Override
+    public synchronized void remount(String mountPoint, boolean writable) {
+        mCommands.add("mount -o remount," + (writable ? "rw " : "ro ") + mountPoint);
+        if (writable) {
+            mWritable.add(mountPoint);
+        } else {
+            mWritable.remove(mountPoint);
+        }
+    }
+
+    @Override
+    public synchronized MountSession mount(String mountPoint) {
+        MountSession session = mSessions.get(mountPoint);
+        if (session == null) {
+            session = new MountSession(this, mountPoint);
+            mSessions.put(mountPoint, session);
+        }
+        return session;
+    }
+
+    @Override
+    public synchronized List<RootShell.Result> run(List<String> commands) {
+        mCommands.addAll(commands);
+        List<RootShell.Result> results = new ArrayList<>(commands.size());
+        for (String command : commands)
+            results.add(new RootShell.Result(command, 0, Collections.<String>emptyList()));
+        return results;
+    }
+
+    /**
+     * @return every process restart requested so far, in order
+     */
+    public synchronized List<String> getRestarts() {
+        return new ArrayList<>(mRestarts);
+    }
+
+    /**
+     * @return every raw command and remount run so far, in order
+     */
+    public synchronized List<String> getCommands() {
+        return new ArrayList<>(mCommands);
+    }
+
+    @Override
+    public String toString() {
+        return "local " + mRoot.getAbsolutePath();
+    }
+}
@@ -0,0 +1,68 @@
+package projekt.dashboard.backend;
+
+import java.io.IOException;
+
+/**
+ * Keeps a mount point writable for as long as anybody holds it. The first {@link #acquire()}
+ * remounts it read-write and the last {@link #release()} puts it back to read-only, so a batch of
+ * privileged operations pays for the remount pair once, however many steps it is made of. A mount
+ * point that was already writable when the session opened is left alone on both ends.
+ * <p>
+ * Sessions are shared per backend and mount point, get one through {@link Backend#mount(String)}.
+ * Every acquire has to be matched by a release, which belongs in a finally block:
+ * <pre>
+ * MountSession rootfs = backend.mount("/");
+ * rootfs.acquire();
+ * try {
+ *     ...
+ * } finally {
+ *     rootfs.release();
+ * }
+ * </pre>
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class MountSession {
+
+    private final Backend mBackend;
+    private final String mMountPoint;
+    private int mHolders;
+    private boolean mRemounted;
+
+    MountSession(Backend backend, String mountPoint) {
+        mBackend = backend;
+        mMountPoint = mountPoint;
+    }
+
+    /**
+     * Makes sure the mount point is writable until the matching {@link #release()}. When the
+     * remount fails, the session isn't held and nothing needs to be released.
+     */
+    public synchronized void acquire() throws IOException {
+        if (mHolders == 0 && !mBackend.isWritable(mMountPoint)) {
+            mBackend.remount(mMountPoint, true);
+            mRemounted = true;
+        }
+        mHolders++;
+    }
+
+    /**
+     * Once the last holder is done, remounts the mount point read-only again if this session was
+     * the one that made it writable.
+     */
+    public synchronized void release() throws IOException {
+        if (mHolders == 0) throw new IllegalStateException(mMountPoint + " is not held");
+        if (--mHolders > 0 || !mRemounted) return;
+        // Only ever try once, a failed restore shouldn't be retried by every later session
+        mRemounted = false;
+        mBackend.remount(mMountPoint, false);
+    }
+
+    public synchronized boolean isHeld() {
+        return mHolders > 0;
+    }
+
+    public String getMountPoint() {
+        return mMountPoint;
+    }
+}
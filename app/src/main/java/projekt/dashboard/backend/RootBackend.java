@@ -0,0 +1,135 @@
+package projekt.dashboard.backend;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import projekt.dashboard.util.RootShell;
+
+/**
+ * The real device, driven through the shared {@link RootShell} session.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class RootBackend implements Backend {
+
+    static final String STAGING_SUFFIX = ".new";
+    static final String PREVIOUS_SUFFIX = ".prev";
+    private static RootBackend mInstance;
+
+    private final Map<String, MountSession> mSessions = new HashMap<>();
+
+    private RootBackend() {
+    }
+
+    public static synchronized RootBackend get() {
+        if (mInstance == null)
+            mInstance = new RootBackend();
+        return mInstance;
+    }
+
+    @Override
+    public File resolve(String path) {
+        return new File(path);
+    }
+
+    @Override
+    public void install(File apk, String path) throws IOException {
+        String staging = path + STAGING_SUFFIX;
+        String previous = path + PREVIOUS_SUFFIX;
+        // Staged next to the target, so it's on the same filesystem and the final mv is a plain
+        // rename: whoever opens the path sees either the old APK or the complete new one. The
+        // old one is hard linked aside first, which keeps it around without copying it.
+        check(Collections.singletonList(RootShell.get().run(
+                "{ cp " + apk.getAbsolutePath() + " " + staging +
+                        " && chmod 644 " + staging +
+                        " && sync" +
+                        " && { [ ! -f " + path + " ] || ln -f " + path + " " + previous + "; }" +
+                        " && mv -f " + staging + " " + path + "; }" +
+                        " || { rm -f " + staging + "; false; }")));
+    }
+
+    @Override
+    public void rollback(String path) throws IOException {
+        check(Collections.singletonList(RootShell.get().run(
+                "mv -f " + path + PREVIOUS_SUFFIX + " " + path)));
+    }
+
+    @Override
+    public void delete(List<String> paths) throws IOException {
+        List<String> commands = new ArrayList<>(paths.size());
+        for (String path : paths)
+            commands.add("rm -rf " + path);
+        check(RootShell.get().run(commands));
+    }
+
+    @Override
+    public void restart(List<String> processes) {
+        List<String> commands = new ArrayList<>(processes.size());
+        for (String process : processes)
+            commands.add("killall " + process);
+        // A process that isn't running is fine, so the results don't matter here
+        RootShell.get().run(commands);
+    }
+
+    @Override
+    public boolean isWritable(String mountPoint) {
+        // /proc/mounts is world readable, so this doesn't need a round trip through su
+        String options = null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader("/proc/mounts"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    // The last mount on a mount point is the one in effect
+                    if (fields.length > 3 && fields[1].equals(mountPoint)) options = fields[3];
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        return options != null && (options.equals("rw") || options.startsWith("rw,"));
+    }
+
+    @Override
+    public void remount(String mountPoint, boolean writable) throws IOException {
+        check(Collections.singletonList(RootShell.get().run(
+                "mount -o remount," + (writable ? "rw " : "ro ") + mountPoint)));
+    }
+
+    @Override
+    public synchronized MountSession mount(String mountPoint) {
+        MountSession session = mSessions.get(mountPoint);
+        if (session == null) {
+            session = new MountSession(this, mountPoint);
+            mSessions.put(mountPoint, session);
+        }
+        return session;
+    }
+
+    @Override
+    public List<RootShell.Result> run(List<String> commands) {
+        return RootShell.get().run(commands);
+    }
+
+    private static void check(List<RootShell.Result> results) throws IOException {
+        for (RootShell.Result result : results) {
+            if (!result.isSuccessful())
+                throw new IOException("Failed: " + result + " " + result.errors);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "root";
+    }
+}
@@ -18,6 +18,7 @@ import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
 import android.widget.TextView;
@@ -25,34 +26,23 @@ import android.widget.Toast;
 
 import com.afollestad.materialdialogs.MaterialDialog;
 
-import net.lingala.zip4j.core.ZipFile;
-import net.lingala.zip4j.exception.ZipException;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpResponse;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.impl.client.DefaultHttpClient;
-
-import java.io.BufferedInputStream;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import butterknife.ButterKnife;
 import projekt.dashboard.R;
+import projekt.dashboard.backend.RootBackend;
 import projekt.dashboard.colorpicker.ColorPickerDialog;
 import projekt.dashboard.colorpicker.ColorPickerPreference;
 import projekt.dashboard.fragments.base.BasePageFragment;
+import projekt.dashboard.overlay.AccentColorJob;
+import projekt.dashboard.overlay.OverlayCache;
+import projekt.dashboard.pipeline.Pipeline;
+import projekt.dashboard.util.ResourceDownloader;
 
 
 /**
@@ -61,11 +51,19 @@ import projekt.dashboard.fragments.base.BasePageFragment;
 
 public class ColorChangerFragment extends BasePageFragment {
 
+    private static final String RESOURCES_URL =
+            "https://dl.dropboxusercontent.com/u/2429389/dashboard.%20files/";
+    // Package, resource prefix and color preference of every color switchable theme
+    private static final String[][] COLOR_THEMES = {
+            {"com.chummy.jezebel.materialdark.donate", "materialdark", "akzent"},
+            {"com.chummy.jezebel.blackedout.donate", "blackedout", "blakzent"}};
+
     public String color_picked, saved_color;
     public boolean is_autorestart_enabled, is_hotreboot_enabled, is_debugging_mode_enabled,
             is_force_update_enabled;
     public SharedPreferences prefs;
     public ViewGroup inflation;
+    private volatile Pipeline mPipeline;
 
     public static boolean isAppInstalled(Context context, String packageName) {
         try {
@@ -178,13 +176,7 @@ public class ColorChangerFragment extends BasePageFragment {
                         if (isNetworkAvailable()) {
                             if (is_debugging_mode_enabled) Log.e("Initialization",
                                     "Network found, downloading...");
-                            String[] downloadCommands = {"https://dl.dropboxusercontent.com/u/" +
-                                    "2429389/dashboard.%20files/materialdark-resources.apk",
-                                    "materialdark"};
-                            new downloadResources().execute(downloadCommands);
-                            String[] firstPhaseCommands = {"materialdark"};
-                            new firstPhaseAsyncTasks().execute(firstPhaseCommands);
-                            launchColorPicker("akzent",
+                            launchColorPicker("akzent", "materialdark",
                                     "/data/resource-cache/com.chummy.jezebel.materialdark.donate" +
                                             "/common/resources.apk");
                         } else {
@@ -201,9 +193,7 @@ public class ColorChangerFragment extends BasePageFragment {
                     } else {
                         if (is_debugging_mode_enabled) Log.e("Initialization",
                                 "Download not required, using stored cache...");
-                        String[] firstPhaseCommands = {"materialdark"};
-                        new firstPhaseAsyncTasks().execute(firstPhaseCommands);
-                        launchColorPicker("akzent",
+                        launchColorPicker("akzent", "materialdark",
                                 "/data/resource-cache/com.chummy.jezebel.materialdark.donate" +
                                         "/common/resources.apk");
                     }
@@ -230,13 +220,9 @@ public class ColorChangerFragment extends BasePageFragment {
                         if (isNetworkAvailable()) {
                             if (is_debugging_mode_enabled) Log.e("Initialization",
                                     "Network found, downloading...");
-                            String[] downloadCommands = {"https://dl.dropboxusercontent.com/u/" +
-                                    "2429389/dashboard.%20files/stock-materialdark-resources.apk",
-                                    "stock-materialdark"};
-                            new downloadResources().execute(downloadCommands);
                             String[] firstPhaseCommands = {"stock-materialdark",
                                     "/data/resource-cache/com.chummy.jezebel." +
-                                            "materialdark.donate/common/resources.apk", "akZent"};
+                                            "materialdark.donate/common/resources.apk"};
                             new restorePhaseAsyncTasks().execute(firstPhaseCommands);
                             SharedPreferences settings = PreferenceManager.
                                     getDefaultSharedPreferences(getContext());
@@ -293,13 +279,7 @@ public class ColorChangerFragment extends BasePageFragment {
                         if (isNetworkAvailable()) {
                             if (is_debugging_mode_enabled) Log.e("Initialization",
                                     "Network found, downloading...");
-                            String[] downloadCommands = {"https://dl.dropboxusercontent.com/u/" +
-                                    "2429389/dashboard.%20files/blackedout-resources.apk",
-                                    "blackedout"};
-                            new downloadResources().execute(downloadCommands);
-                            String[] firstPhaseCommands = {"blackedout"};
-                            new firstPhaseAsyncTasks().execute(firstPhaseCommands);
-                            launchColorPicker("blakzent",
+                            launchColorPicker("blakzent", "blackedout",
                                     "/data/resource-cache/com.chummy.jezebel.blackedout.donate" +
                                             "/common/resources.apk");
                         } else {
@@ -316,9 +296,7 @@ public class ColorChangerFragment extends BasePageFragment {
                     } else {
                         if (is_debugging_mode_enabled) Log.e("Initialization",
                                 "Download not required, using stored cache...");
-                        String[] firstPhaseCommands = {"blackedout"};
-                        new firstPhaseAsyncTasks().execute(firstPhaseCommands);
-                        launchColorPicker("blakzent",
+                        launchColorPicker("blakzent", "blackedout",
                                 "/data/resource-cache/com.chummy.jezebel.blackedout.donate" +
                                         "/common/resources.apk");
                     }
@@ -345,13 +323,9 @@ public class ColorChangerFragment extends BasePageFragment {
                         if (isNetworkAvailable()) {
                             if (is_debugging_mode_enabled) Log.e("Initialization",
                                     "Network found, downloading...");
-                            String[] downloadCommands = {"https://dl.dropboxusercontent.com/u/" +
-                                    "2429389/dashboard.%20files/stock-blackedout-resources.apk",
-                                    "stock-blackedout"};
-                            new downloadResources().execute(downloadCommands);
                             String[] firstPhaseCommands = {"stock-blackedout",
                                     "/data/resource-cache/com.chummy.jezebel." +
-                                            "blackedout.donate/common/resources.apk", "blakZent"};
+                                            "blackedout.donate/common/resources.apk"};
                             new restorePhaseAsyncTasks().execute(firstPhaseCommands);
                             SharedPreferences settings = PreferenceManager.
                                     getDefaultSharedPreferences(getContext());
@@ -413,24 +387,40 @@ public class ColorChangerFragment extends BasePageFragment {
             installedTitle.setText("no cdt color switch themes installed");
         }
         projektklar.setVisibility(View.GONE); // disable projekt klar functionality for now
+
+        Button applyAll = (Button) inflation.findViewById(R.id.apply_all);
+        applyAll.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                launchBatchColorPicker();
+            }
+        });
+        int installedThemes = 0;
+        for (String[] theme : COLOR_THEMES) {
+            if (isAppInstalled(getContext(), theme[0])) installedThemes++;
+        }
+        if (installedThemes > 1) applyAll.setVisibility(View.VISIBLE);
         return inflation;
     }
 
 
-    public void launchColorPicker(String theme_name, String theme_dir) {
+    public void launchColorPicker(String theme_name, String prefix, String theme_dir) {
+        launchColorPicker(new ColorTarget(theme_name, prefix, theme_dir));
+    }
+
+    private void launchColorPicker(ColorTarget... targets) {
         SharedPreferences settings = PreferenceManager.getDefaultSharedPreferences(getContext());
-        saved_color = settings.getString(theme_name, "0");
+        saved_color = settings.getString(targets[0].themeName, "0");
 
         if (saved_color != "0") {
-            launchColorPickerPrivate(theme_dir, Color.parseColor(saved_color), theme_name);
+            launchColorPickerPrivate(Color.parseColor(saved_color), targets);
         } else {
             int white = Color.argb(255, 255, 255, 255);
-            launchColorPickerPrivate(theme_dir, white, theme_name);
+            launchColorPickerPrivate(white, targets);
         }
     }
 
-    private void launchColorPickerPrivate(final String theme_dir, int color,
-                                          final String theme_name) {
+    private void launchColorPickerPrivate(int color, final ColorTarget... targets) {
 
         final ColorPickerDialog cpd = new ColorPickerDialog(getActivity(), color);
 
@@ -441,14 +431,45 @@ public class ColorChangerFragment extends BasePageFragment {
             @Override
             public void onColorChanged(int color) {
                 color_picked = ColorPickerPreference.convertToARGB(color);
-                editor.putString(theme_name, color_picked).commit();
-                String[] secondPhaseCommands = {theme_dir};
-                new secondPhaseAsyncTasks().execute(secondPhaseCommands);
+                for (ColorTarget target : targets)
+                    editor.putString(target.themeName, color_picked);
+                editor.commit();
+                new secondPhaseAsyncTasks().execute(targets);
             }
         });
         cpd.show();
     }
 
+    /**
+     * Patches every installed color switchable theme with the same color in one go.
+     */
+    private void launchBatchColorPicker() {
+        List<ColorTarget> targets = new ArrayList<>();
+        boolean needsDownload = false;
+        for (String[] theme : COLOR_THEMES) {
+            if (!isAppInstalled(getActivity(), theme[0])) continue;
+            targets.add(new ColorTarget(theme[2], theme[1],
+                    "/data/resource-cache/" + theme[0] + "/common/resources.apk"));
+            File resourceFile = new File(getActivity().getFilesDir(),
+                    theme[1] + "-resources.apk");
+            needsDownload |= !resourceFile.exists() || is_force_update_enabled;
+        }
+        if (targets.isEmpty()) return;
+        if (needsDownload && !isNetworkAvailable()) {
+            new MaterialDialog.Builder(getActivity())
+                    .title("patch required")
+                    .content("to patch the system cache for color swapping " +
+                            "capabilities, we must download a small 36kb apk " +
+                            "resource cache file used by theme engine, " +
+                            "however an internet connection is required.")
+                    .positiveText("Okay")
+                    .negativeText("Cancel")
+                    .show();
+            return;
+        }
+        launchColorPicker(targets.toArray(new ColorTarget[targets.size()]));
+    }
+
     public void cleanTempFolder() {
         File dir = getActivity().getCacheDir();
         deleteRecursive(dir);
@@ -474,112 +495,202 @@ public class ColorChangerFragment extends BasePageFragment {
         ButterKnife.unbind(this);
     }
 
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        Pipeline pipeline = mPipeline;
+        if (pipeline != null && getActivity() != null && getActivity().isFinishing())
+            pipeline.cancel();
+    }
+
     @Override
     public int getTitle() {
         return R.string.color_changer;
     }
 
-    private class restorePhaseAsyncTasks extends AsyncTask<String, String, String> {
+    private Pipeline.Task downloadStage(File filesDir, String prefix) {
+        return AccentColorJob.downloadTask(new File(filesDir, prefix + "-resources.apk"),
+                RESOURCES_URL + prefix + "-resources.apk", is_force_update_enabled, null);
+    }
+
+    private Pipeline.Task restartStage() {
+        return new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                if (is_autorestart_enabled) {
+                    RootBackend.get().restart(Arrays.asList("com.android.systemui",
+                            "com.android.settings"));
+                }
+                if (is_hotreboot_enabled) {
+                    RootBackend.get().restart(Collections.singletonList("zygote"));
+                }
+            }
+        };
+    }
+
+    private void runPipeline(Pipeline pipeline) {
+        mPipeline = pipeline;
+        try {
+            pipeline.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (is_debugging_mode_enabled) Log.e("Pipeline", pipeline.toString());
+        mPipeline = null;
+    }
+
+    private class restorePhaseAsyncTasks extends AsyncTask<String, String, Boolean> {
+
+        private String themename = "";
+
         @Override
-        protected String doInBackground(String... params) {
-            String prefix = params[0];
-            String directory = params[1];
-            String themename = "";
+        protected Boolean doInBackground(String... params) {
+            final String prefix = params[0];
+            final String directory = params[1];
             if (prefix.equals("stock-materialdark")) {
                 themename = "akZent";
             }
             if (prefix.equals("stock-blackedout")) {
                 themename = "blakZent";
             }
-            copyCommonsFile(prefix, directory, themename);
-            return null;
+            final File filesDir = getActivity().getFilesDir();
+
+            Pipeline pipeline = new Pipeline("restore " + themename)
+                    .stage("download", downloadStage(filesDir, prefix))
+                    .stage("install", new Pipeline.Task() {
+                        @Override
+                        public void run() throws Exception {
+                            RootBackend.get().install(
+                                    new File(filesDir, prefix + "-resources.apk"), directory);
+                            if (is_debugging_mode_enabled) Log.e("copyFinalizedAPK",
+                                    "Successfully copied the modified resource APK into " +
+                                            "/data/resource-cache and modified the permissions!");
+                        }
+                    }, "download")
+                    .stage("restart", restartStage(), "install");
+            runPipeline(pipeline);
+            return pipeline.isSuccessful();
         }
 
-        private void copyCommonsFile(String prefix, String directory, String themename) {
-            File source = new File(getActivity().getFilesDir().getAbsolutePath() + "/"
-                    + prefix + "-resources.apk");
-            String destinationPath = getActivity().getCacheDir().getAbsolutePath() + "/"
-                    + prefix + "-resources.apk";
-            File destination = new File(destinationPath);
-            try {
-                FileUtils.copyFile(source, destination);
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Successfully copied commons apk from resource-cache to work directory");
-                copyFinalizedAPK(prefix, directory, themename);
-            } catch (IOException e) {
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Failed to copy commons apk from resource-cache to work directory");
-                e.printStackTrace();
-            }
+        @Override
+        protected void onPostExecute(Boolean result) {
+            if (!result || inflation == null) return;
+            snackbar("patched resource for " + themename + " has been removed successfully!",
+                    Snackbar.LENGTH_SHORT).show();
         }
+    }
 
-        public void copyFinalizedAPK(String prefix, String directory, String themename) {
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "cp " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/" + prefix + "-resources.apk " + directory);
-            eu.chainfire.libsuperuser.Shell.SU.run("chmod 644 " + directory);
-            if (is_debugging_mode_enabled) Log.e("copyFinalizedAPK",
-                    "Successfully copied the modified resource APK into " +
-                            "/data/resource-cache and modified the permissions!");
-            cleanTempFolder();
-            Snackbar snack = Snackbar.make(inflation,
-                    "patched resource for " + themename + " has been removed successfully!",
-                    Snackbar.LENGTH_SHORT);
-            ViewGroup group = (ViewGroup) snack.getView();
-            if (prefs.getBoolean("blacked_out_enabled", true)) {
-                group.setBackgroundColor(
-                        ContextCompat.getColor(getContext(), R.color.primary_1_blacked_out));
-            } else {
-                group.setBackgroundColor(
-                        ContextCompat.getColor(getContext(), R.color.primary_1_dark_material));
-            }
-            snack.show();
-            if (is_autorestart_enabled) {
-                eu.chainfire.libsuperuser.Shell.SU.run("killall com.android.systemui");
-                eu.chainfire.libsuperuser.Shell.SU.run("killall com.android.settings");
-            }
-            if (is_hotreboot_enabled) {
-                eu.chainfire.libsuperuser.Shell.SU.run("killall zygote");
-            }
+    private Snackbar snackbar(String text, int duration) {
+        Snackbar snack = Snackbar.make(inflation, text, duration);
+        ViewGroup group = (ViewGroup) snack.getView();
+        if (prefs.getBoolean("blacked_out_enabled", true)) {
+            group.setBackgroundColor(
+                    ContextCompat.getColor(getContext(), R.color.primary_1_blacked_out));
+        } else {
+            group.setBackgroundColor(
+                    ContextCompat.getColor(getContext(), R.color.primary_1_dark_material));
         }
+        return snack;
     }
 
-    private class firstPhaseAsyncTasks extends AsyncTask<String, String, String> {
+    /**
+     * Puts back the resources the last color run replaced in each of the given theme paths. There
+     * is only one level of undo: every install replaces what the one before it kept.
+     */
+    private class rollbackAsyncTasks extends AsyncTask<String, String, Boolean> {
+
         @Override
-        protected String doInBackground(String... params) {
-            String prefix = params[0];
-            copyCommonsFile(prefix);
-            return null;
+        protected Boolean doInBackground(final String... paths) {
+            Pipeline pipeline = new Pipeline("rollback")
+                    .stage("rollback", new Pipeline.Task() {
+                        @Override
+                        public void run() throws Exception {
+                            for (String path : paths)
+                                RootBackend.get().rollback(path);
+                        }
+                    })
+                    .stage("restart", restartStage(), "rollback");
+            runPipeline(pipeline);
+            if (!pipeline.isSuccessful() && is_debugging_mode_enabled)
+                Log.e("rollback", "Could not restore the previous resources.",
+                        pipeline.getFailure());
+            return pipeline.isSuccessful();
         }
 
-        private void copyCommonsFile(String prefix) {
-            File source = new File(getActivity().getFilesDir().getAbsolutePath() + "/"
-                    + prefix + "-resources.apk");
-            String destinationPath = getActivity().getCacheDir().getAbsolutePath() +
-                    "/common-resources.apk";
-            File destination = new File(destinationPath);
-            try {
-                FileUtils.copyFile(source, destination);
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Successfully copied commons apk from resource-cache to work directory");
-            } catch (IOException e) {
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Failed to copy commons apk from resource-cache to work directory");
-                e.printStackTrace();
-            }
+        @Override
+        protected void onPostExecute(Boolean result) {
+            if (inflation == null) return;
+            snackbar(result ? "the previous accent color has been restored!" :
+                    "the previous accent color could not be restored", Snackbar.LENGTH_SHORT)
+                    .show();
         }
     }
 
-    private class secondPhaseAsyncTasks extends AsyncTask<String, String, Void> {
+    /**
+     * A color switchable theme picked for a color run.
+     */
+    private static class ColorTarget {
+
+        final String themeName;
+        final String prefix;
+        final String themeDir;
 
+        ColorTarget(String themeName, String prefix, String themeDir) {
+            this.themeName = themeName;
+            this.prefix = prefix;
+            this.themeDir = themeDir;
+        }
+    }
+
+    private class secondPhaseAsyncTasks extends AsyncTask<ColorTarget, String, Void> {
+
+        private final List<String> installed = new ArrayList<>();
         private ProgressDialog pd;
 
         @Override
-        protected Void doInBackground(String... params) {
-            String theme_dir = params[0];
-            createXMLfile("accent_color_dark.xml", theme_dir);
-            pd.setProgress(60);
+        protected Void doInBackground(ColorTarget... targets) {
+            File filesDir = getActivity().getFilesDir();
+            File cacheDir = getActivity().getCacheDir();
+            OverlayCache cache = OverlayCache.get(getActivity());
+
+            // Every theme gets its own work directory, so they can all be patched at once
+            Pipeline pipeline = new Pipeline("color " + color_picked);
+            final List<AccentColorJob> jobs = new ArrayList<>();
+            String[] installs = new String[targets.length];
+            for (int i = 0; i < targets.length; i++) {
+                ColorTarget target = targets[i];
+                AccentColorJob job = new AccentColorJob(RootBackend.get(), cache,
+                        new File(filesDir, target.prefix + "-resources.apk"),
+                        new File(cacheDir, target.prefix), target.themeDir, color_picked)
+                        .download(RESOURCES_URL + target.prefix + "-resources.apk",
+                                is_force_update_enabled, downloadProgress(target.themeName));
+                installs[i] = job.addStages(pipeline, target.themeName);
+                jobs.add(job);
+            }
+            // A single restart once every theme is done, as long as at least one got installed
+            final Pipeline.Task restart = restartStage();
+            pipeline.finalStage("restart", new Pipeline.Task() {
+                @Override
+                public void run() throws Exception {
+                    for (AccentColorJob job : jobs) {
+                        if (job.isInstalled()) {
+                            restart.run();
+                            return;
+                        }
+                    }
+                }
+            }, installs);
+            runPipeline(pipeline);
+            for (int i = 0; i < targets.length; i++) {
+                if (jobs.get(i).isInstalled()) installed.add(targets[i].themeDir);
+            }
+
+            if (!pipeline.isSuccessful() && is_debugging_mode_enabled)
+                Log.e("patchCommonsAPK", "Failed to patch common-resources. (EXCEPTION)",
+                        pipeline.getFailure());
+            cleanTempFolder();
+            if (is_debugging_mode_enabled) Log.e("cleanTempFolder",
+                    "Successfully cleaned up the whole work area!");
             return null;
         }
 
@@ -597,285 +708,34 @@ public class ColorChangerFragment extends BasePageFragment {
             pd.show();
         }
 
-        protected void onPostExecute(Void result) {
-            pd.dismiss();
-        }
-
-        private void createXMLfile(String string, String theme_dir) {
-            try {
-                // Create the working directory
-                File directory = new File(getActivity().getCacheDir(), "/res/color-v14/");
-                if (!directory.exists()) {
-                    directory.mkdirs();
-                }
-                // Create the files
-                File root = new File(getActivity().getCacheDir(), "/res/color-v14/" + string);
-                if (!root.exists()) {
-                    root.createNewFile();
-                }
-                FileWriter fw = new FileWriter(root);
-                BufferedWriter bw = new BufferedWriter(fw);
-                PrintWriter pw = new PrintWriter(bw);
-                String xmlTags = ("<?xml version=\"1.0\" encoding=\"utf-8\"?>" + "\n");
-                String xmlRes1 = ("<selector" + "\n");
-                String xmlRes2 = ("  xmlns:android=\"http://schemas.android.com/apk/res/android\">"
-                        + "\n");
-                String xmlRes3 = ("    <item android:color=" + "\"" + color_picked + "\"" + " />"
-                        + "\n");
-                String xmlRes4 = ("</selector>");
-                pw.write(xmlTags);
-                pw.write(xmlRes1);
-                pw.write(xmlRes2);
-                pw.write(xmlRes3);
-                pw.write(xmlRes4);
-                pw.close();
-                bw.close();
-                fw.close();
-                if (string == "accent_color.xml") {
-                    try {
-                        compileDummyAPK(theme_dir);
-                    } catch (Exception e) {
-                        if (is_debugging_mode_enabled) Log.e("CreateXMLFileException",
-                                "Could not create Dummy APK (EXCEPTION)");
-                    }
+        private ResourceDownloader.ProgressListener downloadProgress(final String themeName) {
+            return new ResourceDownloader.ProgressListener() {
+                @Override
+                public void onProgress(long downloaded, long total) {
+                    if (total <= 0) return;
+                    publishProgress("Downloading resources for " + themeName + "... " +
+                            (downloaded * 100 / total) + "%");
                 }
-                if (string == "accent_color_light.xml") {
-                    createXMLfile("accent_color.xml", theme_dir);
-                }
-                if (string == "accent_color_dark.xml") {
-                    createXMLfile("accent_color_light.xml", theme_dir);
-                }
-            } catch (IOException e) {
-                if (is_debugging_mode_enabled) Log.e("CreateXMLFileException",
-                        "Failed to create new file (IOEXCEPTION).");
-            }
-
-        }
-
-        private void compileDummyAPK(String theme_dir) throws Exception {
-            if (is_debugging_mode_enabled)
-                Log.e("CompileDummyAPK", "Beginning to compile dummy APK...");
-
-            // Create AndroidManifest.xml first, cutting down the assets file transfer!
-
-            File manifest = new File(getActivity().getCacheDir(), "AndroidManifest.xml");
-            if (!manifest.exists()) {
-                manifest.createNewFile();
-            }
-            FileWriter fw = new FileWriter(manifest);
-            BufferedWriter bw = new BufferedWriter(fw);
-            PrintWriter pw = new PrintWriter(bw);
-            String xmlTags = ("<?xml version=\"1.0\" encoding=\"utf-8\" " +
-                    "standalone=\"no\"?>" + "\n");
-            String xmlRes1 = ("<manifest xmlns:android=\"http://schemas.android.com/" +
-                    "apk/res/android\" package=\"common\"/>" + "\n");
-            pw.write(xmlTags);
-            pw.write(xmlRes1);
-            pw.close();
-            bw.close();
-            fw.close();
-
-            Process nativeApp = Runtime.getRuntime().exec(
-                    "aapt p -M " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/AndroidManifest.xml -S " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/res/ -I " +
-                            "system/framework/framework-res.apk -F " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/color-resources.apk\n");
-            IOUtils.toString(nativeApp.getInputStream());
-            IOUtils.toString(nativeApp.getErrorStream());
-            nativeApp.waitFor();
-            if (is_debugging_mode_enabled) Log.e("CompileDummyAPK",
-                    "Successfully compiled dummy apk!");
-            unzip(theme_dir);
-        }
-
-        public void unzip(String theme_dir) {
-            String source =
-                    getActivity().getCacheDir().getAbsolutePath() + "/color-resources.apk";
-            String destination =
-                    getActivity().getCacheDir().getAbsolutePath() + "/color-resources/";
-
-            try {
-                ZipFile zipFile = new ZipFile(source);
-                if (is_debugging_mode_enabled)
-                    Log.e("Unzip", "The ZIP has been located and will now be unzipped...");
-                zipFile.extractAll(destination);
-                if (is_debugging_mode_enabled) Log.e("Unzip",
-                        "Successfully unzipped the file to the corresponding directory!");
-            } catch (ZipException e) {
-                if (is_debugging_mode_enabled) Log.e("Unzip",
-                        "Failed to unzip the file the corresponding directory. (EXCEPTION)");
-                e.printStackTrace();
-            } finally {
-                try {
-                    performAAPTonCommonsAPK(theme_dir);
-                } catch (Exception e) {
-                    //
-                }
-            }
+            };
         }
 
-        private void performAAPTonCommonsAPK(String theme_dir)
-                throws Exception {
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Mounting system as read-write as we prepare for some commands...");
-            eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /res/color-v14");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                            "/color-resources/res/color-v14/accent_color_dark.xml " +
-                            "/res/color-v14/accent_color_dark.xml");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                            "/color-resources/res/color-v14/accent_color_light.xml " +
-                            "/res/color-v14/accent_color_light.xml");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                            "/color-resources/res/color-v14/accent_color.xml " +
-                            "/res/color-v14/accent_color.xml");
-
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Successfully copied all modified accent XMLs into the root folder.");
-
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Preparing for clean up on common-resources...");
-
-            Process nativeApp1 = Runtime.getRuntime().exec(
-                    "aapt remove " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk res/color-v14/accent_color_dark.xml");
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Deleted dark accent file!");
-            nativeApp1.waitFor();
-            Process nativeApp2 = Runtime.getRuntime().exec(
-                    "aapt remove " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk res/color-v14/accent_color_light.xml");
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Deleted light accent file!");
-            nativeApp2.waitFor();
-            Process nativeApp3 = Runtime.getRuntime().exec(
-                    "aapt remove " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk res/color-v14/accent_color.xml");
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Deleted main accent file!");
-            nativeApp3.waitFor();
-
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "aapt add " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk res/color-v14/accent_color_dark.xml");
-            if (is_debugging_mode_enabled)
-                Log.e("performAAPTonCommonsAPK", "Added freshly created dark accent file...");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "aapt add " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk res/color-v14/accent_color_light.xml");
-            if (is_debugging_mode_enabled)
-                Log.e("performAAPTonCommonsAPK", "Added freshly created light accent file...");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "aapt add " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk res/color-v14/accent_color.xml");
-            if (is_debugging_mode_enabled)
-                Log.e("performAAPTonCommonsAPK",
-                        "Added freshly created main accent file...ALL DONE!");
-
-            eu.chainfire.libsuperuser.Shell.SU.run("rm -r /res/color-v14");
-            eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Cleaned up root directory and remounted system as read-only.");
-
-            // Finally, let's make sure the directories are pushed to the last command
-            copyFinalizedAPK(theme_dir);
-        }
-
-        public void copyFinalizedAPK(String directory) {
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "cp " +
-                            getActivity().getCacheDir().getAbsolutePath() +
-                            "/common-resources.apk " + directory);
-            eu.chainfire.libsuperuser.Shell.SU.run("chmod 644 " + directory);
-            if (is_debugging_mode_enabled) Log.e("copyFinalizedAPK",
-                    "Successfully copied the modified resource APK into " +
-                            "/data/resource-cache and modified the permissions!");
-            cleanTempFolder();
-            if (is_debugging_mode_enabled) Log.e("cleanTempFolder",
-                    "Successfully cleaned up the whole work area!");
-
-            if (is_autorestart_enabled) {
-                eu.chainfire.libsuperuser.Shell.SU.run("killall com.android.systemui");
-                eu.chainfire.libsuperuser.Shell.SU.run("killall com.android.settings");
-            }
-            if (is_hotreboot_enabled) {
-                eu.chainfire.libsuperuser.Shell.SU.run("killall zygote");
-            }
-        }
-    }
-
-    private class downloadResources extends AsyncTask<String, Integer, String> {
-
         @Override
-        protected void onPreExecute() {
-            super.onPreExecute();
+        protected void onProgressUpdate(String... progress) {
+            pd.setMessage(progress[0]);
         }
 
-        @Override
-        protected void onProgressUpdate(Integer... progress) {
-            super.onProgressUpdate(progress);
-        }
-
-        @Override
-        protected void onPostExecute(String result) {
-            super.onPostExecute(result);
-        }
-
-        @Override
-        protected String doInBackground(String... sUrl) {
-            try {
-                if (is_debugging_mode_enabled) Log.e("File download", "Started from :" + sUrl[0]);
-                URL url = new URL(sUrl[0]);
-                //URLConnection connection = url.openConnection();
-                File myDir = new File(getActivity().getFilesDir().getAbsolutePath());
-                HttpClient client = new DefaultHttpClient();
-                HttpPost request = new HttpPost(sUrl[0]);
-                request.setHeader("User-Agent", sUrl[0]);
-
-                HttpResponse response = client.execute(request);
-                // create the directory if it doesnt exist
-                if (!myDir.exists()) myDir.mkdirs();
-
-                File outputFile = new File(myDir, sUrl[1] + "-resources.apk");
-
-                HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-                int fileLength = connection.getContentLength();
-                // download the file
-                InputStream input = new BufferedInputStream(url.openStream());
-                OutputStream output = new FileOutputStream(outputFile);
-
-                byte data[] = new byte[1024];
-                long total = 0;
-                int count;
-
-                while ((count = input.read(data)) != -1) {
-                    total += count;
-                    // publishing the progress....
-                    publishProgress((int) (total * 100 / fileLength));
-                    output.write(data, 0, count);
-                }
-                output.flush();
-                output.close();
-                input.close();
-
-                if (is_debugging_mode_enabled) Log.e("File download", "complete");
-            } catch (Exception e) {
-                if (is_debugging_mode_enabled) Log.e("File download", "error: " + e.getMessage());
-            }
-            return null;
+        protected void onPostExecute(Void result) {
+            pd.dismiss();
+            if (installed.isEmpty() || inflation == null) return;
+            snackbar("accent color applied!", Snackbar.LENGTH_LONG)
+                    .setAction("Undo", new View.OnClickListener() {
+                        @Override
+                        public void onClick(View v) {
+                            new rollbackAsyncTasks().execute(
+                                    installed.toArray(new String[installed.size()]));
+                        }
+                    })
+                    .show();
         }
     }
 }
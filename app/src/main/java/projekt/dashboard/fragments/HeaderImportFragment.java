@@ -2,7 +2,6 @@ package projekt.dashboard.fragments;
 
 import android.app.ProgressDialog;
 import android.content.SharedPreferences;
-import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
 import android.os.AsyncTask;
 import android.os.Bundle;
@@ -22,42 +21,51 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import net.lingala.zip4j.exception.ZipException;
-
-import org.apache.commons.io.FileUtils;
-
 import java.io.File;
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
 import butterknife.ButterKnife;
 import projekt.dashboard.R;
+import projekt.dashboard.backend.RootBackend;
 import projekt.dashboard.fragments.base.BasePageFragment;
-import projekt.dashboard.util.ReadXMLFile;
+import projekt.dashboard.overlay.HeaderPatchJob;
+import projekt.dashboard.overlay.PngOptimizer;
+import projekt.dashboard.pipeline.Pipeline;
+import projekt.dashboard.util.HeaderManifest;
+import projekt.dashboard.util.HeaderPackIndexer;
+import projekt.dashboard.util.ThemeApkResolver;
+import projekt.dashboard.util.ThemeInventory;
 
 /**
  * @author Nicholas Chum (nicholaschum)
  */
 public class HeaderImportFragment extends BasePageFragment {
 
+    private static final List<String> CDT_THEMES = Arrays.asList(
+            "com.chummy.jezebel.blackedout.donate",
+            "com.chummy.jezebel.materialdark.donate",
+            "projekt.klar");
     public ViewGroup inflation;
-    public boolean are_we_clearing_cache_after,
+    public boolean are_we_clearing_cache_after, are_we_optimizing_headers = true,
             is_debugging_mode_enabled, is_zip_spinner_activated, is_theme_selected;
     public Spinner spinner, spinner1, spinner2;
     public String theme_dir, package_name;
     public FloatingActionButton apply_fab;
-    public int counter = 0;
-    public int folder_directory = 1;
     public int current_hour;
     public TextView currentTimeVariable;
-    public CheckBox autoClearSystemUICache, debugmode;
+    public CheckBox autoClearSystemUICache, debugmode, optimizeHeaders;
     public SharedPreferences prefs;
+    public ThemeInventory.Listener themeListener;
+    public boolean is_theme_list_loaded;
+    public HeaderPackIndexer.Scan headerPackScan;
+    public Map<String, HeaderPackIndexer.Pack> headerPacks = new HashMap<>();
 
     public void cleanTempFolder() {
         File dir = getActivity().getCacheDir();
@@ -72,96 +80,44 @@ public class HeaderImportFragment extends BasePageFragment {
         fileOrDirectory.delete();
     }
 
-    public int countPNGs() {
-        int count = 0;
-
-        List<String> filenamePNGs = Arrays.asList(
-                "notifhead_afternoon.png", "notifhead_christmas.png", "notifhead_morning.png",
-                "notifhead_newyearseve.png", "notifhead_night.png", "notifhead_noon.png",
-                "notifhead_sunrise.png", "notifhead_sunset_hdpi.png",
-                "notifhead_sunset_xhdpi.png", "notifhead_sunset.png");
-
-        File f2 = new File(
-                getActivity().getCacheDir().getAbsolutePath() + "/headers/");
-        File[] files2 = f2.listFiles();
-        if (files2 != null) {
-            for (File inFile2 : files2) {
-                if (inFile2.isFile()) {
-                    // Filter out filenames of which were unzipped earlier
-                    String filenameParse[] = inFile2.getAbsolutePath().split("/");
-                    String filename = filenameParse[filenameParse.length - 1];
-
-                    if (filenamePNGs.contains(filename)) {
-                        count += 1;
-                    }
-                }
-            }
-        }
-        return count;
-    }
-
-    public void checkWhetherZIPisValid(String source, String destination) {
-        try {
-            net.lingala.zip4j.core.ZipFile zipFile = new net.lingala.zip4j.core.ZipFile(source);
-            if (is_debugging_mode_enabled)
-                Log.e("Unzip", "The ZIP has been located and will now be unzipped...");
-            zipFile.extractAll(destination);
-            if (is_debugging_mode_enabled) Log.e("Unzip",
-                    "Successfully unzipped the file to the corresponding directory!");
-
-            String[] checkerCommands = {destination + "/headers.xml"};
-            String[] newArray = ReadXMLFile.main(checkerCommands);
+    public void showHeaderPack(HeaderPackIndexer.Pack pack) {
+        HeaderManifest manifest = pack.getManifest();
 
-            TextView headerPackName = (TextView) inflation.findViewById(R.id.themeName);
-            headerPackName.setText(newArray[0]);
+        TextView headerPackName = (TextView) inflation.findViewById(R.id.themeName);
+        headerPackName.setText(manifest.getName());
 
-            TextView headerPackAuthor = (TextView) inflation.findViewById(R.id.themeAuthor);
-            headerPackAuthor.setText(newArray[1]);
+        TextView headerPackAuthor = (TextView) inflation.findViewById(R.id.themeAuthor);
+        headerPackAuthor.setText(manifest.getAuthor());
 
-            TextView headerPackDevTeam = (TextView) inflation.findViewById(R.id.themeDevTeam);
-            headerPackDevTeam.setText(newArray[2]);
-
-            TextView headerPackVersion = (TextView) inflation.findViewById(R.id.themeVersion);
-            headerPackVersion.setText(newArray[3]);
-
-            TextView headerPackCount = (TextView) inflation.findViewById(R.id.themeCount);
-            int how_many_themed = countPNGs();
-            if (how_many_themed == 10) {
-                headerPackCount.setText(getResources().getString(
-                        R.string.contextualheaderimporter_all_themed));
-            } else {
-                if (how_many_themed == 1) {
-                    headerPackCount.setText(
-                            how_many_themed + " " + getResources().getString(
-                                    R.string.contextualheaderimporter_only_one_themed));
-                } else {
-                    headerPackCount.setText(
-                            how_many_themed + " " + getResources().getString(
-                                    R.string.contextualheaderimporter_not_all_themed));
-                }
-            }
-
-            cleanTempFolder();
+        TextView headerPackDevTeam = (TextView) inflation.findViewById(R.id.themeDevTeam);
+        headerPackDevTeam.setText(manifest.getTeam());
 
-            is_zip_spinner_activated = true;
+        TextView headerPackVersion = (TextView) inflation.findViewById(R.id.themeVersion);
+        headerPackVersion.setText(manifest.getVersion());
 
-            if (is_zip_spinner_activated && is_theme_selected) {
-                apply_fab.show();
+        TextView headerPackCount = (TextView) inflation.findViewById(R.id.themeCount);
+        int how_many_themed = pack.getHeaders().size();
+        if (how_many_themed == 10) {
+            headerPackCount.setText(getResources().getString(
+                    R.string.contextualheaderimporter_all_themed));
+        } else {
+            if (how_many_themed == 1) {
+                headerPackCount.setText(
+                        how_many_themed + " " + getResources().getString(
+                                R.string.contextualheaderimporter_only_one_themed));
             } else {
-                apply_fab.hide();
+                headerPackCount.setText(
+                        how_many_themed + " " + getResources().getString(
+                                R.string.contextualheaderimporter_not_all_themed));
             }
+        }
 
-        } catch (ZipException e) {
-            if (is_debugging_mode_enabled) Log.e("Unzip",
-                    "Failed to unzip the file the corresponding directory. (EXCEPTION)");
-            e.printStackTrace();
-            is_zip_spinner_activated = false;
+        is_zip_spinner_activated = true;
 
-            if (is_zip_spinner_activated && is_theme_selected) {
-                apply_fab.show();
-            } else {
-                apply_fab.hide();
-            }
+        if (is_zip_spinner_activated && is_theme_selected) {
+            apply_fab.show();
+        } else {
+            apply_fab.hide();
         }
     }
 
@@ -206,37 +162,7 @@ public class HeaderImportFragment extends BasePageFragment {
         list.add("dark material // akZent");
         list.add("blacked out // blakZent");
 
-        // Now lets add all the located themes found that aren't cdt themes
-        File f = new File("/data/resource-cache/");
-        File[] files = f.listFiles();
-        if (files != null) {
-            for (File inFile : files) {
-                if (inFile.isDirectory()) {
-                    if (!inFile.getAbsolutePath().substring(21).equals(
-                            "com.chummy.jezebel.blackedout.donate")) {
-                        if (!inFile.getAbsolutePath().substring(21).equals(
-                                "com.chummy.jezebel.materialdark.donate")) {
-                            if (!inFile.getAbsolutePath().substring(21).equals("projekt.klar")) {
-                                list.add(inFile.getAbsolutePath().substring(21));
-                                counter += 1;
-                            }
-                        } else {
-                            counter += 1;
-                        }
-                    } else {
-                        counter += 1;
-                    }
-                }
-            }
-        }
-        if (counter == 0) {
-            Toast toast = Toast.makeText(getActivity().getApplicationContext(),
-                    getResources().getString(
-                            R.string.contextualheaderswapper_toast_cache_empty_reboot_first),
-                    Toast.LENGTH_LONG);
-            toast.show();
-        }
-        ArrayAdapter<String> adapter1 = new ArrayAdapter<String>(getActivity(),
+        final ArrayAdapter<String> adapter1 = new ArrayAdapter<String>(getActivity(),
                 android.R.layout.simple_spinner_item, list);
         // Specify the layout to use when the list of choices appears
         adapter1.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -256,8 +182,6 @@ public class HeaderImportFragment extends BasePageFragment {
                 }
                 if (pos == 1) {
                     if (checkCurrentThemeSelection("com.chummy.jezebel.materialdark.donate")) {
-                        theme_dir = "/data/app/com.chummy.jezebel.materialdark.donate" + "-"
-                                + folder_directory + "/base.apk";
                         package_name = "com.chummy.jezebel.materialdark.donate";
                         is_theme_selected = true;
 
@@ -283,8 +207,6 @@ public class HeaderImportFragment extends BasePageFragment {
                 }
                 if (pos == 2) {
                     if (checkCurrentThemeSelection("com.chummy.jezebel.blackedout.donate")) {
-                        theme_dir = "/data/app/com.chummy.jezebel.blackedout.donate" + "-"
-                                + folder_directory + "/base.apk";
                         package_name = "com.chummy.jezebel.blackedout.donate";
                         is_theme_selected = true;
 
@@ -311,8 +233,6 @@ public class HeaderImportFragment extends BasePageFragment {
                 } else {
                     String packageIdentifier = spinner1.getSelectedItem().toString();
                     if (checkCurrentThemeSelection(packageIdentifier)) {
-                        theme_dir = "/data/app/" + packageIdentifier + "-"
-                                + folder_directory + "/base.apk";
                         package_name = packageIdentifier;
                         is_theme_selected = true;
 
@@ -334,46 +254,22 @@ public class HeaderImportFragment extends BasePageFragment {
         // Apply the adapter to the spinner
         spinner1.setAdapter(adapter1);
 
+        // Now lets add all the located themes found that aren't cdt themes once they're known
+        themeListener = new ThemeInventory.Listener() {
+            @Override
+            public void onThemesChanged(List<ThemeInventory.Theme> themes) {
+                showThemes(adapter1, themes);
+            }
+        };
+        ThemeInventory.get(getActivity()).addListener(themeListener);
+
         spinner2 = (Spinner) inflation.findViewById(R.id.zipSpinner);
 
         List<String> zipsFound = new ArrayList<String>();
         zipsFound.add(getResources().getString(R.string.contextualheaderswapper_select_zip));
 
-        // Function that filters out all zip files within /storage/0/dashboard., but not only that,
-        // it checks the zip file and sees if there is headers.xml found inside so that it's a
-        // filter.
-
-        File f2 = new File(
-                Environment.getExternalStorageDirectory().getAbsolutePath() + "/dashboard./");
-        File[] files2 = f2.listFiles();
-        if (files2 != null) {
-            for (File inFile2 : files2) {
-                if (inFile2.isFile()) {
-                    String filenameArray[] = inFile2.toString().split("\\.");
-                    String extension = filenameArray[filenameArray.length - 1];
-                    if (extension.equals("zip")) {
-                        try {
-                            String filenameParse[] = inFile2.getAbsolutePath().split("/");
-                            String filename = filenameParse[filenameParse.length - 1];
-
-                            ZipFile zipFile = new ZipFile(
-                                    Environment.getExternalStorageDirectory().
-                                            getAbsolutePath() + "/dashboard./" + filename);
-                            ZipEntry entry = zipFile.getEntry("headers.xml");
-                            if (entry != null) {
-                                // headers.xml was found in the file, so add it into the spinner
-                                zipsFound.add(filename);
-                            }
-                        } catch (IOException e) {
-                            System.out.println(
-                                    "There was an IOException within the filter function");
-                        }
-                    }
-                }
-            }
-        }
         // Create an ArrayAdapter using the string array and a default spinner layout
-        ArrayAdapter<String> adapter2 = new ArrayAdapter<String>(getActivity(),
+        final ArrayAdapter<String> adapter2 = new ArrayAdapter<String>(getActivity(),
                 android.R.layout.simple_spinner_item, zipsFound);
         // Specify the layout to use when the list of choices appears
         adapter2.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -382,10 +278,7 @@ public class HeaderImportFragment extends BasePageFragment {
             public void onItemSelected(AdapterView<?> arg0, View arg1,
                                        int pos, long id) {
                 if (pos != 0) {
-                    checkWhetherZIPisValid(Environment.getExternalStorageDirectory().
-                                    getAbsolutePath() +
-                                    "/dashboard./" + spinner2.getSelectedItem(),
-                            getActivity().getCacheDir().getAbsolutePath() + "/headers");
+                    showHeaderPack(headerPacks.get(spinner2.getSelectedItem().toString()));
                 } else {
                     TextView headerPackName = (TextView)
                             inflation.findViewById(R.id.themeName);
@@ -429,6 +322,19 @@ public class HeaderImportFragment extends BasePageFragment {
         // Apply the adapter to the spinner
         spinner2.setAdapter(adapter2);
 
+        // Only ZIPs with a headers.xml inside are header packs. They're looked for in the
+        // background, and show up in the spinner one by one as they're found
+        headerPackScan = HeaderPackIndexer.get(getActivity()).scan(new File(
+                        Environment.getExternalStorageDirectory().getAbsolutePath() +
+                                "/dashboard./"),
+                new HeaderPackIndexer.Listener() {
+                    @Override
+                    public void onPackFound(HeaderPackIndexer.Pack pack) {
+                        headerPacks.put(pack.getFile().getName(), pack);
+                        adapter2.add(pack.getFile().getName());
+                    }
+                });
+
         autoClearSystemUICache = (CheckBox) inflation.findViewById(R.id.checkBox);
         autoClearSystemUICache.setOnCheckedChangeListener(
                 new CompoundButton.OnCheckedChangeListener() {
@@ -462,34 +368,52 @@ public class HeaderImportFragment extends BasePageFragment {
                         }
                     }
                 });
+
+        optimizeHeaders = (CheckBox) inflation.findViewById(R.id.checkBox4);
+        optimizeHeaders.setOnCheckedChangeListener(
+                new CompoundButton.OnCheckedChangeListener() {
+                    @Override
+                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                        are_we_optimizing_headers = isChecked;
+                        if (is_debugging_mode_enabled) Log.e("CheckBox",
+                                "Header PNG optimization has been " +
+                                        (isChecked ? "ENABLED." : "DISABLED."));
+                    }
+                });
         return inflation;
     }
 
-    public boolean checkCurrentThemeSelection(String packageName) {
-        try {
-            getContext().getPackageManager().getApplicationInfo(packageName, 0);
-            File directory1 = new File("/data/app/" + packageName + "-1/base.apk");
-            if (directory1.exists()) {
-                folder_directory = 1;
-                return true;
-            } else {
-                File directory2 = new File("/data/app/" + packageName + "-2/base.apk");
-                if (directory2.exists()) {
-                    folder_directory = 2;
-                    return true;
-                } else {
-                    File directory3 = new File("/data/app/" + packageName + "-3/base.apk");
-                    if (directory3.exists()) {
-                        folder_directory = 3;
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }
-            }
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
+    public void showThemes(ArrayAdapter<String> adapter, List<ThemeInventory.Theme> themes) {
+        Object selected = spinner1.getSelectedItem();
+        adapter.setNotifyOnChange(false);
+        // The first three entries are the hint and the cdt themes
+        while (adapter.getCount() > 3)
+            adapter.remove(adapter.getItem(3));
+        for (ThemeInventory.Theme theme : themes) {
+            if (!CDT_THEMES.contains(theme.getPackageName()))
+                adapter.add(theme.getPackageName());
         }
+        adapter.notifyDataSetChanged();
+        // Keep the selection on the same theme, wherever it moved to
+        int position = selected != null ? adapter.getPosition(selected.toString()) : 0;
+        if (position != spinner1.getSelectedItemPosition())
+            spinner1.setSelection(Math.max(0, position));
+
+        if (!is_theme_list_loaded && themes.isEmpty()) {
+            Toast toast = Toast.makeText(getActivity().getApplicationContext(),
+                    getResources().getString(
+                            R.string.contextualheaderswapper_toast_cache_empty_reboot_first),
+                    Toast.LENGTH_LONG);
+            toast.show();
+        }
+        is_theme_list_loaded = true;
+    }
+
+    public boolean checkCurrentThemeSelection(String packageName) {
+        File apk = ThemeApkResolver.get(getActivity()).resolve(packageName);
+        if (apk == null) return false;
+        theme_dir = apk.getAbsolutePath();
+        return true;
     }
 
     @Override
@@ -501,6 +425,8 @@ public class HeaderImportFragment extends BasePageFragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        ThemeInventory.get(getActivity()).removeListener(themeListener);
+        if (headerPackScan != null) headerPackScan.cancel();
         ButterKnife.unbind(this);
     }
 
@@ -515,417 +441,28 @@ public class HeaderImportFragment extends BasePageFragment {
 
         @Override
         protected Void doInBackground(String... params) {
-            String theme_dir = params[0];
-            String header_zip = params[1];
-            try {
-                copyCommonsFile(theme_dir, header_zip);
-            } catch (Exception e) {
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Caught the exception.");
-            }
-            return null;
-        }
-
-        private void copyCommonsFile(String theme_dir, String header_zip) {
-            String sourcePath = theme_dir;
-            File source = new File(sourcePath);
-            String destinationPath = getActivity().getCacheDir().getAbsolutePath() +
-                    "/new_header_apk.apk";
-            File destination = new File(destinationPath);
-            try {
-                FileUtils.copyFile(source, destination);
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Successfully copied commons apk from resource-cache to work directory");
-                unzip(header_zip);
-            } catch (IOException e) {
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Failed to copy commons apk from resource-cache to work directory");
-                e.printStackTrace();
-            }
-        }
+            // The pack's headers are streamed into the APK as it's copied, never extracted
+            Pipeline pipeline = new Pipeline("import " + package_name);
+            new HeaderPatchJob(RootBackend.get(), getActivity().getCacheDir(), params[0],
+                    package_name)
+                    .headerPack(new File(params[1]))
+                    .clearSystemUICache(are_we_clearing_cache_after)
+                    .optimize(are_we_optimizing_headers ? PngOptimizer.get(getActivity()) : null)
+                    .addStages(pipeline);
 
-        public void unzip(String source) {
             try {
-                String destination = getActivity().getCacheDir().getAbsolutePath() + "/headers/";
-
-                net.lingala.zip4j.core.ZipFile zipFile = new net.lingala.zip4j.core.ZipFile(source);
-                if (is_debugging_mode_enabled)
-                    Log.e("Unzip", "The ZIP has been located and will now be unzipped...");
-                zipFile.extractAll(destination);
-                if (is_debugging_mode_enabled) Log.e("Unzip",
-                        "Successfully unzipped the file to the corresponding directory!");
-                performAAPTonCommonsAPK(processor());
-            } catch (ZipException e) {
-                if (is_debugging_mode_enabled) Log.e("Unzip",
-                        "Failed to unzip the file the corresponding directory. (EXCEPTION)");
-                e.printStackTrace();
-            }
-        }
-
-        public List processor() {
-            List<String> filenamePNGs = Arrays.asList(
-                    "notifhead_afternoon.png", "notifhead_christmas.png", "notifhead_morning.png",
-                    "notifhead_newyearseve.png", "notifhead_night.png", "notifhead_noon.png",
-                    "notifhead_sunrise.png", "notifhead_sunset_hdpi.png",
-                    "notifhead_sunset_xhdpi.png", "notifhead_sunset.png");
-
-            List<String> list = new ArrayList<String>();
-
-            File f2 = new File(
-                    getActivity().getCacheDir().getAbsolutePath() + "/headers/");
-            File[] files2 = f2.listFiles();
-            if (files2 != null) {
-                for (File inFile2 : files2) {
-                    if (inFile2.isFile()) {
-                        // Filter out filenames of which were unzipped earlier
-                        String filenameParse[] = inFile2.getAbsolutePath().split("/");
-                        String filename = filenameParse[filenameParse.length - 1];
-
-                        if (filenamePNGs.contains(filename)) {
-                            list.add(filename);
-                        }
-                    }
-                }
-                for (int i = 0; i < list.size(); i++) {
-                    System.out.println(list.get(i));
-                }
-                return list;
-            }
-            return null;
-        }
-
-        public void performAAPTonCommonsAPK(List source) {
-
-            // Create the res/drawable-xxhdpi-v23 directory
-
-            if (is_debugging_mode_enabled) Log.e("postProcess",
-                    "Mounting system as read-write as we prepare for some commands...");
-            eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /assets");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /assets/overlays");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /assets/overlays/com.android.systemui");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "mkdir /assets/overlays/com.android.systemui/res");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "mkdir /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23");
-
-            // Copy the files over
-            for (int i = 0; i < source.size(); i++) {
-                if (source.get(i).equals("notifhead_afternoon.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_afternoon.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_afternoon.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_afternoon.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_afternoon.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_christmas.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_christmas.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_christmas.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_christmas.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_christmas.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_morning.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_morning.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_morning.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_morning.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_morning.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_newyearseve.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_newyearseve.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_newyearseve.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_newyearseve.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_newyearseve.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_night.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_night.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_night.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_night.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_night.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_noon.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_noon.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_noon.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_noon.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_noon.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_sunrise.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_sunrise.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_sunrise.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunrise.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunrise.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_sunset_hdpi.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_sunset_hdpi.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_sunset_hdpi.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunset_hdpi.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunset_hdpi.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_sunset_xhdpi.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_sunset_xhdpi.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_sunset_xhdpi.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunset_xhdpi.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunset_xhdpi.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
-
-                if (source.get(i).equals("notifhead_sunset.png")) {
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                    "/headers/" + "notifhead_sunset.png" +
-                                    " /assets/overlays/com.android.systemui/" +
-                                    "res/drawable-xxhdpi-v23/" +
-                                    "notifhead_sunset.png");
-                    try {
-                        Process nativeApp2 = Runtime.getRuntime().exec(
-                                "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunset.png");
-                        nativeApp2.waitFor();
-
-                        eu.chainfire.libsuperuser.Shell.SU.run(
-                                "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                        "/new_header_apk.apk " +
-                                        "assets/overlays/com.android.systemui/" +
-                                        "res/drawable-xxhdpi-v23/" +
-                                        "notifhead_sunset.png");
-                    } catch (IOException e) {
-                        //
-                    } catch (InterruptedException f) {
-                        //
-                    }
-                }
+                pipeline.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Successfully performed all AAPT commands.");
-
-            // Copy the modified APK to the directory
-            eu.chainfire.libsuperuser.Shell.SU.run("cp " +
-                    getActivity().getCacheDir().getAbsolutePath() +
-                    "/new_header_apk.apk " + theme_dir);
-
-            // Set Permissions for the new APK
-            eu.chainfire.libsuperuser.Shell.SU.run("chmod 644 " + theme_dir);
+            if (is_debugging_mode_enabled) Log.e("Pipeline", pipeline.toString());
+            if (!pipeline.isSuccessful() && is_debugging_mode_enabled)
+                Log.e("patchCommonsAPK", "Failed to patch the header APK. (EXCEPTION)",
+                        pipeline.getFailure());
 
             // Do clean up
             cleanTempFolder();
-
-            // Follow boolean for autoclear cache
-            if (are_we_clearing_cache_after) {
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "rm -r /data/resource-cache/" + package_name +
-                                "/com.android.systemui");
-            }
-
-            // Close everything and make sure
-            eu.chainfire.libsuperuser.Shell.SU.run("rm -r /assets");
-            eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+            return null;
         }
 
         protected void onPreExecute() {
@@ -948,11 +485,22 @@ public class HeaderImportFragment extends BasePageFragment {
                     getResources().getColor(R.color.resetButton)));
             apply_fab.setOnClickListener(new View.OnClickListener() {
                 public void onClick(View v) {
-                    eu.chainfire.libsuperuser.Shell.SU.run("killall zygote");
+                    softReboot();
                 }
             });
             pd.dismiss();
         }
     }
 
+    /**
+     * Restarts zygote off the main thread, the root shell may have to wait for another caller.
+     */
+    private static void softReboot() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                RootBackend.get().restart(Collections.singletonList("zygote"));
+            }
+        });
+    }
 }
@@ -4,16 +4,16 @@ import android.app.Activity;
 import android.app.ProgressDialog;
 import android.content.Intent;
 import android.content.SharedPreferences;
-import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
 import android.graphics.Bitmap;
+import android.graphics.RectF;
 import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
-import android.provider.MediaStore;
 import android.support.annotation.Nullable;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -30,43 +30,58 @@ import android.widget.Toast;
 
 import com.isseiaoki.simplecropview.CropImageView;
 
-import org.apache.commons.io.FileUtils;
-
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 import java.util.Random;
 
 import butterknife.ButterKnife;
 import projekt.dashboard.R;
+import projekt.dashboard.backend.RootBackend;
 import projekt.dashboard.fragments.base.BasePageFragment;
+import projekt.dashboard.overlay.HeaderEncoder;
+import projekt.dashboard.overlay.HeaderPatchJob;
+import projekt.dashboard.overlay.PngOptimizer;
+import projekt.dashboard.overlay.SystemUIHeaders;
+import projekt.dashboard.pipeline.Pipeline;
+import projekt.dashboard.util.SampledImageDecoder;
+import projekt.dashboard.util.ThemeApkResolver;
+import projekt.dashboard.util.ThemeInventory;
 
 /**
  * @author Nicholas Chum (nicholaschum)
  */
 public class HeaderSwapperFragment extends BasePageFragment {
 
+    private static final List<String> CDT_THEMES = Arrays.asList(
+            "com.chummy.jezebel.blackedout.donate",
+            "com.chummy.jezebel.materialdark.donate",
+            "projekt.klar");
     private static int RESULT_LOAD_IMAGE = 1;
+    // Headers are drawn across the whole panel, which is up to 1440px wide on QHD screens
+    private static final int HEADER_WIDTH = 1440;
     public ViewGroup inflation;
     public boolean is_all_selected, is_picture_selected, are_we_clearing_cache_after,
-            free_crop_mode, is_debugging_mode_enabled;
+            free_crop_mode, is_debugging_mode_enabled, are_we_optimizing_headers = true;
     public CropImageView cropImageView;
     public ImageView croppedImageView;
-    public Bitmap croppedBitmap;
+    public Bitmap croppedBitmap, previewBitmap;
+    public SampledImageDecoder pickedImage;
+    public RectF cropRect;
     public Spinner spinner, spinner1;
     public String theme_dir, package_name;
     public FloatingActionButton apply_fab;
     public Button saveButton;
-    public int counter = 0;
-    public int folder_directory = 1;
     public int current_hour;
     public TextView checkBoxInstructions, currentTimeVariable;
-    public CheckBox autoClearSystemUICache, freeCropMode, debugmode;
+    public CheckBox autoClearSystemUICache, freeCropMode, debugmode, optimizeHeaders;
     public SharedPreferences prefs;
+    public ThemeInventory.Listener themeListener;
+    public boolean is_theme_list_loaded;
 
     public void cleanTempFolder() {
         File dir = getActivity().getCacheDir();
@@ -184,35 +199,7 @@ public class HeaderSwapperFragment extends BasePageFragment {
         list.add("dark material // akZent");
         list.add("blacked out // blakZent");
 
-        // Now lets add all the located themes found that aren't cdt themes
-        File f = new File("/data/resource-cache/");
-        File[] files = f.listFiles();
-        if (files != null) {
-            for (File inFile : files) {
-                if (inFile.isDirectory()) {
-                    if (!inFile.getAbsolutePath().substring(21).equals(
-                            "com.chummy.jezebel.blackedout.donate")) {
-                        if (!inFile.getAbsolutePath().substring(21).equals(
-                                "com.chummy.jezebel.materialdark.donate")) {
-                            if (!inFile.getAbsolutePath().substring(21).equals("projekt.klar")) {
-                                list.add(inFile.getAbsolutePath().substring(21));
-                                counter += 1;
-                            }
-                        } else {
-                            counter += 1;
-                        }
-                    } else {
-                        counter += 1;
-                    }
-                }
-            }
-        }
-        if (counter == 0) {
-            Toast toast = Toast.makeText(getActivity().getApplicationContext(), getResources().getString(R.string.contextualheaderswapper_toast_cache_empty_reboot_first),
-                    Toast.LENGTH_LONG);
-            toast.show();
-        }
-        ArrayAdapter<String> adapter1 = new ArrayAdapter<String>(getActivity(),
+        final ArrayAdapter<String> adapter1 = new ArrayAdapter<String>(getActivity(),
                 android.R.layout.simple_spinner_item, list);
         // Specify the layout to use when the list of choices appears
         adapter1.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
@@ -226,8 +213,6 @@ public class HeaderSwapperFragment extends BasePageFragment {
                 }
                 if (pos == 1) {
                     if (checkCurrentThemeSelection("com.chummy.jezebel.materialdark.donate")) {
-                        theme_dir = "/data/app/com.chummy.jezebel.materialdark.donate" + "-"
-                                + folder_directory + "/base.apk";
                         package_name = "com.chummy.jezebel.materialdark.donate";
                         apply_fab.show();
                     } else {
@@ -239,8 +224,6 @@ public class HeaderSwapperFragment extends BasePageFragment {
                 }
                 if (pos == 2) {
                     if (checkCurrentThemeSelection("com.chummy.jezebel.blackedout.donate")) {
-                        theme_dir = "/data/app/com.chummy.jezebel.blackedout.donate" + "-"
-                                + folder_directory + "/base.apk";
                         package_name = "com.chummy.jezebel.blackedout.donate";
                         apply_fab.show();
                     } else {
@@ -253,8 +236,6 @@ public class HeaderSwapperFragment extends BasePageFragment {
                 } else {
                     String packageIdentifier = spinner1.getSelectedItem().toString();
                     if (checkCurrentThemeSelection(packageIdentifier)) {
-                        theme_dir = "/data/app/" + packageIdentifier + "-"
-                                + folder_directory + "/base.apk";
                         package_name = packageIdentifier;
                         apply_fab.show();
                     }
@@ -270,6 +251,15 @@ public class HeaderSwapperFragment extends BasePageFragment {
         // Apply the adapter to the spinner
         spinner1.setAdapter(adapter1);
 
+        // Now lets add all the located themes found that aren't cdt themes once they're known
+        themeListener = new ThemeInventory.Listener() {
+            @Override
+            public void onThemesChanged(List<ThemeInventory.Theme> themes) {
+                showThemes(adapter1, themes);
+            }
+        };
+        ThemeInventory.get(getActivity()).addListener(themeListener);
+
 
         autoClearSystemUICache = (CheckBox) inflation.findViewById(R.id.checkBox);
         autoClearSystemUICache.setOnCheckedChangeListener(
@@ -322,6 +312,18 @@ public class HeaderSwapperFragment extends BasePageFragment {
                     }
                 });
 
+        optimizeHeaders = (CheckBox) inflation.findViewById(R.id.checkBox4);
+        optimizeHeaders.setOnCheckedChangeListener(
+                new CompoundButton.OnCheckedChangeListener() {
+                    @Override
+                    public void onCheckedChanged(CompoundButton buttonView, boolean isChecked) {
+                        are_we_optimizing_headers = isChecked;
+                        if (is_debugging_mode_enabled) Log.e("CheckBox",
+                                "Header PNG optimization has been " +
+                                        (isChecked ? "ENABLED." : "DISABLED."));
+                    }
+                });
+
         checkBoxInstructions = (TextView) inflation.findViewById(R.id.textView2);
         saveButton = (Button) inflation.findViewById(R.id.save_button);
 
@@ -357,31 +359,37 @@ public class HeaderSwapperFragment extends BasePageFragment {
         }
     }
 
-    public boolean checkCurrentThemeSelection(String packageName) {
-        try {
-            getContext().getPackageManager().getApplicationInfo(packageName, 0);
-            File directory1 = new File("/data/app/" + packageName + "-1/base.apk");
-            if (directory1.exists()) {
-                folder_directory = 1;
-                return true;
-            } else {
-                File directory2 = new File("/data/app/" + packageName + "-2/base.apk");
-                if (directory2.exists()) {
-                    folder_directory = 2;
-                    return true;
-                } else {
-                    File directory3 = new File("/data/app/" + packageName + "-3/base.apk");
-                    if (directory3.exists()) {
-                        folder_directory = 3;
-                        return true;
-                    } else {
-                        return false;
-                    }
-                }
-            }
-        } catch (PackageManager.NameNotFoundException e) {
-            return false;
+    public void showThemes(ArrayAdapter<String> adapter, List<ThemeInventory.Theme> themes) {
+        Object selected = spinner1.getSelectedItem();
+        adapter.setNotifyOnChange(false);
+        // The first three entries are the hint and the cdt themes
+        while (adapter.getCount() > 3)
+            adapter.remove(adapter.getItem(3));
+        for (ThemeInventory.Theme theme : themes) {
+            if (!CDT_THEMES.contains(theme.getPackageName()))
+                adapter.add(theme.getPackageName());
         }
+        adapter.notifyDataSetChanged();
+        // Keep the selection on the same theme, wherever it moved to
+        int position = selected != null ? adapter.getPosition(selected.toString()) : 0;
+        if (position != spinner1.getSelectedItemPosition())
+            spinner1.setSelection(Math.max(0, position));
+
+        if (!is_theme_list_loaded && themes.isEmpty()) {
+            Toast toast = Toast.makeText(getActivity().getApplicationContext(),
+                    getResources().getString(
+                            R.string.contextualheaderswapper_toast_cache_empty_reboot_first),
+                    Toast.LENGTH_LONG);
+            toast.show();
+        }
+        is_theme_list_loaded = true;
+    }
+
+    public boolean checkCurrentThemeSelection(String packageName) {
+        File apk = ThemeApkResolver.get(getActivity()).resolve(packageName);
+        if (apk == null) return false;
+        theme_dir = apk.getAbsolutePath();
+        return true;
     }
 
 
@@ -402,7 +410,19 @@ public class HeaderSwapperFragment extends BasePageFragment {
         softReboot.setVisibility(View.VISIBLE);
         softReboot.setOnClickListener(new View.OnClickListener() {
             public void onClick(View V) {
-                eu.chainfire.libsuperuser.Shell.SU.run("killall zygote");
+                softReboot();
+            }
+        });
+    }
+
+    /**
+     * Restarts zygote off the main thread, the root shell may have to wait for another caller.
+     */
+    private static void softReboot() {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                RootBackend.get().restart(Collections.singletonList("zygote"));
             }
         });
     }
@@ -431,10 +451,14 @@ public class HeaderSwapperFragment extends BasePageFragment {
         if (requestCode == RESULT_LOAD_IMAGE &&
                 resultCode == Activity.RESULT_OK && null != data) {
             Uri selectedImage = data.getData();
-            Bitmap bitmap;
+            int screenWidth = getResources().getDisplayMetrics().widthPixels;
 
+            // Only decode as much of the picture as the screen can show, the crop itself gets
+            // decoded from the original later on
             try {
-                bitmap = MediaStore.Images.Media.getBitmap(getActivity().getContentResolver(), selectedImage);
+                pickedImage = new SampledImageDecoder(getActivity().getContentResolver(),
+                        selectedImage);
+                previewBitmap = pickedImage.decodePreview(screenWidth, screenWidth / 4);
             } catch (IOException e) {
                 e.printStackTrace();
                 return;
@@ -458,7 +482,7 @@ public class HeaderSwapperFragment extends BasePageFragment {
             }
 
             croppedImageView = (ImageView) inflation.findViewById(R.id.croppedImageView);
-            cropImageView.setImageBitmap(bitmap);
+            cropImageView.setImageBitmap(previewBitmap);
 
             //https://github.com/IsseiAoki/SimpleCropView/issues/45
             //cropImageView.setImageURI(selectedImage);
@@ -472,7 +496,8 @@ public class HeaderSwapperFragment extends BasePageFragment {
                             R.id.croppedImageView);
                     croppedImage.setVisibility(View.VISIBLE);
                     croppedBitmap = cropImageView.getCroppedBitmap();
-                    croppedImageView.setImageBitmap(cropImageView.getCroppedBitmap());
+                    cropRect = cropImageView.getActualCropRect();
+                    croppedImageView.setImageBitmap(croppedBitmap);
                     saveButton.setVisibility(View.VISIBLE);
                     cropButton.setVisibility(View.GONE);
                     image_to_crop.setVisibility(View.GONE);
@@ -481,103 +506,8 @@ public class HeaderSwapperFragment extends BasePageFragment {
             saveButton.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View V) {
-                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
-                    croppedBitmap.compress(Bitmap.CompressFormat.PNG, 40, bytes);
-
-                    File directory = new File(getActivity().getCacheDir(),
-                            "/res/drawable-xxhdpi-v23/");
-                    if (!directory.exists()) {
-                        directory.mkdirs();
-                    }
-
-                    File selected = new File(getActivity().getCacheDir() +
-                            "/res/drawable-xxhdpi-v23/",
-                            spinner.getSelectedItem().toString());
-                    File f = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_afternoon.png");
-                    File g = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_christmas.png");
-                    File h = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_morning.png");
-                    File i = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_newyearseve.png");
-                    File j = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_night.png");
-                    File k = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_noon.png");
-                    File l = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_sunrise.png");
-                    File m = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_sunset_hdpi.png");
-                    File n = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_sunset_xhdpi.png");
-                    File o = new File(getActivity().getCacheDir() + "/res/drawable-xxhdpi-v23/",
-                            "notifhead_sunset.png");
-
-                    try {
-                        if (is_all_selected) {
-                            f.createNewFile();
-                            FileOutputStream fo = new FileOutputStream(f);
-                            fo.write(bytes.toByteArray());
-                            fo.close();
-
-                            g.createNewFile();
-                            FileOutputStream go = new FileOutputStream(g);
-                            go.write(bytes.toByteArray());
-                            go.close();
-
-                            h.createNewFile();
-                            FileOutputStream ho = new FileOutputStream(h);
-                            ho.write(bytes.toByteArray());
-                            ho.close();
-
-                            i.createNewFile();
-                            FileOutputStream io = new FileOutputStream(i);
-                            io.write(bytes.toByteArray());
-                            io.close();
-
-                            j.createNewFile();
-                            FileOutputStream jo = new FileOutputStream(j);
-                            jo.write(bytes.toByteArray());
-                            jo.close();
-
-                            k.createNewFile();
-                            FileOutputStream ko = new FileOutputStream(k);
-                            ko.write(bytes.toByteArray());
-                            ko.close();
-
-                            l.createNewFile();
-                            FileOutputStream lo = new FileOutputStream(l);
-                            lo.write(bytes.toByteArray());
-                            lo.close();
-
-                            m.createNewFile();
-                            FileOutputStream mo = new FileOutputStream(m);
-                            mo.write(bytes.toByteArray());
-                            mo.close();
-
-                            n.createNewFile();
-                            FileOutputStream no = new FileOutputStream(n);
-                            no.write(bytes.toByteArray());
-                            no.close();
-
-                            o.createNewFile();
-                            FileOutputStream oo = new FileOutputStream(o);
-                            oo.write(bytes.toByteArray());
-                            oo.close();
-                        } else {
-                            selected.createNewFile();
-                            FileOutputStream so = new FileOutputStream(selected);
-                            so.write(bytes.toByteArray());
-                            so.close();
-                        }
-                    } catch (IOException e) {
-                        if (is_debugging_mode_enabled) Log.e("ImageSaver",
-                                "Unable to save new file");
-                    }
                     resetImageViews();
                     letsGetStarted();
-
                 }
             });
         }
@@ -592,6 +522,7 @@ public class HeaderSwapperFragment extends BasePageFragment {
     @Override
     public void onDestroyView() {
         super.onDestroyView();
+        ThemeInventory.get(getActivity()).removeListener(themeListener);
         ButterKnife.unbind(this);
     }
 
@@ -603,16 +534,61 @@ public class HeaderSwapperFragment extends BasePageFragment {
     private class secondPhaseAsyncTasks extends AsyncTask<String, String, Void> {
 
         private ProgressDialog pd;
+        private String installed;
 
         @Override
         protected Void doInBackground(String... params) {
-            String theme_dir = params[0];
+            final List<String> headers = new ArrayList<>();
+            if (is_all_selected) {
+                headers.addAll(SystemUIHeaders.FILENAMES);
+            } else {
+                headers.add(spinner.getSelectedItem().toString());
+            }
+            final File drawables = new File(getActivity().getCacheDir(),
+                    "/res/drawable-xxhdpi-v23/");
+            final SampledImageDecoder source = pickedImage;
+            final Bitmap preview = previewBitmap;
+            final Bitmap previewCrop = croppedBitmap;
+            final RectF crop = cropRect;
+
+            Pipeline pipeline = new Pipeline("headers " + package_name)
+                    .stage("encode", new Pipeline.Task() {
+                        @Override
+                        public void run() throws Exception {
+                            Bitmap header = previewCrop;
+                            try {
+                                header = source.decodeCrop(crop, preview, HEADER_WIDTH);
+                            } catch (IOException e) {
+                                // Not every format has a region decoder, the preview will do
+                                if (is_debugging_mode_enabled) Log.e("decodeCrop",
+                                        "Falling back to the preview crop: " + e.getMessage());
+                            }
+                            try {
+                                HeaderEncoder.encode(header, drawables, headers);
+                            } finally {
+                                if (header != previewCrop) header.recycle();
+                            }
+                        }
+                    });
+            new HeaderPatchJob(RootBackend.get(), getActivity().getCacheDir(), params[0],
+                    package_name)
+                    .headers(HeaderEncoder.files(drawables, headers))
+                    .clearSystemUICache(are_we_clearing_cache_after)
+                    .optimize(are_we_optimizing_headers ? PngOptimizer.get(getActivity()) : null)
+                    .addStages(pipeline, "encode");
+
             try {
-                copyCommonsFile(theme_dir);
-            } catch (Exception e) {
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Caught the exception.");
+                pipeline.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
+            if (is_debugging_mode_enabled) Log.e("Pipeline", pipeline.toString());
+            if (!pipeline.isSuccessful() && is_debugging_mode_enabled)
+                Log.e("patchCommonsAPK", "Could not process file.", pipeline.getFailure());
+            if (pipeline.isSuccessful()) installed = params[0];
+
+            // Do clean up
+            cleanTempFolder();
             return null;
         }
 
@@ -632,290 +608,45 @@ public class HeaderSwapperFragment extends BasePageFragment {
 
         protected void onPostExecute(Void result) {
             pd.dismiss();
+            if (installed == null || inflation == null) return;
+            Snackbar.make(inflation, "header swapped!", Snackbar.LENGTH_LONG)
+                    .setAction("Undo", new View.OnClickListener() {
+                        @Override
+                        public void onClick(View v) {
+                            new rollbackAsyncTasks().execute(installed);
+                        }
+                    })
+                    .show();
         }
+    }
+
+    /**
+     * Puts back the theme APK the last header swap replaced. There is only one level of undo:
+     * every install replaces what the one before it kept.
+     */
+    private class rollbackAsyncTasks extends AsyncTask<String, String, Boolean> {
 
-        private void copyCommonsFile(String theme_dir) {
-            String sourcePath = theme_dir;
-            File source = new File(sourcePath);
-            String destinationPath = getActivity().getCacheDir().getAbsolutePath() +
-                    "/new_header_apk.apk";
-            File destination = new File(destinationPath);
+        @Override
+        protected Boolean doInBackground(String... params) {
             try {
-                FileUtils.copyFile(source, destination);
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Successfully copied commons apk from resource-cache to work directory");
+                RootBackend.get().rollback(params[0]);
+                if (are_we_clearing_cache_after) {
+                    RootBackend.get().delete(Collections.singletonList(
+                            "/data/resource-cache/" + package_name + "/com.android.systemui"));
+                }
+                return true;
             } catch (IOException e) {
-                if (is_debugging_mode_enabled) Log.e("copyCommonsFile",
-                        "Failed to copy commons apk from resource-cache to work directory");
-                e.printStackTrace();
-            }
-            try {
-                performAAPTonCommonsAPK();
-            } catch (Exception e) {
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Could not process file.");
+                if (is_debugging_mode_enabled) Log.e("rollback",
+                        "Could not restore the previous theme APK.", e);
+                return false;
             }
-
-
         }
 
-        private void performAAPTonCommonsAPK() throws Exception {
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Mounting system as read-write as we prepare for some commands...");
-            eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /assets");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /assets/overlays");
-            eu.chainfire.libsuperuser.Shell.SU.run("mkdir /assets/overlays/com.android.systemui");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "mkdir /assets/overlays/com.android.systemui/res");
-            eu.chainfire.libsuperuser.Shell.SU.run(
-                    "mkdir /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23");
-
-            // Copy the files over
-            if (is_all_selected) {
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_afternoon.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_afternoon.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_christmas.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_christmas.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_morning.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_morning.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_newyearseve.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_newyearseve.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_night.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_night.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_noon.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_noon.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_sunrise.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunrise.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_sunset_hdpi.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset_hdpi.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_sunset_xhdpi.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset_xhdpi.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + "notifhead_sunset.png" +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset.png");
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Successfully copied all drawables into the root folder.");
-            } else {
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "cp " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/res/drawable-xxhdpi-v23/" + spinner.getSelectedItem().toString() +
-                                " /assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                spinner.getSelectedItem().toString());
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Successfully copied drawable into the root folder.");
-            }
-
-            if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                    "Preparing for clean up on resources...");
-
-            if (is_all_selected) {
-                Process nativeApp1 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_afternoon.png");
-                nativeApp1.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp2 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_christmas.png");
-                nativeApp2.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp3 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_morning.png");
-                nativeApp3.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp4 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_newyearseve.png");
-                nativeApp4.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp5 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_night.png");
-                nativeApp5.waitFor();
-                Process nativeApp6 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_noon.png");
-                nativeApp6.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp7 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunrise.png");
-                nativeApp7.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp8 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset_hdpi.png");
-                nativeApp8.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp9 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset_xhdpi.png");
-                nativeApp9.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-                Process nativeApp10 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset.png");
-                nativeApp10.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted all drawable files!");
-            } else {
-                Process nativeApp1 = Runtime.getRuntime().exec(
-                        "aapt remove " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                spinner.getSelectedItem().toString());
-                nativeApp1.waitFor();
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Deleted drawable file!");
-            }
-
-            // Adding all the new files in
-            if (is_all_selected) {
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_afternoon.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_christmas.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_morning.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_newyearseve.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_night.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_noon.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunrise.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset_hdpi.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset_xhdpi.png");
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                "notifhead_sunset.png");
-                if (is_debugging_mode_enabled) Log.e("performAAPTonCommonsAPK",
-                        "Added freshly created photo files...ALL DONE!");
-            } else {
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "aapt add " + getActivity().getCacheDir().getAbsolutePath() +
-                                "/new_header_apk.apk " +
-                                "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/" +
-                                spinner.getSelectedItem().toString());
-                if (is_debugging_mode_enabled) Log.e("AAPT ADD",
-                        spinner.getSelectedItem().toString());
-                if (is_debugging_mode_enabled)
-                    Log.e("performAAPTonCommonsAPK",
-                            "Added freshly created photo file...ALL DONE!");
-            }
-
-            // Copy the modified APK to the directory
-            eu.chainfire.libsuperuser.Shell.SU.run("cp " +
-                    getActivity().getCacheDir().getAbsolutePath() +
-                    "/new_header_apk.apk " + theme_dir);
-
-            // Set Permissions for the new APK
-            eu.chainfire.libsuperuser.Shell.SU.run("chmod 644 " + theme_dir);
-
-            // Do clean up
-            cleanTempFolder();
-
-            // Follow boolean for autoclear cache
-            if (are_we_clearing_cache_after) {
-                eu.chainfire.libsuperuser.Shell.SU.run(
-                        "rm -r /data/resource-cache/" + package_name + "/com.android.systemui");
-            }
-
-            // Close everything and make sure
-            eu.chainfire.libsuperuser.Shell.SU.run("rm -r /assets");
-            eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
-
+        @Override
+        protected void onPostExecute(Boolean result) {
+            if (inflation == null) return;
+            Snackbar.make(inflation, result ? "the previous header has been restored!" :
+                    "the previous header could not be restored", Snackbar.LENGTH_SHORT).show();
         }
     }
 }
@@ -1,17 +1,36 @@
 package projekt.dashboard.fragments;
 
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Environment;
 import android.support.annotation.Nullable;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.CheckBox;
 import android.widget.CompoundButton;
+import android.widget.Toast;
+
+import com.afollestad.materialdialogs.DialogAction;
+import com.afollestad.materialdialogs.MaterialDialog;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import butterknife.ButterKnife;
 import projekt.dashboard.R;
+import projekt.dashboard.backend.MountSession;
+import projekt.dashboard.backend.RootBackend;
 import projekt.dashboard.fragments.base.BasePageFragment;
+import projekt.dashboard.pipeline.MetricsLog;
+import projekt.dashboard.util.RootShell;
 
 /**
  * @author Nicholas Chum (nicholaschum)
@@ -93,15 +112,17 @@ public class ThemeUtilitiesFragment extends BasePageFragment {
         Button basicUtilitiesButton = (Button) inflation.findViewById(R.id.button1);
         basicUtilitiesButton.setOnClickListener(new View.OnClickListener() {
             public void onClick(View v) {
+                List<String> commands = new ArrayList<>();
                 if (sysui) {
-                    eu.chainfire.libsuperuser.Shell.SU.run("killall com.android.systemui");
+                    commands.add("killall com.android.systemui");
                 }
                 if (softreboot) {
-                    eu.chainfire.libsuperuser.Shell.SU.run("killall zygote");
+                    commands.add("killall zygote");
                 }
                 if (reboot) {
-                    eu.chainfire.libsuperuser.Shell.SU.run("reboot");
+                    commands.add("reboot");
                 }
+                runAsRoot(commands);
             }
         });
 
@@ -258,68 +279,41 @@ public class ThemeUtilitiesFragment extends BasePageFragment {
             public void onClick(View v) {
                 if (did_i_run) {
                     did_i_run = false;
-                    eu.chainfire.libsuperuser.Shell.SU.run("reboot");
+                    runAsRoot(Collections.singletonList("reboot"));
                 }
+                List<String> paths = new ArrayList<>();
                 if (akzent) {
-                    did_i_run = true;
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.materialdark.donate");
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.materialdark.donate");
                 }
                 if (blakzent) {
-                    did_i_run = true;
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.blackedout.donate");
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.blackedout.donate");
                 }
                 if (projektklar) {
-                    did_i_run = true;
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/projekt.klar");
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+                    paths.add("/data/resource-cache/projekt.klar");
                 }
                 if (all_color_switch) {
-                    did_i_run = true;
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.materialdark.donate");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.blackedout.donate");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/projekt.klar");
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.materialdark.donate");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.blackedout.donate");
+                    paths.add("/data/resource-cache/projekt.klar");
                 }
                 if (all_cdt_themes) {
-                    did_i_run = true;
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.material.dark");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/" +
-                                    "com.chummy.jezebel.material.dark.regression");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.materialdark.beta");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.materialdark.donate");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.blacked.out");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/" +
-                                    "com.chummy.jezebel.blacked.out.regression");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/com.chummy.jezebel.blackedout.donate");
-                    eu.chainfire.libsuperuser.Shell.SU.run(
-                            "rm -r /data/resource-cache/projekt.klar");
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.material.dark");
+                    paths.add("/data/resource-cache/" +
+                            "com.chummy.jezebel.material.dark.regression");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.materialdark.beta");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.materialdark.donate");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.blacked.out");
+                    paths.add("/data/resource-cache/" +
+                            "com.chummy.jezebel.blacked.out.regression");
+                    paths.add("/data/resource-cache/com.chummy.jezebel.blackedout.donate");
+                    paths.add("/data/resource-cache/projekt.klar");
                 }
                 if (all_themes) {
+                    paths.add("/data/resource-cache");
+                }
+                if (!paths.isEmpty()) {
                     did_i_run = true;
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,rw /");
-                    eu.chainfire.libsuperuser.Shell.SU.run("rm -r /data/resource-cache");
-                    eu.chainfire.libsuperuser.Shell.SU.run("mount -o remount,ro /");
+                    cleanResourceCache(paths);
                 }
                 if (did_i_run) {
                     debuggingUtilitiesButton.setBackgroundColor(
@@ -328,9 +322,78 @@ public class ThemeUtilitiesFragment extends BasePageFragment {
                 }
             }
         });
+
+        Button diagnosticsButton = (Button) inflation.findViewById(R.id.button3);
+        diagnosticsButton.setOnClickListener(new View.OnClickListener() {
+            public void onClick(View v) {
+                showPatchTimings();
+            }
+        });
         return inflation;
     }
 
+    /**
+     * The shell may be busy with a patch run for a while, so this never waits for it on the main
+     * thread.
+     */
+    private static void runAsRoot(final List<String> commands) {
+        if (commands.isEmpty()) return;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                RootShell.get().run(commands);
+            }
+        });
+    }
+
+    private static void cleanResourceCache(final List<String> paths) {
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                // One remount pair for the whole cleanup, and none at all if / is already writable
+                MountSession rootfs = RootBackend.get().mount("/");
+                try {
+                    rootfs.acquire();
+                    try {
+                        RootBackend.get().delete(paths);
+                    } finally {
+                        rootfs.release();
+                    }
+                } catch (IOException e) {
+                    Log.e("ThemeUtilities", "Unable to clean the resource cache", e);
+                }
+            }
+        });
+    }
+
+    private void showPatchTimings() {
+        new MaterialDialog.Builder(getActivity())
+                .title(R.string.themeutilities_view_patch_timings)
+                .content(MetricsLog.get().toString())
+                .positiveText("Okay")
+                .neutralText(R.string.themeutilities_export_json)
+                .onNeutral(new MaterialDialog.SingleButtonCallback() {
+                    @Override
+                    public void onClick(MaterialDialog dialog, DialogAction which) {
+                        exportPatchTimings();
+                    }
+                })
+                .show();
+    }
+
+    private void exportPatchTimings() {
+        File output = new File(Environment.getExternalStorageDirectory(),
+                "dashboard./patch-metrics.json");
+        try {
+            FileUtils.writeStringToFile(output, MetricsLog.get().toJson(), "UTF-8");
+            Toast.makeText(getActivity(), "Saved to " + output.getAbsolutePath(),
+                    Toast.LENGTH_LONG).show();
+        } catch (IOException e) {
+            Toast.makeText(getActivity(), "Unable to save: " + e.getMessage(),
+                    Toast.LENGTH_LONG).show();
+        }
+    }
+
     @Override
     public void onViewCreated(View view, Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
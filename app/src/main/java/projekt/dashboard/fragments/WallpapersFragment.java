@@ -15,6 +15,7 @@ import android.support.v4.view.ViewCompat;
 import android.support.v7.widget.RecyclerView;
 import android.support.v7.widget.SearchView;
 import android.support.v7.widget.StaggeredGridLayoutManager;
+import android.util.MalformedJsonException;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -31,11 +32,10 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.afollestad.bridge.Bridge;
-import com.afollestad.bridge.BridgeException;
 import com.afollestad.materialdialogs.MaterialDialog;
 import com.afollestad.materialdialogs.util.DialogUtils;
 
-import java.net.SocketTimeoutException;
+import java.io.IOException;
 
 import butterknife.Bind;
 import butterknife.ButterKnife;
@@ -45,6 +45,7 @@ import projekt.dashboard.config.Config;
 import projekt.dashboard.fragments.base.BasePageFragment;
 import projekt.dashboard.ui.MainActivity;
 import projekt.dashboard.util.TintUtils;
+import projekt.dashboard.util.WallpaperSources;
 import projekt.dashboard.util.WallpaperUtils;
 import projekt.dashboard.viewer.ViewerActivity;
 
@@ -121,21 +122,11 @@ public class WallpapersFragment extends BasePageFragment implements
             @Override
             public void onItemSelected(AdapterView<?> arg0, View arg1,
                                        int pos, long id) {
-                if (pos == 0) {
-                    prefs.edit().putString("selected_wallpaper_source", "default").commit();
-                }
-                if (pos == 1) {
-                    prefs.edit().putString("selected_wallpaper_source", "customworx").commit();
-                }
-                if (pos == 2) {
-                    prefs.edit().putString("selected_wallpaper_source", "gagan").commit();
-                }
-                if (pos == 3) {
-                    prefs.edit().putString("selected_wallpaper_source", "vignesh_headers").commit();
-                }
-                if (pos == 4) {
-                    prefs.edit().putString("selected_wallpaper_source", "vignesh").commit();
-                }
+                String source = pos < WallpaperSources.SOURCES.length ?
+                        WallpaperSources.SOURCES[pos] : WallpaperSources.ALL;
+                if (source.equals(WallpaperSources.getSelected(getActivity()))) return;
+                prefs.edit().putString(WallpaperSources.PREFERENCE, source).commit();
+                showSource(source);
             }
 
             @Override
@@ -144,23 +135,8 @@ public class WallpapersFragment extends BasePageFragment implements
 
             }
         });
-        String mapTypeString = prefs.getString("selected_wallpaper_source", "default");
-        if (!mapTypeString.equals("default")) {
-            if (mapTypeString.equals("customworx")) {
-                wallpaperSourcePicker.setSelection(1);
-            }
-            if (mapTypeString.equals("gagan")) {
-                wallpaperSourcePicker.setSelection(2);
-            }
-            if (mapTypeString.equals("vignesh_headers")) {
-                wallpaperSourcePicker.setSelection(3);
-            }
-            if (mapTypeString.equals("vignesh")) {
-                wallpaperSourcePicker.setSelection(4);
-            }
-        } else {
-            wallpaperSourcePicker.setSelection(0);
-        }
+        wallpaperSourcePicker.setSelection(WallpaperSources.indexOf(
+                WallpaperSources.getSelected(getActivity())));
 
         ImageButton restartActivity = (ImageButton) inflation.findViewById(R.id.restart);
         restartActivity.setOnClickListener((new View.OnClickListener() {
@@ -296,6 +272,22 @@ public class WallpapersFragment extends BasePageFragment implements
         load(false);
     }
 
+    /**
+     * Switches to {@code source}, locally if its wallpapers were loaded before.
+     */
+    private void showSource(String source) {
+        if (mAdapter == null) return;
+        // A load still running for the previous source would overwrite this one
+        WallpaperSources.cancel();
+        mWallpapers = WallpaperSources.getLoaded(source);
+        if (mWallpapers == null) {
+            load(true);
+            return;
+        }
+        mAdapter.set(mWallpapers);
+        setListShown(true);
+    }
+
     private void load(boolean allowCached) {
         if (allowCached && mWallpapers != null) {
             mAdapter.set(mWallpapers);
@@ -306,24 +298,25 @@ public class WallpapersFragment extends BasePageFragment implements
         mAdapter.clear();
         Bridge.config().logging(true);
         WallpaperUtils.getAll(getActivity(), allowCached, new WallpaperUtils.WallpapersCallback() {
+            @Override
+            public void onRetrievingWallpapers(WallpaperUtils.WallpapersHolder wallpapers) {
+                mWallpapers = wallpapers;
+                mAdapter.update(mWallpapers);
+                setListShown(true);
+            }
+
             @Override
             public void onRetrievedWallpapers(WallpaperUtils.WallpapersHolder wallpapers, Exception error, boolean cancelled) {
                 if (error != null) {
-                    if (error instanceof BridgeException) {
-                        BridgeException e = (BridgeException) error;
-                        if (e.reason() == BridgeException.REASON_REQUEST_FAILED)
-                            mEmpty.setText(R.string.unable_to_contact_server);
-                        else if (e.reason() == BridgeException.REASON_REQUEST_TIMEOUT ||
-                                (e.underlyingException() != null && e.underlyingException() instanceof SocketTimeoutException))
-                            mEmpty.setText(R.string.unable_to_contact_server);
-                        else mEmpty.setText(e.getMessage());
-                    } else {
+                    if (error instanceof MalformedJsonException)
                         mEmpty.setText(error.getMessage());
-                    }
+                    else if (error instanceof IOException)
+                        mEmpty.setText(R.string.unable_to_contact_server);
+                    else mEmpty.setText(error.getMessage());
                 } else {
                     mEmpty.setText(cancelled ? R.string.request_cancelled : R.string.no_wallpapers);
                     mWallpapers = wallpapers;
-                    mAdapter.set(mWallpapers);
+                    mAdapter.update(mWallpapers);
                 }
                 setListShown(true);
             }
@@ -339,6 +332,7 @@ public class WallpapersFragment extends BasePageFragment implements
             if (mAdapter != null)
                 WallpaperUtils.saveDb(getActivity(), mAdapter.getWallpapers());
             if (getActivity().isFinishing()) {
+                WallpaperSources.cancel();
                 Bridge.cancelAll()
                         .tag(WallpapersFragment.class.getName())
                         .commit();
@@ -354,7 +348,8 @@ public class WallpapersFragment extends BasePageFragment implements
     @Override
     public boolean onQueryTextChange(String newText) {
         mQueryText = newText;
-        mRecyclerView.postDelayed(searchRunnable, 400);
+        mRecyclerView.removeCallbacks(searchRunnable);
+        mRecyclerView.postDelayed(searchRunnable, mAdapter.getSearchDelay());
         return false;
     }
 
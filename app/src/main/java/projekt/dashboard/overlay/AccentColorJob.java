@@ -0,0 +1,152 @@
+package projekt.dashboard.overlay;
+
+import java.io.File;
+import java.io.IOException;
+
+import projekt.dashboard.backend.Backend;
+import projekt.dashboard.pipeline.Pipeline;
+import projekt.dashboard.util.ResourceDownloader;
+
+/**
+ * Patches one color switchable theme's common resources with an accent color and installs the
+ * result. The job works in its own directory, so several of them can share a pipeline without
+ * clobbering each other.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class AccentColorJob {
+
+    private static final String[] ACCENT_XMLS = {
+            "res/color-v14/accent_color_dark.xml",
+            "res/color-v14/accent_color_light.xml",
+            "res/color-v14/accent_color.xml"};
+
+    private final Backend mBackend;
+    private final OverlayCache mCache;
+    private final File mResources;
+    private final File mWorkDir;
+    private final String mThemePath;
+    private final String mColor;
+    private String mDownloadUrl;
+    private boolean mForceUpdate;
+    private ResourceDownloader.ProgressListener mDownloadListener;
+
+    private volatile byte[] mAccentColor;
+    private volatile String mKey;
+    private volatile File mOverlay;
+    private volatile boolean mCacheHit;
+    private volatile boolean mInstalled;
+
+    /**
+     * @param resources the theme's stock common resources, e.g. files/materialdark-resources.apk
+     * @param themePath where the theme engine picks the patched resources up from
+     * @param color     accent color as #RGB, #ARGB, #RRGGBB or #AARRGGBB
+     */
+    public AccentColorJob(Backend backend, OverlayCache cache, File resources, File workDir,
+                          String themePath, String color) {
+        mBackend = backend;
+        mCache = cache;
+        mResources = resources;
+        mWorkDir = workDir;
+        mThemePath = themePath;
+        mColor = color;
+    }
+
+    /**
+     * Fetches the stock resources from {@code url} first if they're missing, or revalidates them
+     * if {@code forceUpdate} is set.
+     *
+     * @param listener may be null
+     */
+    public AccentColorJob download(String url, boolean forceUpdate,
+                                   ResourceDownloader.ProgressListener listener) {
+        mDownloadUrl = url;
+        mForceUpdate = forceUpdate;
+        mDownloadListener = listener;
+        return this;
+    }
+
+    public static Pipeline.Task downloadTask(final File resources, final String url,
+                                             final boolean forceUpdate,
+                                             final ResourceDownloader.ProgressListener listener) {
+        return new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                if (url == null || (resources.exists() && !forceUpdate)) return;
+                // Forced updates only refetch if the server actually has something newer
+                new ResourceDownloader().download(url, resources, listener);
+            }
+        };
+    }
+
+    /**
+     * Adds this job's stages, all named "{@code name}/stage".
+     *
+     * @return the name of the job's install stage
+     */
+    public String addStages(Pipeline pipeline, String name) {
+        final File commons = new File(mWorkDir, "common-resources.apk");
+        String stage = name + "/";
+
+        pipeline.stage(stage + "download", downloadTask(mResources, mDownloadUrl, mForceUpdate,
+                mDownloadListener))
+                .stage(stage + "generate-resources", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        // All three accent selectors resolve to the same picked color
+                        mAccentColor = ColorStateListEncoder.encode(mColor);
+                    }
+                })
+                .stage(stage + "lookup", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        mKey = OverlayCache.key(OverlayCache.digest(mResources), "accent",
+                                mColor);
+                        mOverlay = mCache.get(mKey);
+                        mCacheHit = mOverlay != null;
+                    }
+                }, stage + "download")
+                .stage(stage + "patch", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        if (mOverlay != null) return;
+                        if (!mWorkDir.exists() && !mWorkDir.mkdirs())
+                            throw new IOException("Unable to create " + mWorkDir);
+                        // Swap all three accent XMLs while copying common-resources over, a
+                        // single pass over the APK
+                        ApkRewriter rewriter = new ApkRewriter(mResources);
+                        for (String xml : ACCENT_XMLS)
+                            rewriter.replace(xml, mAccentColor);
+                        rewriter.writeTo(commons);
+                        mOverlay = mCache.put(mKey, commons);
+                    }
+                }, stage + "lookup", stage + "generate-resources")
+                .stage(stage + "install", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        mBackend.install(mOverlay, mThemePath);
+                        mInstalled = true;
+                    }
+                }, stage + "patch")
+                .finalStage(stage + "release", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        // Until now, the stored overlay was safe from other jobs' evictions.
+                        // Lookup and patch both take the pin, so this waits on them as well.
+                        if (mOverlay != null) mCache.release(mKey);
+                    }
+                }, stage + "lookup", stage + "patch", stage + "install");
+        return stage + "install";
+    }
+
+    /**
+     * @return whether a stored overlay was installed instead of patching a new one
+     */
+    public boolean wasCached() {
+        return mCacheHit;
+    }
+
+    public boolean isInstalled() {
+        return mInstalled;
+    }
+}
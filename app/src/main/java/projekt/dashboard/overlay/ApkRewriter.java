@@ -0,0 +1,575 @@
+package projekt.dashboard.overlay;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+import projekt.dashboard.pipeline.StageMetrics;
+
+/**
+ * Rewrites an APK (or any plain ZIP) in a single pass, replacing, adding and deleting entries
+ * without forking aapt. Entries that are not touched are copied through in their compressed
+ * form, so they are never inflated or deflated again.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class ApkRewriter {
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+    private static final int STORED_ALIGNMENT = 4;
+    // 2008-01-01 00:00 in DOS format, new entries don't get the time they were written at so the
+    // same rewrite always gives the same bytes
+    private static final int ENTRY_DOS_TIME = ((2008 - 1980) << 25) | (1 << 21) | (1 << 16);
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    // Same list aapt uses to decide which files are already compressed
+    private static final String[] NO_COMPRESS_EXTENSIONS = {
+            ".png", ".jpg", ".jpeg", ".gif", ".webp", ".wav", ".mp2", ".mp3", ".ogg", ".aac",
+            ".mpg", ".mpeg", ".mid", ".midi", ".mp4", ".m4a", ".m4v", ".3gp", ".amr", ".arsc"};
+
+    private final File mSource;
+    private final Map<String, byte[]> mReplacements = new LinkedHashMap<>();
+    private final Map<String, File> mFileReplacements = new LinkedHashMap<>();
+    private final Map<String, ArchiveEntry> mEntryReplacements = new LinkedHashMap<>();
+    private final Set<String> mDeletions = new LinkedHashSet<>();
+
+    public ApkRewriter(File source) {
+        mSource = source;
+    }
+
+    private static boolean shouldStore(String name) {
+        String lower = name.toLowerCase(Locale.US);
+        for (String extension : NO_COMPRESS_EXTENSIONS) {
+            if (lower.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    private static int readUShort(byte[] b, int off) {
+        return (b[off] & 0xff) | ((b[off + 1] & 0xff) << 8);
+    }
+
+    private static long readUInt(byte[] b, int off) {
+        return (readUShort(b, off) | ((long) readUShort(b, off + 2) << 16)) & 0xffffffffL;
+    }
+
+    private static void writeShort(OutputStream out, int v) throws IOException {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private static void writeInt(OutputStream out, long v) throws IOException {
+        writeShort(out, (int) (v & 0xffff));
+        writeShort(out, (int) ((v >>> 16) & 0xffff));
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        StageMetrics.addBytesRead(file.length());
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Replaces the entry with the given name, or adds it if the APK doesn't contain it yet.
+     */
+    public ApkRewriter replace(String entryName, byte[] data) {
+        forget(entryName);
+        mReplacements.put(entryName, data);
+        return this;
+    }
+
+    public ApkRewriter replace(String entryName, File file) {
+        forget(entryName);
+        mFileReplacements.put(entryName, file);
+        return this;
+    }
+
+    /**
+     * Replaces the entry with {@code entry} of another archive, e.g. a header pack. Entries that
+     * end up stored are streamed straight from {@code archive}, without an intermediate copy.
+     * {@code archive} has to stay open until the APK is written.
+     */
+    public ApkRewriter replace(String entryName, ZipFile archive, ZipEntry entry) {
+        forget(entryName);
+        mEntryReplacements.put(entryName, new ArchiveEntry(archive, entry));
+        return this;
+    }
+
+    public ApkRewriter delete(String entryName) {
+        forget(entryName);
+        mDeletions.add(entryName);
+        return this;
+    }
+
+    private void forget(String entryName) {
+        mReplacements.remove(entryName);
+        mFileReplacements.remove(entryName);
+        mEntryReplacements.remove(entryName);
+        mDeletions.remove(entryName);
+    }
+
+    public boolean hasChanges() {
+        return !mReplacements.isEmpty() || !mFileReplacements.isEmpty() ||
+                !mEntryReplacements.isEmpty() || !mDeletions.isEmpty();
+    }
+
+    /**
+     * Writes the rewritten APK. The destination may be the source file itself, in which case the
+     * output is written next to it and renamed over the original once it is complete.
+     */
+    public void writeTo(File destination) throws IOException {
+        File target = destination;
+        boolean inPlace = destination.getCanonicalPath().equals(mSource.getCanonicalPath());
+        if (inPlace) target = new File(destination.getParentFile(), destination.getName() + ".tmp");
+
+        RandomAccessFile source = new RandomAccessFile(mSource, "r");
+        try {
+            List<CentralEntry> entries = readCentralDirectory(source);
+            CountingOutputStream out = new CountingOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(target), 65536));
+            boolean success = false;
+            try {
+                write(source, entries, out);
+                success = true;
+            } finally {
+                out.close();
+                if (!success) target.delete();
+            }
+            StageMetrics.addBytesRead(mSource.length());
+            StageMetrics.addBytesWritten(out.getCount());
+        } finally {
+            source.close();
+        }
+
+        if (inPlace) {
+            if (!target.renameTo(destination)) {
+                target.delete();
+                throw new IOException("Unable to replace " + destination.getAbsolutePath());
+            }
+        }
+    }
+
+    private void write(RandomAccessFile source, List<CentralEntry> entries,
+                       CountingOutputStream out) throws IOException {
+        List<CentralEntry> written = new ArrayList<>(entries.size() + mReplacements.size() +
+                mFileReplacements.size() + mEntryReplacements.size());
+        Set<String> handled = new LinkedHashSet<>();
+        byte[] buffer = new byte[65536];
+        // Entries replaced with the same content share a single read, CRC and deflate
+        Map<File, byte[]> fileData = new HashMap<>();
+        Map<byte[], Payload> payloads = new IdentityHashMap<>();
+
+        for (CentralEntry entry : entries) {
+            if (mDeletions.contains(entry.name)) continue;
+            if (isReplaced(entry.name)) {
+                handled.add(entry.name);
+                written.add(writeReplacement(out, entry.name, fileData, payloads, buffer));
+            } else {
+                written.add(copyRawEntry(source, entry, out, buffer));
+            }
+        }
+
+        // Anything left over did not exist in the source, so it gets appended
+        Set<String> additions = new LinkedHashSet<>(mReplacements.keySet());
+        additions.addAll(mFileReplacements.keySet());
+        additions.addAll(mEntryReplacements.keySet());
+        for (String name : additions) {
+            if (handled.contains(name)) continue;
+            written.add(writeReplacement(out, name, fileData, payloads, buffer));
+        }
+
+        long centralDirectoryOffset = out.getCount();
+        for (CentralEntry entry : written) {
+            writeInt(out, CENTRAL_HEADER_SIGNATURE);
+            writeShort(out, entry.versionMadeBy);
+            writeShort(out, entry.versionNeeded);
+            writeShort(out, entry.flags);
+            writeShort(out, entry.method);
+            writeInt(out, entry.dosTime);
+            writeInt(out, entry.crc);
+            writeInt(out, entry.compressedSize);
+            writeInt(out, entry.size);
+            writeShort(out, entry.rawName.length);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeShort(out, 0);
+            writeInt(out, entry.externalAttributes);
+            writeInt(out, entry.localHeaderOffset);
+            out.write(entry.rawName);
+        }
+        long centralDirectorySize = out.getCount() - centralDirectoryOffset;
+
+        writeInt(out, END_OF_CENTRAL_DIRECTORY_SIGNATURE);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, written.size());
+        writeShort(out, written.size());
+        writeInt(out, centralDirectorySize);
+        writeInt(out, centralDirectoryOffset);
+        writeShort(out, 0);
+    }
+
+    private boolean isReplaced(String name) {
+        return mReplacements.containsKey(name) || mFileReplacements.containsKey(name) ||
+                mEntryReplacements.containsKey(name);
+    }
+
+    private CentralEntry writeReplacement(CountingOutputStream out, String name,
+                                          Map<File, byte[]> fileData,
+                                          Map<byte[], Payload> payloads, byte[] buffer)
+            throws IOException {
+        ArchiveEntry source = mEntryReplacements.get(name);
+        // Sizes and CRC are already in the archive's central directory, so the content can go
+        // straight through; only content that has to be deflated is read into memory first
+        if (source != null && shouldStore(name) && source.entry.getSize() >= 0 &&
+                source.entry.getCrc() >= 0)
+            return streamNewEntry(out, name, source, buffer);
+        return writeNewEntry(out, name, payloadFor(name, fileData, payloads));
+    }
+
+    private Payload payloadFor(String name, Map<File, byte[]> fileData,
+                               Map<byte[], Payload> payloads) throws IOException {
+        byte[] data = mReplacements.get(name);
+        if (data == null && mEntryReplacements.containsKey(name)) {
+            data = mEntryReplacements.get(name).read();
+        } else if (data == null) {
+            File file = mFileReplacements.get(name);
+            data = fileData.get(file);
+            if (data == null) {
+                data = readFully(file);
+                fileData.put(file, data);
+            }
+        }
+        boolean store = shouldStore(name);
+        Payload payload = payloads.get(data);
+        if (payload == null || payload.stored != store) {
+            payload = new Payload(data, store);
+            payloads.put(data, payload);
+        }
+        return payload;
+    }
+
+    private CentralEntry copyRawEntry(RandomAccessFile source, CentralEntry entry,
+                                      CountingOutputStream out, byte[] buffer)
+            throws IOException {
+        byte[] localHeader = new byte[LOCAL_HEADER_SIZE];
+        source.seek(entry.localHeaderOffset);
+        source.readFully(localHeader);
+        if (readUInt(localHeader, 0) != LOCAL_HEADER_SIGNATURE)
+            throw new ZipException("Bad local header for " + entry.name);
+        long dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE +
+                readUShort(localHeader, 26) + readUShort(localHeader, 28);
+
+        CentralEntry copy = entry.copy();
+        // Sizes and CRC are known from the central directory, so no data descriptor is needed
+        copy.flags = entry.flags & ~FLAG_DATA_DESCRIPTOR;
+        writeLocalHeader(out, copy);
+
+        source.seek(dataOffset);
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            int read = source.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) throw new ZipException("Truncated entry " + entry.name);
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+        return copy;
+    }
+
+    private CentralEntry writeNewEntry(CountingOutputStream out, String name, Payload payload)
+            throws IOException {
+        CentralEntry entry = new CentralEntry();
+        entry.name = name;
+        entry.rawName = name.getBytes(UTF8);
+        entry.flags = FLAG_UTF8;
+        entry.dosTime = ENTRY_DOS_TIME;
+        entry.size = payload.size;
+        entry.crc = payload.crc;
+        entry.method = payload.method;
+        entry.versionNeeded = payload.method == METHOD_DEFLATED ? 20 : 10;
+        entry.versionMadeBy = 20;
+        entry.compressedSize = payload.data.length;
+        writeLocalHeader(out, entry);
+        out.write(payload.data);
+        return entry;
+    }
+
+    private CentralEntry streamNewEntry(CountingOutputStream out, String name,
+                                        ArchiveEntry source, byte[] buffer) throws IOException {
+        CentralEntry entry = new CentralEntry();
+        entry.name = name;
+        entry.rawName = name.getBytes(UTF8);
+        entry.flags = FLAG_UTF8;
+        entry.dosTime = ENTRY_DOS_TIME;
+        entry.size = source.entry.getSize();
+        entry.crc = source.entry.getCrc();
+        entry.method = METHOD_STORED;
+        entry.versionNeeded = 10;
+        entry.versionMadeBy = 20;
+        entry.compressedSize = entry.size;
+        writeLocalHeader(out, entry);
+
+        // The local header is already out, so a lying archive can only be caught at the end
+        CRC32 crc = new CRC32();
+        long remaining = entry.size;
+        InputStream in = source.archive.getInputStream(source.entry);
+        try {
+            int read;
+            while (remaining > 0 &&
+                    (read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                out.write(buffer, 0, read);
+                crc.update(buffer, 0, read);
+                remaining -= read;
+            }
+        } finally {
+            in.close();
+        }
+        StageMetrics.addBytesRead(source.entry.getCompressedSize());
+        if (remaining != 0 || crc.getValue() != entry.crc)
+            throw new ZipException("Corrupt entry " + source.entry.getName());
+        return entry;
+    }
+
+    private void writeLocalHeader(CountingOutputStream out, CentralEntry entry)
+            throws IOException {
+        entry.localHeaderOffset = out.getCount();
+        int padding = 0;
+        if (entry.method == METHOD_STORED) {
+            // Keep uncompressed data word aligned so it can be mmapped, like zipalign does
+            long dataStart = entry.localHeaderOffset + LOCAL_HEADER_SIZE + entry.rawName.length;
+            padding = (int) ((STORED_ALIGNMENT - (dataStart % STORED_ALIGNMENT)) %
+                    STORED_ALIGNMENT);
+        }
+        writeInt(out, LOCAL_HEADER_SIGNATURE);
+        writeShort(out, entry.versionNeeded);
+        writeShort(out, entry.flags);
+        writeShort(out, entry.method);
+        writeInt(out, entry.dosTime);
+        writeInt(out, entry.crc);
+        writeInt(out, entry.compressedSize);
+        writeInt(out, entry.size);
+        writeShort(out, entry.rawName.length);
+        writeShort(out, padding);
+        out.write(entry.rawName);
+        for (int i = 0; i < padding; i++)
+            out.write(0);
+    }
+
+    private List<CentralEntry> readCentralDirectory(RandomAccessFile source)
+            throws IOException {
+        long length = source.length();
+        if (length < END_OF_CENTRAL_DIRECTORY_SIZE)
+            throw new ZipException(mSource.getName() + " is not a ZIP file");
+
+        // The end record sits at the very end, followed by an optional comment of up to 64k
+        int scanSize = (int) Math.min(length, END_OF_CENTRAL_DIRECTORY_SIZE + 0xffff);
+        byte[] tail = new byte[scanSize];
+        source.seek(length - scanSize);
+        source.readFully(tail);
+        int eocd = -1;
+        for (int i = scanSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (readUInt(tail, i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd == -1)
+            throw new ZipException("End of central directory not found in " + mSource.getName());
+
+        int count = readUShort(tail, eocd + 10);
+        long centralDirectorySize = readUInt(tail, eocd + 12);
+        long centralDirectoryOffset = readUInt(tail, eocd + 16);
+        if (count == 0xffff || centralDirectoryOffset == 0xffffffffL)
+            throw new ZipException("ZIP64 archives are not supported");
+
+        byte[] directory = new byte[(int) centralDirectorySize];
+        source.seek(centralDirectoryOffset);
+        source.readFully(directory);
+
+        List<CentralEntry> entries = new ArrayList<>(count);
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (readUInt(directory, pos) != CENTRAL_HEADER_SIGNATURE)
+                throw new ZipException("Bad central directory in " + mSource.getName());
+            CentralEntry entry = new CentralEntry();
+            entry.versionMadeBy = readUShort(directory, pos + 4);
+            entry.versionNeeded = readUShort(directory, pos + 6);
+            entry.flags = readUShort(directory, pos + 8);
+            entry.method = readUShort(directory, pos + 10);
+            entry.dosTime = readUInt(directory, pos + 12);
+            entry.crc = readUInt(directory, pos + 16);
+            entry.compressedSize = readUInt(directory, pos + 20);
+            entry.size = readUInt(directory, pos + 24);
+            int nameLength = readUShort(directory, pos + 28);
+            int extraLength = readUShort(directory, pos + 30);
+            int commentLength = readUShort(directory, pos + 32);
+            entry.externalAttributes = readUInt(directory, pos + 38);
+            entry.localHeaderOffset = readUInt(directory, pos + 42);
+            entry.rawName = new byte[nameLength];
+            System.arraycopy(directory, pos + CENTRAL_HEADER_SIZE, entry.rawName, 0, nameLength);
+            entry.name = new String(entry.rawName, UTF8);
+            entries.add(entry);
+            pos += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Replacement content the way it ends up in the archive.
+     */
+    private static class Payload {
+        final boolean stored;
+        final long size;
+        final long crc;
+        final int method;
+        final byte[] data;
+
+        Payload(byte[] content, boolean store) throws IOException {
+            stored = store;
+            size = content.length;
+            CRC32 crc32 = new CRC32();
+            crc32.update(content);
+            crc = crc32.getValue();
+
+            byte[] compressed = null;
+            if (!store) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 2 + 64);
+                Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+                DeflaterOutputStream dos = new DeflaterOutputStream(out, deflater);
+                dos.write(content);
+                dos.close();
+                deflater.end();
+                if (out.size() < content.length) compressed = out.toByteArray();
+            }
+            method = compressed != null ? METHOD_DEFLATED : METHOD_STORED;
+            data = compressed != null ? compressed : content;
+        }
+    }
+
+    /**
+     * An entry of another archive that replaces one of ours.
+     */
+    private static class ArchiveEntry {
+        final ZipFile archive;
+        final ZipEntry entry;
+
+        ArchiveEntry(ZipFile archive, ZipEntry entry) {
+            this.archive = archive;
+            this.entry = entry;
+        }
+
+        byte[] read() throws IOException {
+            InputStream in = archive.getInputStream(entry);
+            StageMetrics.addBytesRead(entry.getCompressedSize());
+            try {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(
+                        (int) Math.max(entry.getSize(), 32));
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1)
+                    out.write(buffer, 0, read);
+                return out.toByteArray();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static class CentralEntry {
+        String name;
+        byte[] rawName;
+        int versionMadeBy;
+        int versionNeeded;
+        int flags;
+        int method;
+        long dosTime;
+        long crc;
+        long compressedSize;
+        long size;
+        long externalAttributes;
+        long localHeaderOffset;
+
+        CentralEntry copy() {
+            CentralEntry copy = new CentralEntry();
+            copy.name = name;
+            copy.rawName = rawName;
+            copy.versionMadeBy = versionMadeBy;
+            copy.versionNeeded = versionNeeded;
+            copy.flags = flags;
+            copy.method = method;
+            copy.dosTime = dosTime;
+            copy.crc = crc;
+            copy.compressedSize = compressedSize;
+            copy.size = size;
+            copy.externalAttributes = externalAttributes;
+            return copy;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+
+        private long mCount;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            mCount += len;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package projekt.dashboard.overlay;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Writes compiled (binary AXML) color state lists, the same bytes "aapt p" produces for
+ *
+ * <pre>
+ * &lt;?xml version="1.0" encoding="utf-8"?&gt;
+ * &lt;selector xmlns:android="http://schemas.android.com/apk/res/android"&gt;
+ *     &lt;item android:color="#AARRGGBB" /&gt;
+ * &lt;/selector&gt;
+ * </pre>
+ *
+ * so the accent color XMLs can be dropped straight into common-resources without compiling a
+ * dummy APK against framework-res first. This has no Android dependencies on purpose.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class ColorStateListEncoder {
+
+    private static final int RES_STRING_POOL_TYPE = 0x0001;
+    private static final int RES_XML_TYPE = 0x0003;
+    private static final int RES_XML_START_NAMESPACE_TYPE = 0x0100;
+    private static final int RES_XML_END_NAMESPACE_TYPE = 0x0101;
+    private static final int RES_XML_START_ELEMENT_TYPE = 0x0102;
+    private static final int RES_XML_END_ELEMENT_TYPE = 0x0103;
+    private static final int RES_XML_RESOURCE_MAP_TYPE = 0x0180;
+    private static final int UTF8_FLAG = 1 << 8;
+    private static final int TYPE_INT_COLOR_ARGB8 = 0x1c;
+    private static final int TYPE_INT_COLOR_RGB8 = 0x1d;
+    private static final int TYPE_INT_COLOR_ARGB4 = 0x1e;
+    private static final int TYPE_INT_COLOR_RGB4 = 0x1f;
+    private static final int ATTR_COLOR = 0x010101a5;
+    private static final int NO_ENTRY = -1;
+    // Where <selector> is in the source above
+    private static final int SELECTOR_LINE = 2;
+
+    // Attribute names carrying a resource id have to come first, matching the resource map. The
+    // empty string is the namespace of the elements, which aapt pools even though it's unused.
+    private static final String[] STRINGS = {
+            "color",
+            "android",
+            "http://schemas.android.com/apk/res/android",
+            "",
+            "selector",
+            "item"};
+    private static final int STRING_COLOR = 0;
+    private static final int STRING_PREFIX = 1;
+    private static final int STRING_URI = 2;
+    private static final int STRING_SELECTOR = 4;
+    private static final int STRING_ITEM = 5;
+
+    private ColorStateListEncoder() {
+    }
+
+    /**
+     * @param color the color the selector's single item resolves to, as #RGB, #ARGB, #RRGGBB or
+     *              #AARRGGBB
+     * @return the compiled XML, ready to be stored as e.g. res/color-v14/accent_color.xml
+     */
+    public static byte[] encode(String color) {
+        return encode(color, SELECTOR_LINE);
+    }
+
+    /**
+     * @param line the line <selector> is on in the source, which is where aapt's line numbers
+     *             come from
+     */
+    static byte[] encode(String color, int line) {
+        String hex = color.startsWith("#") ? color.substring(1) : color;
+        int type;
+        switch (hex.length()) {
+            case 3:
+                type = TYPE_INT_COLOR_RGB4;
+                break;
+            case 4:
+                type = TYPE_INT_COLOR_ARGB4;
+                break;
+            case 6:
+                type = TYPE_INT_COLOR_RGB8;
+                break;
+            case 8:
+                type = TYPE_INT_COLOR_ARGB8;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown color " + color);
+        }
+        if (hex.length() <= 4) {
+            // Every digit stands for two
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < hex.length(); i++)
+                sb.append(hex.charAt(i)).append(hex.charAt(i));
+            hex = sb.toString();
+        }
+        long value = Long.parseLong(hex, 16);
+        if (hex.length() == 6) value |= 0xff000000L;
+        return encode((int) value, type, line);
+    }
+
+    private static byte[] encode(int color, int type, int line) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(512);
+        writeStringPool(body);
+
+        // Resource map
+        writeShort(body, RES_XML_RESOURCE_MAP_TYPE);
+        writeShort(body, 8);
+        writeInt(body, 8 + 4);
+        writeInt(body, ATTR_COLOR);
+
+        writeNamespace(body, RES_XML_START_NAMESPACE_TYPE, line);
+
+        // <selector>
+        writeNodeHeader(body, RES_XML_START_ELEMENT_TYPE, 16 + 20, line);
+        writeElementStart(body, STRING_SELECTOR, 0);
+
+        // <item android:color="..." />
+        writeNodeHeader(body, RES_XML_START_ELEMENT_TYPE, 16 + 20 + 20, line + 1);
+        writeElementStart(body, STRING_ITEM, 1);
+        writeInt(body, STRING_URI);
+        writeInt(body, STRING_COLOR);
+        writeInt(body, NO_ENTRY);
+        writeShort(body, 8);
+        body.write(0);
+        body.write(type);
+        writeInt(body, color);
+
+        writeNodeHeader(body, RES_XML_END_ELEMENT_TYPE, 16 + 8, line + 1);
+        writeInt(body, NO_ENTRY);
+        writeInt(body, STRING_ITEM);
+
+        writeNodeHeader(body, RES_XML_END_ELEMENT_TYPE, 16 + 8, line + 2);
+        writeInt(body, NO_ENTRY);
+        writeInt(body, STRING_SELECTOR);
+
+        writeNamespace(body, RES_XML_END_NAMESPACE_TYPE, line + 2);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.size() + 8);
+        writeShort(out, RES_XML_TYPE);
+        writeShort(out, 8);
+        writeInt(out, body.size() + 8);
+        byte[] bytes = body.toByteArray();
+        out.write(bytes, 0, bytes.length);
+        return out.toByteArray();
+    }
+
+    private static void writeStringPool(ByteArrayOutputStream out) {
+        // UTF-8 strings: u8 length in characters, u8 length in bytes, the bytes, then a
+        // terminator. Every string here is ASCII and shorter than 128, so one byte lengths do.
+        int[] offsets = new int[STRINGS.length];
+        int dataSize = 0;
+        for (int i = 0; i < STRINGS.length; i++) {
+            offsets[i] = dataSize;
+            dataSize += 2 + STRINGS[i].length() + 1;
+        }
+        int padding = (4 - (dataSize % 4)) % 4;
+        int headerSize = 28;
+        int stringsStart = headerSize + STRINGS.length * 4;
+
+        writeShort(out, RES_STRING_POOL_TYPE);
+        writeShort(out, headerSize);
+        writeInt(out, stringsStart + dataSize + padding);
+        writeInt(out, STRINGS.length);
+        writeInt(out, 0);
+        writeInt(out, UTF8_FLAG);
+        writeInt(out, stringsStart);
+        writeInt(out, 0);
+        for (int offset : offsets)
+            writeInt(out, offset);
+        for (String string : STRINGS) {
+            out.write(string.length());
+            out.write(string.length());
+            for (int i = 0; i < string.length(); i++)
+                out.write(string.charAt(i));
+            out.write(0);
+        }
+        for (int i = 0; i < padding; i++)
+            out.write(0);
+    }
+
+    private static void writeNamespace(ByteArrayOutputStream out, int type, int line) {
+        writeNodeHeader(out, type, 16 + 8, line);
+        writeInt(out, STRING_PREFIX);
+        writeInt(out, STRING_URI);
+    }
+
+    private static void writeNodeHeader(ByteArrayOutputStream out, int type, int size, int line) {
+        writeShort(out, type);
+        writeShort(out, 16);
+        writeInt(out, size);
+        writeInt(out, line);
+        writeInt(out, NO_ENTRY);
+    }
+
+    private static void writeElementStart(ByteArrayOutputStream out, int name,
+                                          int attributeCount) {
+        writeInt(out, NO_ENTRY);
+        writeInt(out, name);
+        writeShort(out, 20);
+        writeShort(out, 20);
+        writeShort(out, attributeCount);
+        writeShort(out, 0);
+        writeShort(out, 0);
+        writeShort(out, 0);
+    }
+
+    private static void writeShort(ByteArrayOutputStream out, int v) {
+        out.write(v & 0xff);
+        out.write((v >>> 8) & 0xff);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int v) {
+        writeShort(out, v & 0xffff);
+        writeShort(out, (v >>> 16) & 0xffff);
+    }
+}
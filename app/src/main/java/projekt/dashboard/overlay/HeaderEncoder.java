@@ -0,0 +1,120 @@
+package projekt.dashboard.overlay;
+
+import android.graphics.Bitmap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import projekt.dashboard.pipeline.StageMetrics;
+
+/**
+ * Turns a cropped picture into header PNGs. Headers are cropped for xxhdpi, but a couple of them
+ * (notifhead_sunset_hdpi and _xhdpi) are drawn for lower densities, so they get a properly scaled
+ * down copy instead of the full size one. Every density is encoded only once, on its own core,
+ * and all headers of the same density share the resulting file.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class HeaderEncoder {
+
+    private static final String XXHDPI = "xxhdpi";
+    private static final String XHDPI = "xhdpi";
+    private static final String HDPI = "hdpi";
+
+    private HeaderEncoder() {
+    }
+
+    public static String density(String header) {
+        if (header.endsWith("_xhdpi.png")) return XHDPI;
+        if (header.endsWith("_hdpi.png")) return HDPI;
+        return XXHDPI;
+    }
+
+    /**
+     * @return size of the given density's variant relative to the xxhdpi crop
+     */
+    public static float scale(String density) {
+        if (density.equals(XHDPI)) return 320f / 480f;
+        if (density.equals(HDPI)) return 240f / 480f;
+        return 1f;
+    }
+
+    /**
+     * @return the file each of {@code headers} is encoded to, headers that come out the same
+     * share a file
+     */
+    public static Map<String, File> files(File directory, List<String> headers) {
+        Map<String, File> files = new LinkedHashMap<>();
+        for (String header : headers)
+            files.put(header, new File(directory, "header_" + density(header) + ".png"));
+        return files;
+    }
+
+    /**
+     * Encodes {@code header} into every file {@link #files(File, List)} returns for
+     * {@code headers}.
+     */
+    public static void encode(final Bitmap header, final File directory, List<String> headers)
+            throws IOException, InterruptedException {
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getAbsolutePath());
+        Set<String> densities = new LinkedHashSet<>();
+        for (String name : headers)
+            densities.add(density(name));
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(densities.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (final String density : densities) {
+                results.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return encode(header, scale(density),
+                                new File(directory, "header_" + density + ".png"));
+                    }
+                }));
+            }
+            for (Future<Long> result : results) {
+                // Counted here, the metrics belong to the stage's thread
+                StageMetrics.addBytesWritten(result.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long encode(Bitmap header, float scale, File file) throws IOException {
+        Bitmap scaled = header;
+        if (scale != 1f) {
+            scaled = Bitmap.createScaledBitmap(header,
+                    Math.max(1, Math.round(header.getWidth() * scale)),
+                    Math.max(1, Math.round(header.getHeight() * scale)), true);
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            // PNG is lossless, the quality is ignored
+            if (!scaled.compress(Bitmap.CompressFormat.PNG, 100, out))
+                throw new IOException("Unable to encode " + file.getName());
+        } finally {
+            out.close();
+            if (scaled != header) scaled.recycle();
+        }
+        return file.length();
+    }
+}
@@ -0,0 +1,162 @@
+package projekt.dashboard.overlay;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import projekt.dashboard.backend.Backend;
+import projekt.dashboard.pipeline.Pipeline;
+
+/**
+ * Swaps SystemUI header drawables inside an installed theme APK. The headers either come from
+ * PNG files picked per header, or from a header pack ZIP, whose entries are streamed straight
+ * into the APK without ever being extracted. The result isn't cached: it's installed over the
+ * theme APK it was built from, so there's never an unpatched APK to key it on.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class HeaderPatchJob {
+
+    private final Backend mBackend;
+    private final File mWorkDir;
+    private final String mThemePath;
+    private final String mPackageName;
+    private final List<String> mHeaders = new ArrayList<>();
+    private final Map<String, File> mFiles = new LinkedHashMap<>();
+    private final Map<String, ZipEntry> mEntries = new LinkedHashMap<>();
+    private File mHeaderPack;
+    private volatile ZipFile mPack;
+    private boolean mClearSystemUICache;
+    private PngOptimizer mOptimizer;
+
+    /**
+     * @param themePath the theme's base.apk, which gets overwritten with the patched copy
+     */
+    public HeaderPatchJob(Backend backend, File workDir, String themePath, String packageName) {
+        mBackend = backend;
+        mWorkDir = workDir;
+        mThemePath = themePath;
+        mPackageName = packageName;
+    }
+
+    /**
+     * Takes each header from the PNG it maps to. Headers may share a file, which then only gets
+     * read once.
+     */
+    public HeaderPatchJob headers(Map<String, File> files) {
+        mFiles.putAll(files);
+        mHeaders.addAll(files.keySet());
+        return this;
+    }
+
+    /**
+     * Takes every header found in the header pack ZIP.
+     */
+    public HeaderPatchJob headerPack(File zip) {
+        mHeaderPack = zip;
+        return this;
+    }
+
+    public HeaderPatchJob clearSystemUICache(boolean clear) {
+        mClearSystemUICache = clear;
+        return this;
+    }
+
+    /**
+     * Losslessly shrinks the headers with {@code optimizer} before they're packed, null packs
+     * them as they are.
+     */
+    public HeaderPatchJob optimize(PngOptimizer optimizer) {
+        mOptimizer = optimizer;
+        return this;
+    }
+
+    /**
+     * @param dependencies stages that have to finish before the header files can be read
+     * @return the name of the install stage
+     */
+    public String addStages(Pipeline pipeline, String... dependencies) {
+        final File themeApk = mBackend.resolve(mThemePath);
+        final File headerApk = new File(mWorkDir, "new_header_apk.apk");
+
+        pipeline.stage("index", new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                if (mHeaderPack == null) return;
+                // Only the central directory is read, the headers stay in the pack until patch
+                mPack = new ZipFile(mHeaderPack);
+                for (String header : SystemUIHeaders.FILENAMES) {
+                    ZipEntry entry = mPack.getEntry(header);
+                    if (entry == null || entry.isDirectory()) continue;
+                    mHeaders.add(header);
+                    mEntries.put(header, entry);
+                }
+            }
+        }, dependencies).stage("optimize", new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                if (mOptimizer == null) return;
+                Map<File, File> optimized = mOptimizer.optimize(mFiles.values());
+                for (Map.Entry<String, File> file : mFiles.entrySet())
+                    file.setValue(optimized.get(file.getValue()));
+                if (mEntries.isEmpty()) return;
+                // Headers that got smaller come from the optimizer's copy instead of the pack
+                Map<ZipEntry, File> smaller = mOptimizer.optimize(mPack, mEntries.values());
+                Iterator<Map.Entry<String, ZipEntry>> entries = mEntries.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<String, ZipEntry> entry = entries.next();
+                    File file = smaller.get(entry.getValue());
+                    if (file == null) continue;
+                    mFiles.put(entry.getKey(), file);
+                    entries.remove();
+                }
+            }
+        }, "index").stage("patch", new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                if (!mWorkDir.exists() && !mWorkDir.mkdirs())
+                    throw new IOException("Unable to create " + mWorkDir);
+                // Swap the drawables while copying the theme APK over, a single pass over it
+                ApkRewriter rewriter = new ApkRewriter(themeApk);
+                for (String header : mHeaders) {
+                    String entryName = SystemUIHeaders.entryName(header);
+                    if (mEntries.containsKey(header))
+                        rewriter.replace(entryName, mPack, mEntries.get(header));
+                    else
+                        rewriter.replace(entryName, mFiles.get(header));
+                }
+                rewriter.writeTo(headerApk);
+            }
+        }, "optimize").finalStage("close-pack", new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                // Only once everything that opens or reads the pack is done with it
+                if (mPack != null) mPack.close();
+            }
+        }, "index", "optimize", "patch").stage("install", new Pipeline.Task() {
+            @Override
+            public void run() throws Exception {
+                mBackend.install(headerApk, mThemePath);
+                if (mClearSystemUICache) {
+                    mBackend.delete(Collections.singletonList(
+                            "/data/resource-cache/" + mPackageName + "/com.android.systemui"));
+                }
+            }
+        }, "patch");
+        return "install";
+    }
+
+    /**
+     * @return the headers that were swapped, valid once the job ran
+     */
+    public List<String> getHeaders() {
+        return Collections.unmodifiableList(mHeaders);
+    }
+}
@@ -0,0 +1,283 @@
+package projekt.dashboard.overlay;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.apache.commons.io.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import projekt.dashboard.pipeline.StageMetrics;
+
+/**
+ * Content addressed store of overlay APKs we've already built. Entries are keyed by the SHA-256
+ * of the APK they were built from plus whatever was patched into it (the accent color...),
+ * so applying the same thing twice turns into a plain install of the stored APK.
+ * <p>
+ * The store is bounded in size and evicts the least recently used entries first. Its index is a
+ * single small file, so opening the store never has to list or hash the cached APKs. An entry
+ * handed out by {@link #get} or {@link #put} is never evicted until it's given back with
+ * {@link #release}, and reordering the index on a hit is only written out once no entry is in
+ * use anymore.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class OverlayCache {
+
+    private static final String TAG = "OverlayCache";
+    private static final String INDEX_NAME = "index";
+    private static final String INDEX_VERSION = "1";
+    private static final long DEFAULT_MAX_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_DIGESTS = 32;
+    // Digests of source files, keyed by path, size and last modified time, least recently used
+    // go first
+    private static final Map<String, String> mDigests =
+            new LinkedHashMap<String, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                    return size() > MAX_DIGESTS;
+                }
+            };
+    private static OverlayCache mInstance;
+
+    private final File mDirectory;
+    private final long mMaxSize;
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    // How many times each entry is in use
+    private final Map<String, Integer> mPins = new HashMap<>();
+    private long mSize;
+    private boolean mLoaded;
+    // Whether the index is behind on the order of the entries
+    private boolean mDirty;
+
+    public OverlayCache(File directory, long maxSize) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+    }
+
+    public static synchronized OverlayCache get(Context context) {
+        if (mInstance == null) {
+            mInstance = new OverlayCache(new File(context.getFilesDir(), "overlay-cache"),
+                    DEFAULT_MAX_SIZE);
+        }
+        return mInstance;
+    }
+
+    public static String digest(File file) throws IOException {
+        String memoKey = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+        synchronized (mDigests) {
+            String cached = mDigests.get(memoKey);
+            if (cached != null) return cached;
+        }
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        StageMetrics.addBytesRead(file.length());
+        try {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+        String hex = toHex(digest.digest());
+        synchronized (mDigests) {
+            mDigests.put(memoKey, hex);
+        }
+        return hex;
+    }
+
+    public static String digest(byte[] data) {
+        return toHex(newDigest().digest(data));
+    }
+
+    /**
+     * @param sourceDigest digest of the APK the overlay is built from
+     * @param parameters   everything that was patched into it, in a stable order
+     */
+    public static String key(String sourceDigest, String... parameters) {
+        StringBuilder sb = new StringBuilder(sourceDigest);
+        for (String parameter : parameters)
+            sb.append('\n').append(parameter);
+        try {
+            return digest(sb.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @return the stored APK for this key, or null if it has to be built. It's kept until it's
+     * released.
+     */
+    public synchronized File get(String key) {
+        load();
+        if (!mEntries.containsKey(key)) return null;
+        File file = fileFor(key);
+        if (!file.exists()) {
+            mSize -= mEntries.remove(key);
+            writeIndex();
+            return null;
+        }
+        // The access ordered map has just moved this entry to the most recently used end
+        mDirty = true;
+        pin(key);
+        return file;
+    }
+
+    /**
+     * Copies a freshly built APK into the store, evicting old entries to stay within bounds.
+     *
+     * @return the stored copy, which is kept until it's released
+     */
+    public synchronized File put(String key, File built) throws IOException {
+        load();
+        if (!mDirectory.exists() && !mDirectory.mkdirs())
+            throw new IOException("Unable to create " + mDirectory.getAbsolutePath());
+
+        File target = fileFor(key);
+        File temp = new File(mDirectory, key + ".tmp");
+        FileUtils.copyFile(built, temp);
+        StageMetrics.addCopy(temp.length());
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Unable to store " + key);
+        }
+
+        Long previous = mEntries.put(key, target.length());
+        if (previous != null) mSize -= previous;
+        mSize += target.length();
+        pin(key);
+        trimToSize();
+        writeIndex();
+        return target;
+    }
+
+    /**
+     * Gives back an entry {@link #get} or {@link #put} returned, once it's been installed.
+     */
+    public synchronized void release(String key) {
+        Integer pins = mPins.remove(key);
+        if (pins != null && pins > 1) mPins.put(key, pins - 1);
+        if (mPins.isEmpty() && mDirty) writeIndex();
+    }
+
+    /**
+     * Deletes every entry that isn't in use.
+     */
+    public synchronized void clear() {
+        load();
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, Long> entry = iterator.next();
+            if (mPins.containsKey(entry.getKey())) continue;
+            fileFor(entry.getKey()).delete();
+            mSize -= entry.getValue();
+            iterator.remove();
+        }
+        writeIndex();
+    }
+
+    private void pin(String key) {
+        Integer pins = mPins.get(key);
+        mPins.put(key, pins == null ? 1 : pins + 1);
+    }
+
+    private void trimToSize() {
+        Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        // Entries in use are kept, even if they alone are bigger than the bound
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            if (mPins.containsKey(eldest.getKey())) continue;
+            fileFor(eldest.getKey()).delete();
+            mSize -= eldest.getValue();
+            iterator.remove();
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(mDirectory, key + ".apk");
+    }
+
+    private void load() {
+        if (mLoaded) return;
+        mLoaded = true;
+        File index = new File(mDirectory, INDEX_NAME);
+        if (!index.exists()) return;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(index));
+            try {
+                if (!INDEX_VERSION.equals(reader.readLine())) return;
+                String line;
+                // Lines are stored least recently used first, so insertion restores the order
+                while ((line = reader.readLine()) != null) {
+                    int space = line.indexOf(' ');
+                    if (space == -1) continue;
+                    long size = Long.parseLong(line.substring(space + 1));
+                    mEntries.put(line.substring(0, space), size);
+                    mSize += size;
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "Discarding unreadable index: " + e.getMessage());
+            mEntries.clear();
+            mSize = 0;
+        }
+    }
+
+    private void writeIndex() {
+        mDirty = false;
+        if (!mDirectory.exists()) return;
+        File index = new File(mDirectory, INDEX_NAME);
+        File temp = new File(mDirectory, INDEX_NAME + ".tmp");
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(temp));
+            try {
+                writer.write(INDEX_VERSION);
+                writer.newLine();
+                for (Map.Entry<String, Long> entry : mEntries.entrySet()) {
+                    writer.write(entry.getKey() + " " + entry.getValue());
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(index)) temp.delete();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write index: " + e.getMessage());
+        }
+    }
+}
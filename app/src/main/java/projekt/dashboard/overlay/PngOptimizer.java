@@ -0,0 +1,675 @@
+package projekt.dashboard.overlay;
+
+import android.content.Context;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import projekt.dashboard.pipeline.StageMetrics;
+
+/**
+ * Losslessly shrinks the PNGs we pack into overlays. Every image is re-encoded in the smallest
+ * color type that holds its pixels exactly (dropping an alpha channel that's always opaque,
+ * grayscale, or a palette when there are at most 256 colors), with every scanline filter strategy
+ * and a sweep of zlib settings, and the smallest output wins. Images that can't get any smaller,
+ * or that use something we don't re-encode (16 bit channels, interlacing), are left alone.
+ * <p>
+ * Results are cached by the digest of the input, so the same header is only ever optimized once.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class PngOptimizer {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int GRAY = 0, RGB = 2, PALETTE = 3, GRAY_ALPHA = 4, RGBA = 6;
+    // Filter strategies, the five PNG filter types followed by the per row heuristic
+    private static final int ADAPTIVE = 5;
+    // Anything bigger than this isn't a header, and isn't worth the memory
+    private static final long MAX_PIXELS = 2048 * 1024;
+    // Rough peak working set of optimize() per pixel: the decoded pixels, the scanlines of each
+    // candidate color type, the filtered rows being compared and the deflated output
+    private static final int BYTES_PER_PIXEL = 24;
+    // Filters are compared at the default level, which ranks them the same as level 9 does in a
+    // fraction of the time; only the winner is tried with the other strategy and at level 9
+    private static final int TRIAL_LEVEL = 6;
+    private static final int MAX_LEVEL = 9;
+    // Metadata that has no say in how the image looks
+    private static final List<String> DROPPED_CHUNKS =
+            Arrays.asList("tEXt", "zTXt", "iTXt", "tIME");
+    // Only mean something for the color type (and palette order) they were written for
+    private static final List<String> COLOR_TYPE_CHUNKS = Arrays.asList("bKGD", "sBIT", "hIST");
+    // Cached results and markers, least recently used go first
+    private static final int MAX_ENTRIES = 96;
+    private static PngOptimizer mInstance;
+
+    private final File mDirectory;
+
+    public PngOptimizer(File directory) {
+        mDirectory = directory;
+    }
+
+    public static synchronized PngOptimizer get(Context context) {
+        if (mInstance == null)
+            mInstance = new PngOptimizer(new File(context.getFilesDir(), "png-cache"));
+        return mInstance;
+    }
+
+    /**
+     * @return the smallest lossless encoding of {@code png}, which is {@code png} itself if
+     * nothing beats it
+     */
+    public static byte[] optimize(byte[] png) {
+        Image image;
+        try {
+            image = Image.decode(png);
+        } catch (IOException | RuntimeException e) {
+            // Not ours to judge, whatever loads it later will complain if it has to
+            return png;
+        }
+        if (image == null) return png;
+
+        List<byte[]> rows = new ArrayList<>();
+        rows.add(image.encode(image.mColorType));
+        List<Integer> colorTypes = new ArrayList<>();
+        colorTypes.add(image.mColorType);
+        if (image.mPalette != null) {
+            rows.add(image.encode(PALETTE));
+            colorTypes.add(PALETTE);
+        }
+
+        byte[] best = null, bestFiltered = null;
+        int bestColorType = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            int colorType = colorTypes.get(i);
+            int bpp = bytesPerPixel(colorType);
+            for (int filter = 0; filter <= ADAPTIVE; filter++) {
+                byte[] filtered = filter(rows.get(i), image.mWidth * bpp, bpp, filter);
+                byte[] deflated = deflate(filtered, TRIAL_LEVEL, Deflater.DEFAULT_STRATEGY);
+                if (best == null || deflated.length < best.length) {
+                    best = deflated;
+                    bestColorType = colorType;
+                    bestFiltered = filtered;
+                }
+            }
+        }
+        int strategy = Deflater.DEFAULT_STRATEGY;
+        byte[] deflated = deflate(bestFiltered, TRIAL_LEVEL, Deflater.FILTERED);
+        if (deflated.length < best.length) {
+            best = deflated;
+            strategy = Deflater.FILTERED;
+        }
+        deflated = deflate(bestFiltered, MAX_LEVEL, strategy);
+        if (deflated.length < best.length) best = deflated;
+
+        byte[] optimized = image.write(bestColorType, best);
+        if (optimized.length >= png.length) return png;
+        return optimized;
+    }
+
+    private static int bytesPerPixel(int colorType) {
+        switch (colorType) {
+            case GRAY:
+            case PALETTE:
+                return 1;
+            case GRAY_ALPHA:
+                return 2;
+            case RGB:
+                return 3;
+            default:
+                return 4;
+        }
+    }
+
+    /**
+     * Prefixes every row of {@code raw} with a filter type and filters it, {@link #ADAPTIVE}
+     * picks the type with the lowest sum of absolute differences row by row.
+     */
+    static byte[] filter(byte[] raw, int stride, int bpp, int strategy) {
+        int height = raw.length / stride;
+        byte[] out = new byte[height * (stride + 1)];
+        byte[] candidate = strategy == ADAPTIVE ? new byte[stride] : null;
+        for (int y = 0; y < height; y++) {
+            int row = y * stride;
+            int target = y * (stride + 1);
+            int type = strategy;
+            if (strategy == ADAPTIVE) {
+                long bestSum = Long.MAX_VALUE;
+                for (int t = 0; t < ADAPTIVE; t++) {
+                    filterRow(raw, row, stride, bpp, t, candidate, 0);
+                    long sum = 0;
+                    for (byte b : candidate)
+                        sum += Math.abs(b);
+                    if (sum < bestSum) {
+                        bestSum = sum;
+                        type = t;
+                    }
+                }
+            }
+            out[target] = (byte) type;
+            filterRow(raw, row, stride, bpp, type, out, target + 1);
+        }
+        return out;
+    }
+
+    private static void filterRow(byte[] raw, int row, int stride, int bpp, int type,
+                                  byte[] out, int offset) {
+        boolean first = row == 0;
+        for (int x = 0; x < stride; x++) {
+            int value = raw[row + x] & 0xff;
+            int left = x >= bpp ? raw[row + x - bpp] & 0xff : 0;
+            int up = first ? 0 : raw[row + x - stride] & 0xff;
+            int upLeft = first || x < bpp ? 0 : raw[row + x - stride - bpp] & 0xff;
+            int predictor;
+            switch (type) {
+                case 1:
+                    predictor = left;
+                    break;
+                case 2:
+                    predictor = up;
+                    break;
+                case 3:
+                    predictor = (left + up) >> 1;
+                    break;
+                case 4:
+                    predictor = paeth(left, up, upLeft);
+                    break;
+                default:
+                    predictor = 0;
+            }
+            out[offset + x] = (byte) (value - predictor);
+        }
+    }
+
+    private static void unfilter(byte[] data, int stride, int bpp, byte[] out) throws IOException {
+        int height = out.length / stride;
+        for (int y = 0; y < height; y++) {
+            int type = data[y * (stride + 1)];
+            int source = y * (stride + 1) + 1;
+            int row = y * stride;
+            for (int x = 0; x < stride; x++) {
+                int left = x >= bpp ? out[row + x - bpp] & 0xff : 0;
+                int up = y == 0 ? 0 : out[row + x - stride] & 0xff;
+                int upLeft = y == 0 || x < bpp ? 0 : out[row + x - stride - bpp] & 0xff;
+                int predictor;
+                switch (type) {
+                    case 0:
+                        predictor = 0;
+                        break;
+                    case 1:
+                        predictor = left;
+                        break;
+                    case 2:
+                        predictor = up;
+                        break;
+                    case 3:
+                        predictor = (left + up) >> 1;
+                        break;
+                    case 4:
+                        predictor = paeth(left, up, upLeft);
+                        break;
+                    default:
+                        throw new IOException("Unknown filter type " + type);
+                }
+                out[row + x] = (byte) (data[source + x] + predictor);
+            }
+        }
+    }
+
+    private static int paeth(int left, int up, int upLeft) {
+        int p = left + up - upLeft;
+        int pa = Math.abs(p - left), pb = Math.abs(p - up), pc = Math.abs(p - upLeft);
+        if (pa <= pb && pa <= pc) return left;
+        return pb <= pc ? up : upLeft;
+    }
+
+    private static byte[] deflate(byte[] data, int level, int strategy) {
+        Deflater deflater = new Deflater(level);
+        deflater.setStrategy(strategy);
+        deflater.setInput(data);
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2);
+        byte[] buffer = new byte[65536];
+        while (!deflater.finished())
+            out.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static byte[] inflate(byte[] data, int length) throws IOException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(data);
+        byte[] out = new byte[length];
+        try {
+            int read = 0;
+            while (read < length && !inflater.finished()) {
+                int count = inflater.inflate(out, read, length - read);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated image data");
+                read += count;
+            }
+            // The stream can end before the image does, which would leave it padded with zeros
+            if (read < length) throw new IOException("Truncated image data");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return out;
+    }
+
+    private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] name = type.getBytes();
+        writeInt(out, data.length);
+        out.write(name, 0, 4);
+        out.write(data, 0, data.length);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    /**
+     * Optimizes every file in {@code pngs}, on as many cores as there are.
+     *
+     * @return the file to use in place of each of {@code pngs}
+     */
+    public Map<File, File> optimize(Collection<File> pngs)
+            throws IOException, InterruptedException {
+        Map<File, Callable<byte[]>> inputs = new LinkedHashMap<>();
+        for (final File png : pngs) {
+            inputs.put(png, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    return FileUtils.readFileToByteArray(png);
+                }
+            });
+        }
+        Map<File, File> optimized = optimizeAll(inputs);
+        for (File png : inputs.keySet())
+            if (!optimized.containsKey(png)) optimized.put(png, png);
+        return optimized;
+    }
+
+    /**
+     * Optimizes the PNGs stored as {@code entries} of {@code archive}, straight from the archive.
+     *
+     * @return the optimized copy of every entry that could be improved on
+     */
+    public Map<ZipEntry, File> optimize(final ZipFile archive, Collection<ZipEntry> entries)
+            throws IOException, InterruptedException {
+        Map<ZipEntry, Callable<byte[]>> inputs = new LinkedHashMap<>();
+        for (final ZipEntry entry : entries) {
+            inputs.put(entry, new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    InputStream in = archive.getInputStream(entry);
+                    try {
+                        return IOUtils.toByteArray(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+            });
+        }
+        return optimizeAll(inputs);
+    }
+
+    private <T> Map<T, File> optimizeAll(Map<T, Callable<byte[]>> inputs)
+            throws IOException, InterruptedException {
+        Map<T, File> optimized = new HashMap<>();
+        if (inputs.isEmpty()) return optimized;
+
+        // One image per core, but no more than half the heap can hold at the largest size we take,
+        // which on low-RAM devices means fewer at a time
+        long perImage = MAX_PIXELS * BYTES_PER_PIXEL;
+        int threads = (int) Math.min(Math.min(inputs.size(),
+                Runtime.getRuntime().availableProcessors()),
+                Runtime.getRuntime().maxMemory() / 2 / perImage);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            Map<T, Future<Result>> results = new LinkedHashMap<>();
+            for (final Map.Entry<T, Callable<byte[]>> input : inputs.entrySet()) {
+                results.put(input.getKey(), executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() throws Exception {
+                        return process(input.getValue().call());
+                    }
+                }));
+            }
+            for (Map.Entry<T, Future<Result>> result : results.entrySet()) {
+                Result done = result.getValue().get();
+                // Counted here, the metrics belong to the stage's thread
+                StageMetrics.addBytesRead(done.mBytesRead);
+                StageMetrics.addBytesWritten(done.mBytesWritten);
+                if (done.mFile != null) optimized.put(result.getKey(), done.mFile);
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        trim(optimized.values());
+        return optimized;
+    }
+
+    private void trim(Collection<File> inUse) {
+        File[] files = mDirectory.listFiles();
+        if (files == null || files.length <= MAX_ENTRIES) return;
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(lhs.lastModified(), rhs.lastModified());
+            }
+        });
+        for (int i = 0; i < files.length - MAX_ENTRIES; i++)
+            if (!inUse.contains(files[i])) files[i].delete();
+    }
+
+    /**
+     * Looks {@code input} up in the cache, and optimizes and stores it if it isn't there yet.
+     */
+    private Result process(byte[] input) throws IOException {
+        Result result = new Result();
+        result.mBytesRead = input.length;
+        String digest = OverlayCache.digest(input);
+        File optimized = new File(mDirectory, digest + ".png");
+        // Marks inputs we've tried and couldn't improve on
+        File unchanged = new File(mDirectory, digest + ".orig");
+        if (optimized.isFile()) {
+            optimized.setLastModified(System.currentTimeMillis());
+            result.mFile = optimized;
+            return result;
+        }
+        if (unchanged.isFile()) {
+            unchanged.setLastModified(System.currentTimeMillis());
+            return result;
+        }
+
+        byte[] output = optimize(input);
+        if (!mDirectory.mkdirs() && !mDirectory.isDirectory())
+            throw new IOException("Unable to create " + mDirectory.getAbsolutePath());
+        if (output == input) {
+            unchanged.createNewFile();
+            return result;
+        }
+        // Identical inputs may get stored at the same time, each from its own thread
+        File temp = new File(mDirectory, digest + ".tmp" + Thread.currentThread().getId());
+        FileUtils.writeByteArrayToFile(temp, output);
+        result.mBytesWritten = output.length;
+        if (!temp.renameTo(optimized)) {
+            temp.delete();
+            throw new IOException("Unable to store " + digest);
+        }
+        result.mFile = optimized;
+        return result;
+    }
+
+    private static class Result {
+        // The optimized copy, null if the input is as small as it gets
+        File mFile;
+        long mBytesRead;
+        long mBytesWritten;
+    }
+
+    /**
+     * A decoded 8 bit, non-interlaced PNG, with its pixels as ARGB.
+     */
+    private static class Image {
+
+        private final List<String> mChunkTypes = new ArrayList<>();
+        private final List<byte[]> mChunks = new ArrayList<>();
+        private int mWidth;
+        private int mHeight;
+        private int mSourceColorType;
+        private int[] mPixels;
+        // Smallest color type without a palette that holds every pixel exactly
+        private int mColorType;
+        // Every distinct color, translucent ones first, or null if there are more than 256
+        private int[] mPalette;
+        private Map<Integer, Integer> mIndices;
+
+        /**
+         * @return the image, or null if it uses anything we don't re-encode
+         */
+        static Image decode(byte[] png) throws IOException {
+            if (png.length < SIGNATURE.length ||
+                    !Arrays.equals(Arrays.copyOf(png, SIGNATURE.length), SIGNATURE))
+                throw new IOException("Not a PNG");
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(png, SIGNATURE.length,
+                    png.length - SIGNATURE.length));
+            Image image = new Image();
+            ByteArrayOutputStream idat = new ByteArrayOutputStream(png.length);
+            int colorType = -1;
+            byte[] palette = null, transparency = null;
+            while (true) {
+                int length = in.readInt();
+                byte[] name = new byte[4];
+                in.readFully(name);
+                String type = new String(name, "US-ASCII");
+                // Checked before allocating, the data and its CRC have to fit in what's left
+                if (length < 0 || length > in.available() - 4)
+                    throw new IOException("Bad length for " + type + " chunk");
+                byte[] data = new byte[length];
+                in.readFully(data);
+                in.readInt();
+
+                if (type.equals("IHDR")) {
+                    if (data.length < 13) throw new IOException("Short IHDR chunk");
+                    image.mWidth = readInt(data, 0);
+                    image.mHeight = readInt(data, 4);
+                    colorType = data[9];
+                    image.mSourceColorType = colorType;
+                    // Only 8 bit channels, and no interlacing
+                    if (data[8] != 8 || data[10] != 0 || data[11] != 0 || data[12] != 0)
+                        return null;
+                    if (image.mWidth <= 0 || image.mHeight <= 0 ||
+                            (long) image.mWidth * image.mHeight > MAX_PIXELS) return null;
+                } else if (type.equals("PLTE")) {
+                    palette = data;
+                } else if (type.equals("tRNS")) {
+                    // A single transparent gray or RGB value isn't worth carrying over
+                    if (colorType != PALETTE) return null;
+                    transparency = data;
+                } else if (type.equals("IDAT")) {
+                    idat.write(data);
+                } else if (type.equals("IEND")) {
+                    break;
+                } else if (Character.isUpperCase(type.charAt(0))) {
+                    return null;
+                } else if (!DROPPED_CHUNKS.contains(type)) {
+                    image.mChunkTypes.add(type);
+                    image.mChunks.add(data);
+                }
+            }
+
+            int channels = colorType == PALETTE ? 1 : bytesPerPixel(colorType);
+            if (image.mWidth <= 0 || image.mHeight <= 0 ||
+                    (long) image.mWidth * image.mHeight > MAX_PIXELS) return null;
+            if (colorType < 0 || colorType == 1 || colorType == 5 || colorType > RGBA ||
+                    (colorType == PALETTE && palette == null)) return null;
+            int stride = image.mWidth * channels;
+            byte[] raw = new byte[stride * image.mHeight];
+            unfilter(inflate(idat.toByteArray(), (stride + 1) * image.mHeight), stride,
+                    channels, raw);
+            image.read(raw, colorType, palette, transparency);
+            return image;
+        }
+
+        private static int readInt(byte[] data, int offset) {
+            return (data[offset] & 0xff) << 24 | (data[offset + 1] & 0xff) << 16 |
+                    (data[offset + 2] & 0xff) << 8 | (data[offset + 3] & 0xff);
+        }
+
+        private void read(byte[] raw, int colorType, byte[] palette, byte[] transparency) {
+            mPixels = new int[mWidth * mHeight];
+            boolean opaque = true, gray = true;
+            Map<Integer, Integer> counts = new LinkedHashMap<>();
+            int last = 0;
+            for (int i = 0, p = 0; i < mPixels.length; i++) {
+                int a = 0xff, r, g, b;
+                switch (colorType) {
+                    case GRAY:
+                        r = g = b = raw[p++] & 0xff;
+                        break;
+                    case GRAY_ALPHA:
+                        r = g = b = raw[p++] & 0xff;
+                        a = raw[p++] & 0xff;
+                        break;
+                    case PALETTE:
+                        int index = raw[p++] & 0xff;
+                        r = palette[index * 3] & 0xff;
+                        g = palette[index * 3 + 1] & 0xff;
+                        b = palette[index * 3 + 2] & 0xff;
+                        if (transparency != null && index < transparency.length)
+                            a = transparency[index] & 0xff;
+                        break;
+                    case RGB:
+                        r = raw[p++] & 0xff;
+                        g = raw[p++] & 0xff;
+                        b = raw[p++] & 0xff;
+                        break;
+                    default:
+                        r = raw[p++] & 0xff;
+                        g = raw[p++] & 0xff;
+                        b = raw[p++] & 0xff;
+                        a = raw[p++] & 0xff;
+                }
+                int argb = a << 24 | r << 16 | g << 8 | b;
+                mPixels[i] = argb;
+                opaque &= a == 0xff;
+                gray &= r == g && g == b;
+                if (counts != null && (i == 0 || argb != last) && !counts.containsKey(argb)) {
+                    counts.put(argb, counts.size());
+                    if (counts.size() > 256) counts = null;
+                }
+                last = argb;
+            }
+
+            // An ICC profile for RGB doesn't apply to a grayscale image
+            if (gray && mChunkTypes.contains("iCCP")) gray = false;
+            if (gray) mColorType = opaque ? GRAY : GRAY_ALPHA;
+            else mColorType = opaque ? RGB : RGBA;
+            if (counts == null) return;
+
+            // Translucent entries first, so the tRNS chunk stops at the last of them
+            mPalette = new int[counts.size()];
+            int next = 0;
+            for (int argb : counts.keySet())
+                if (argb >>> 24 != 0xff) mPalette[next++] = argb;
+            for (int argb : counts.keySet())
+                if (argb >>> 24 == 0xff) mPalette[next++] = argb;
+            mIndices = new HashMap<>();
+            for (int i = 0; i < mPalette.length; i++)
+                mIndices.put(mPalette[i], i);
+        }
+
+        /**
+         * @return the unfiltered scanlines of the image in {@code colorType}
+         */
+        byte[] encode(int colorType) {
+            byte[] raw = new byte[mPixels.length * bytesPerPixel(colorType)];
+            int p = 0;
+            for (int argb : mPixels) {
+                switch (colorType) {
+                    case PALETTE:
+                        raw[p++] = (byte) (int) mIndices.get(argb);
+                        break;
+                    case GRAY:
+                        raw[p++] = (byte) argb;
+                        break;
+                    case GRAY_ALPHA:
+                        raw[p++] = (byte) argb;
+                        raw[p++] = (byte) (argb >>> 24);
+                        break;
+                    case RGB:
+                        raw[p++] = (byte) (argb >> 16);
+                        raw[p++] = (byte) (argb >> 8);
+                        raw[p++] = (byte) argb;
+                        break;
+                    default:
+                        raw[p++] = (byte) (argb >> 16);
+                        raw[p++] = (byte) (argb >> 8);
+                        raw[p++] = (byte) argb;
+                        raw[p++] = (byte) (argb >>> 24);
+                }
+            }
+            return raw;
+        }
+
+        byte[] write(int colorType, byte[] idat) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(idat.length + 1024);
+            out.write(SIGNATURE, 0, SIGNATURE.length);
+            ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+            writeInt(header, mWidth);
+            writeInt(header, mHeight);
+            header.write(8);
+            header.write(colorType);
+            // Deflate, standard filters, no interlacing
+            header.write(0);
+            header.write(0);
+            header.write(0);
+            writeChunk(out, "IHDR", header.toByteArray());
+
+            boolean sameColorType = colorType == mSourceColorType && colorType != PALETTE;
+            for (int i = 0; i < mChunks.size(); i++) {
+                String type = mChunkTypes.get(i);
+                if (sameColorType || !COLOR_TYPE_CHUNKS.contains(type))
+                    writeChunk(out, type, mChunks.get(i));
+            }
+            if (colorType == PALETTE) {
+                byte[] palette = new byte[mPalette.length * 3];
+                int translucent = 0;
+                for (int i = 0; i < mPalette.length; i++) {
+                    palette[i * 3] = (byte) (mPalette[i] >> 16);
+                    palette[i * 3 + 1] = (byte) (mPalette[i] >> 8);
+                    palette[i * 3 + 2] = (byte) mPalette[i];
+                    if (mPalette[i] >>> 24 != 0xff) translucent = i + 1;
+                }
+                writeChunk(out, "PLTE", palette);
+                if (translucent > 0) {
+                    byte[] transparency = new byte[translucent];
+                    for (int i = 0; i < translucent; i++)
+                        transparency[i] = (byte) (mPalette[i] >>> 24);
+                    writeChunk(out, "tRNS", transparency);
+                }
+            }
+            writeChunk(out, "IDAT", idat);
+            writeChunk(out, "IEND", new byte[0]);
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package projekt.dashboard.overlay;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The contextual header drawables we know how to swap inside a theme's SystemUI overlay.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class SystemUIHeaders {
+
+    public static final String OVERLAY_DRAWABLE_PATH =
+            "assets/overlays/com.android.systemui/res/drawable-xxhdpi-v23/";
+
+    public static final List<String> FILENAMES = Collections.unmodifiableList(Arrays.asList(
+            "notifhead_afternoon.png", "notifhead_christmas.png", "notifhead_morning.png",
+            "notifhead_newyearseve.png", "notifhead_night.png", "notifhead_noon.png",
+            "notifhead_sunrise.png", "notifhead_sunset_hdpi.png",
+            "notifhead_sunset_xhdpi.png", "notifhead_sunset.png"));
+
+    private SystemUIHeaders() {
+    }
+
+    public static String entryName(String filename) {
+        return OVERLAY_DRAWABLE_PATH + filename;
+    }
+}
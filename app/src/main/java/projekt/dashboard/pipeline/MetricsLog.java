@@ -0,0 +1,190 @@
+package projekt.dashboard.pipeline;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps the timings and counters of the last few pipeline runs in memory, so they can be looked
+ * at on the device or exported as JSON. Once full, every new run pushes out the oldest one.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class MetricsLog {
+
+    private static final int CAPACITY = 32;
+    private static MetricsLog mInstance;
+
+    private final Run[] mRuns;
+    private int mHead;
+    private int mSize;
+
+    public MetricsLog(int capacity) {
+        mRuns = new Run[capacity];
+    }
+
+    public static synchronized MetricsLog get() {
+        if (mInstance == null)
+            mInstance = new MetricsLog(CAPACITY);
+        return mInstance;
+    }
+
+    public synchronized void record(Pipeline pipeline) {
+        List<StageRecord> stages = new ArrayList<>();
+        for (Pipeline.Stage stage : pipeline.getStages()) {
+            stages.add(new StageRecord(stage.getName(),
+                    stage.getState().name().toLowerCase(Locale.US), stage.getDurationMillis(),
+                    stage.getMetrics()));
+        }
+        mRuns[mHead] = new Run(pipeline.getName(), pipeline.getStartTime(),
+                pipeline.getDurationMillis(), pipeline.isSuccessful(), stages);
+        mHead = (mHead + 1) % mRuns.length;
+        if (mSize < mRuns.length) mSize++;
+    }
+
+    /**
+     * @return the recorded runs, oldest first
+     */
+    public synchronized List<Run> getRuns() {
+        List<Run> runs = new ArrayList<>(mSize);
+        int start = (mHead - mSize + mRuns.length) % mRuns.length;
+        for (int i = 0; i < mSize; i++)
+            runs.add(mRuns[(start + i) % mRuns.length]);
+        return Collections.unmodifiableList(runs);
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < mRuns.length; i++) mRuns[i] = null;
+        mHead = 0;
+        mSize = 0;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder("{\"runs\":[");
+        List<Run> runs = getRuns();
+        for (int i = 0; i < runs.size(); i++) {
+            if (i > 0) sb.append(',');
+            runs.get(i).appendJson(sb);
+        }
+        return sb.append("]}").toString();
+    }
+
+    /**
+     * Human readable summary, newest run first.
+     */
+    @Override
+    public String toString() {
+        List<Run> runs = getRuns();
+        if (runs.isEmpty()) return "nothing has been patched yet";
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        for (int i = runs.size() - 1; i >= 0; i--) {
+            Run run = runs.get(i);
+            sb.append(format.format(new Date(run.startTime))).append("  ").append(run.name)
+                    .append(": ").append(run.durationMillis).append(" ms")
+                    .append(run.successful ? "" : " (failed)").append('\n');
+            for (StageRecord stage : run.stages) {
+                sb.append("  ").append(stage.name).append(": ")
+                        .append(stage.durationMillis).append(" ms");
+                if (!stage.state.equals("succeeded")) sb.append(", ").append(stage.state);
+                if (stage.bytesRead > 0) sb.append(", read ").append(kb(stage.bytesRead));
+                if (stage.bytesWritten > 0)
+                    sb.append(", wrote ").append(kb(stage.bytesWritten));
+                if (stage.forks > 0) sb.append(", ").append(stage.forks).append(" forks");
+                if (stage.rootCommands > 0)
+                    sb.append(", ").append(stage.rootCommands).append(" su cmds");
+                sb.append('\n');
+            }
+            sb.append('\n');
+        }
+        return sb.toString().trim();
+    }
+
+    private static String kb(long bytes) {
+        return (bytes + 512) / 1024 + " kb";
+    }
+
+    private static void appendString(StringBuilder sb, String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        sb.append('"');
+    }
+
+    public static class Run {
+
+        public final String name;
+        public final long startTime;
+        public final long durationMillis;
+        public final boolean successful;
+        public final List<StageRecord> stages;
+
+        Run(String name, long startTime, long durationMillis, boolean successful,
+            List<StageRecord> stages) {
+            this.name = name;
+            this.startTime = startTime;
+            this.durationMillis = durationMillis;
+            this.successful = successful;
+            this.stages = Collections.unmodifiableList(stages);
+        }
+
+        void appendJson(StringBuilder sb) {
+            sb.append("{\"name\":");
+            appendString(sb, name);
+            sb.append(",\"start_time\":").append(startTime)
+                    .append(",\"duration_ms\":").append(durationMillis)
+                    .append(",\"successful\":").append(successful)
+                    .append(",\"stages\":[");
+            for (int i = 0; i < stages.size(); i++) {
+                if (i > 0) sb.append(',');
+                stages.get(i).appendJson(sb);
+            }
+            sb.append("]}");
+        }
+    }
+
+    public static class StageRecord {
+
+        public final String name;
+        public final String state;
+        public final long durationMillis;
+        public final long bytesRead;
+        public final long bytesWritten;
+        public final int forks;
+        public final int rootCommands;
+
+        StageRecord(String name, String state, long durationMillis, StageMetrics metrics) {
+            this.name = name;
+            this.state = state;
+            this.durationMillis = durationMillis;
+            this.bytesRead = metrics.getBytesRead();
+            this.bytesWritten = metrics.getBytesWritten();
+            this.forks = metrics.getForks();
+            this.rootCommands = metrics.getRootCommands();
+        }
+
+        void appendJson(StringBuilder sb) {
+            sb.append("{\"name\":");
+            appendString(sb, name);
+            sb.append(",\"state\":");
+            appendString(sb, state);
+            sb.append(",\"duration_ms\":").append(durationMillis)
+                    .append(",\"bytes_read\":").append(bytesRead)
+                    .append(",\"bytes_written\":").append(bytesWritten)
+                    .append(",\"forks\":").append(forks)
+                    .append(",\"root_commands\":").append(rootCommands)
+                    .append('}');
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package projekt.dashboard.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a patch job as a graph of named stages (download, patch, install...).
+ * Each stage only starts once everything it depends on has succeeded, and stages that don't
+ * depend on each other run at the same time on a small shared thread pool.
+ * <p>
+ * Dependencies have to be declared before the stages that use them, so the graph can't have
+ * cycles. When a stage fails, everything downstream of it is skipped; {@link #cancel()} stops the
+ * stages that haven't started yet and interrupts the ones that are running. Final stages are never
+ * stopped, they still run once their dependencies are done so they can clean up. A stage that
+ * won't run is only marked skipped or cancelled once all of its dependencies are done too, so a
+ * final stage never starts while anything upstream of it is still running.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class Pipeline {
+
+    private static final int POOL_SIZE =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static ExecutorService mSharedExecutor;
+
+    private final String mName;
+    private final ExecutorService mExecutor;
+    private final LinkedHashMap<String, Stage> mStages = new LinkedHashMap<>();
+    private final Map<Stage, Future<?>> mRunning = new HashMap<>();
+    private int mUnfinished;
+    private boolean mStarted;
+    private boolean mCancelled;
+    private long mStartTime;
+    private long mStartedAt;
+    private long mDuration;
+
+    public Pipeline(String name) {
+        this(name, sharedExecutor());
+    }
+
+    public Pipeline(String name, ExecutorService executor) {
+        mName = name;
+        mExecutor = executor;
+    }
+
+    public static synchronized ExecutorService sharedExecutor() {
+        if (mSharedExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                    30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "Pipeline-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            mSharedExecutor = executor;
+        }
+        return mSharedExecutor;
+    }
+
+    /**
+     * Adds a stage that runs {@code task} once all of {@code dependencies} have succeeded.
+     */
+    public Pipeline stage(String name, Task task, String... dependencies) {
+        return add(name, task, false, dependencies);
+    }
+
+    /**
+     * Adds a stage that runs once all of {@code dependencies} are done, whether they succeeded,
+     * failed or were cancelled.
+     */
+    public Pipeline finalStage(String name, Task task, String... dependencies) {
+        return add(name, task, true, dependencies);
+    }
+
+    private synchronized Pipeline add(String name, Task task, boolean always,
+                                      String... dependencies) {
+        if (mStarted) throw new IllegalStateException("Pipeline " + mName + " already started");
+        if (mStages.containsKey(name))
+            throw new IllegalArgumentException("Duplicate stage " + name);
+        Stage stage = new Stage(name, task, always);
+        for (String dependency : dependencies) {
+            Stage upstream = mStages.get(dependency);
+            if (upstream == null)
+                throw new IllegalArgumentException(name + " depends on unknown stage " +
+                        dependency);
+            stage.mDependencies.add(upstream);
+            upstream.mDependents.add(stage);
+        }
+        mStages.put(name, stage);
+        return this;
+    }
+
+    /**
+     * Runs every stage and blocks until all of them have finished, failed, been skipped or been
+     * cancelled.
+     *
+     * @return true if every stage succeeded
+     */
+    public boolean run() throws InterruptedException {
+        try {
+            return runStages();
+        } finally {
+            MetricsLog.get().record(this);
+        }
+    }
+
+    private boolean runStages() throws InterruptedException {
+        synchronized (this) {
+            if (mStarted) throw new IllegalStateException("Pipeline " + mName + " already ran");
+            mStarted = true;
+            mStartTime = System.currentTimeMillis();
+            mStartedAt = System.nanoTime();
+            mUnfinished = mStages.size();
+            for (Stage stage : mStages.values()) {
+                if (stage.mState != State.PENDING || !stage.mDependencies.isEmpty()) continue;
+                if (mCancelled && !stage.mAlways) {
+                    finish(stage, State.CANCELLED, null);
+                } else {
+                    submit(stage);
+                }
+            }
+            try {
+                while (mUnfinished > 0) wait();
+            } catch (InterruptedException e) {
+                cancel();
+                throw e;
+            } finally {
+                mDuration = System.nanoTime() - mStartedAt;
+            }
+            return isSuccessful();
+        }
+    }
+
+    public synchronized void cancel() {
+        if (mCancelled) return;
+        mCancelled = true;
+        // Pending stages are left to finish() as what they wait for winds down
+        if (!mStarted) return;
+        for (Map.Entry<Stage, Future<?>> entry : new ArrayList<>(mRunning.entrySet())) {
+            Stage stage = entry.getKey();
+            if (stage.mAlways) continue;
+            if (stage.mRunStarted) {
+                entry.getValue().cancel(true);
+            } else {
+                // Still queued, it won't ever run and has to be finished here
+                entry.getValue().cancel(false);
+                mRunning.remove(stage);
+                finish(stage, State.CANCELLED, null);
+            }
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return mCancelled;
+    }
+
+    public synchronized boolean isSuccessful() {
+        for (Stage stage : mStages.values()) {
+            if (stage.mState != State.SUCCEEDED) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first error any stage failed with, or null
+     */
+    public synchronized Throwable getFailure() {
+        for (Stage stage : mStages.values()) {
+            if (stage.mError != null) return stage.mError;
+        }
+        return null;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public synchronized List<Stage> getStages() {
+        return Collections.unmodifiableList(new ArrayList<>(mStages.values()));
+    }
+
+    /**
+     * @return wall clock time the pipeline was started at
+     */
+    public synchronized long getStartTime() {
+        return mStartTime;
+    }
+
+    public synchronized long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mDuration);
+    }
+
+    private void submit(final Stage stage) {
+        stage.mState = State.RUNNING;
+        Future<?> future = mExecutor.submit(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (Pipeline.this) {
+                    // Cancelled while it was queued
+                    if (stage.mState != State.RUNNING) return;
+                    stage.mRunStarted = true;
+                }
+                stage.mStartedAt = System.nanoTime();
+                State state = State.SUCCEEDED;
+                Throwable error = null;
+                stage.mMetrics = StageMetrics.begin();
+                try {
+                    stage.mTask.run();
+                } catch (InterruptedException e) {
+                    state = State.CANCELLED;
+                } catch (Throwable t) {
+                    state = State.FAILED;
+                    error = t;
+                } finally {
+                    StageMetrics.end();
+                }
+                stage.mDuration = System.nanoTime() - stage.mStartedAt;
+                synchronized (Pipeline.this) {
+                    mRunning.remove(stage);
+                    if (mCancelled && state == State.FAILED && Thread.interrupted())
+                        state = State.CANCELLED;
+                    finish(stage, state, error);
+                }
+            }
+        });
+        // Unless the executor already ran it on this thread
+        if (stage.mState == State.RUNNING) mRunning.put(stage, future);
+    }
+
+    private void finish(Stage stage, State state, Throwable error) {
+        stage.mState = state;
+        stage.mError = error;
+        mUnfinished--;
+        for (Stage dependent : stage.mDependents) {
+            if (state != State.SUCCEEDED && dependent.mBlockedState == null)
+                dependent.mBlockedState = mCancelled ? State.CANCELLED : State.SKIPPED;
+            // Even a stage that won't run waits for the rest of its dependencies
+            if (++dependent.mFinishedDependencies < dependent.mDependencies.size()) continue;
+            if (dependent.mAlways) {
+                submit(dependent);
+            } else if (dependent.mBlockedState != null) {
+                finish(dependent, dependent.mBlockedState, null);
+            } else if (mCancelled) {
+                finish(dependent, State.CANCELLED, null);
+            } else {
+                submit(dependent);
+            }
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder(mName).append(" (")
+                .append(getDurationMillis()).append(" ms)");
+        for (Stage stage : mStages.values()) {
+            sb.append("\n  ").append(stage);
+        }
+        return sb.toString();
+    }
+
+    public enum State {
+        PENDING, RUNNING, SUCCEEDED, FAILED, SKIPPED, CANCELLED
+    }
+
+    public interface Task {
+        void run() throws Exception;
+    }
+
+    public static class Stage {
+
+        private final String mName;
+        private final Task mTask;
+        private final boolean mAlways;
+        private final List<Stage> mDependencies = new ArrayList<>();
+        private final List<Stage> mDependents = new ArrayList<>();
+        private int mFinishedDependencies;
+        // What it ends up as once its dependencies are done, if one of them didn't succeed
+        private State mBlockedState;
+        // Guarded by the pipeline, whether the task got off the executor's queue
+        private boolean mRunStarted;
+        private volatile State mState = State.PENDING;
+        private volatile Throwable mError;
+        private volatile long mStartedAt;
+        private volatile long mDuration;
+        private volatile StageMetrics mMetrics = new StageMetrics();
+
+        private Stage(String name, Task task, boolean always) {
+            mName = name;
+            mTask = task;
+            mAlways = always;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public State getState() {
+            return mState;
+        }
+
+        public Throwable getError() {
+            return mError;
+        }
+
+        public long getDurationMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(mDuration);
+        }
+
+        public StageMetrics getMetrics() {
+            return mMetrics;
+        }
+
+        @Override
+        public String toString() {
+            String s = mName + ": " + mState.name().toLowerCase(Locale.US) + " in " +
+                    getDurationMillis() + " ms";
+            return mError == null ? s : s + " (" + mError + ")";
+        }
+    }
+}
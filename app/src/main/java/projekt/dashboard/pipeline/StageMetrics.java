@@ -0,0 +1,76 @@
+package projekt.dashboard.pipeline;
+
+/**
+ * I/O and process counters of a single pipeline stage. While a stage runs, its counters are bound
+ * to the thread running it, so the code doing the work (RootShell, ApkRewriter, the downloader...)
+ * can report what it did through the static methods without knowing which stage it belongs to.
+ * Work done outside of a pipeline stage isn't counted anywhere.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class StageMetrics {
+
+    private static final ThreadLocal<StageMetrics> mCurrent = new ThreadLocal<>();
+
+    private long mBytesRead;
+    private long mBytesWritten;
+    private int mForks;
+    private int mRootCommands;
+
+    StageMetrics() {
+    }
+
+    static StageMetrics begin() {
+        StageMetrics metrics = new StageMetrics();
+        mCurrent.set(metrics);
+        return metrics;
+    }
+
+    static void end() {
+        mCurrent.remove();
+    }
+
+    public static void addBytesRead(long bytes) {
+        StageMetrics metrics = mCurrent.get();
+        if (metrics != null) metrics.mBytesRead += bytes;
+    }
+
+    public static void addBytesWritten(long bytes) {
+        StageMetrics metrics = mCurrent.get();
+        if (metrics != null) metrics.mBytesWritten += bytes;
+    }
+
+    public static void addFork() {
+        StageMetrics metrics = mCurrent.get();
+        if (metrics != null) metrics.mForks++;
+    }
+
+    public static void addRootCommands(int count) {
+        StageMetrics metrics = mCurrent.get();
+        if (metrics != null) metrics.mRootCommands += count;
+    }
+
+    /**
+     * Shorthand for a file copy, which reads and writes the same amount.
+     */
+    public static void addCopy(long bytes) {
+        addBytesRead(bytes);
+        addBytesWritten(bytes);
+    }
+
+    public long getBytesRead() {
+        return mBytesRead;
+    }
+
+    public long getBytesWritten() {
+        return mBytesWritten;
+    }
+
+    public int getForks() {
+        return mForks;
+    }
+
+    public int getRootCommands() {
+        return mRootCommands;
+    }
+}
@@ -50,6 +50,7 @@ import projekt.dashboard.fragments.base.BasePageFragment;
 import projekt.dashboard.ui.base.BaseDonateActivity;
 import projekt.dashboard.util.DrawableXmlParser;
 import projekt.dashboard.util.PagesBuilder;
+import projekt.dashboard.util.RootShell;
 import projekt.dashboard.util.WallpaperUtils;
 import projekt.dashboard.views.DisableableViewPager;
 
@@ -343,6 +344,7 @@ public class MainActivity extends BaseDonateActivity implements
             Config.deinit();
             Bridge.destroy();
             DrawableXmlParser.cleanup();
+            RootShell.destroy();
         }
     }
 
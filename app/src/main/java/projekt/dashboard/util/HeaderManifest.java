@@ -0,0 +1,100 @@
+package projekt.dashboard.util;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+import org.xmlpull.v1.XmlPullParserFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The headers.xml of a header pack, which describes the first &lt;header&gt; in it:
+ * <pre>
+ * &lt;headers&gt;
+ *     &lt;header id="version"&gt;
+ *         &lt;name&gt;...&lt;/name&gt;
+ *         &lt;author&gt;...&lt;/author&gt;
+ *         &lt;team&gt;...&lt;/team&gt;
+ *     &lt;/header&gt;
+ * &lt;/headers&gt;
+ * </pre>
+ * It's pull parsed straight from the stream, typically the pack's ZIP entry, and reading stops
+ * as soon as all of it is known.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class HeaderManifest {
+
+    private static XmlPullParserFactory mFactory;
+
+    private final String mName;
+    private final String mAuthor;
+    private final String mTeam;
+    private final String mVersion;
+
+    HeaderManifest(String name, String author, String team, String version) {
+        mName = name;
+        mAuthor = author;
+        mTeam = team;
+        mVersion = version;
+    }
+
+    private static synchronized XmlPullParser newParser() throws XmlPullParserException {
+        if (mFactory == null) mFactory = XmlPullParserFactory.newInstance();
+        return mFactory.newPullParser();
+    }
+
+    /**
+     * @throws IOException if the XML is malformed or its first header misses a field
+     */
+    public static HeaderManifest read(InputStream in) throws IOException {
+        try {
+            XmlPullParser parser = newParser();
+            // Let the parser pick the encoding up from the XML declaration
+            parser.setInput(in, null);
+            String version = null, name = null, author = null, team = null;
+            boolean inHeader = false;
+            int event;
+            while ((event = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (event == XmlPullParser.END_TAG && inHeader &&
+                        parser.getName().equals("header")) break;
+                if (event != XmlPullParser.START_TAG) continue;
+                String tag = parser.getName();
+                if (!inHeader) {
+                    if (!tag.equals("header")) continue;
+                    inHeader = true;
+                    String id = parser.getAttributeValue(null, "id");
+                    version = id != null ? id : "";
+                } else if (tag.equals("name")) {
+                    name = parser.nextText();
+                } else if (tag.equals("author")) {
+                    author = parser.nextText();
+                } else if (tag.equals("team")) {
+                    team = parser.nextText();
+                }
+                if (name != null && author != null && team != null)
+                    return new HeaderManifest(name, author, team, version);
+            }
+            throw new IOException(inHeader ? "Incomplete header in headers.xml" :
+                    "No header in headers.xml");
+        } catch (XmlPullParserException e) {
+            throw new IOException(e);
+        }
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    public String getAuthor() {
+        return mAuthor;
+    }
+
+    public String getTeam() {
+        return mTeam;
+    }
+
+    public String getVersion() {
+        return mVersion;
+    }
+}
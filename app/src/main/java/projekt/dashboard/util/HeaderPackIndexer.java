@@ -0,0 +1,287 @@
+package projekt.dashboard.util;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import projekt.dashboard.overlay.SystemUIHeaders;
+
+/**
+ * Finds the header packs in a directory without blocking the UI. Every ZIP's headers.xml and the
+ * headers it contains are kept in a small index file, keyed by path, size and last modified time,
+ * so a scan only has to open the ZIPs that were added or changed since the last one. Packs are
+ * handed to the listener one by one as they turn up, the ones known from the index first.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class HeaderPackIndexer {
+
+    private static final String TAG = "HeaderPackIndexer";
+    private static final String INDEX_NAME = "header-packs";
+    private static final String INDEX_VERSION = "1";
+    private static HeaderPackIndexer mInstance;
+
+    private final File mIndex;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Keyed by absolute path, only ever touched from mExecutor's thread
+    private final Map<String, Pack> mPacks = new HashMap<>();
+    private boolean mLoaded;
+
+    public HeaderPackIndexer(File index) {
+        mIndex = index;
+    }
+
+    public static synchronized HeaderPackIndexer get(Context context) {
+        if (mInstance == null)
+            mInstance = new HeaderPackIndexer(new File(context.getFilesDir(), INDEX_NAME));
+        return mInstance;
+    }
+
+    /**
+     * Reads the headers.xml and the header list of {@code zip}.
+     */
+    static Pack read(File zip) {
+        Pack pack = new Pack(zip, zip.length(), zip.lastModified());
+        try {
+            ZipFile zipFile = new ZipFile(zip);
+            try {
+                ZipEntry xml = zipFile.getEntry("headers.xml");
+                if (xml == null) return pack;
+                InputStream in = zipFile.getInputStream(xml);
+                try {
+                    pack.mManifest = HeaderManifest.read(in);
+                } finally {
+                    in.close();
+                }
+                for (String header : SystemUIHeaders.FILENAMES)
+                    if (zipFile.getEntry(header) != null) pack.mHeaders.add(header);
+            } finally {
+                zipFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to index " + zip.getName() + ": " + e.getMessage());
+        }
+        return pack;
+    }
+
+    /**
+     * Looks for header packs in {@code directory} in the background.
+     *
+     * @return the scan, which should be cancelled once nobody is listening anymore
+     */
+    public Scan scan(final File directory, final Listener listener) {
+        final Scan scan = new Scan();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                index(directory, scan, listener);
+            }
+        });
+        return scan;
+    }
+
+    private void index(File directory, Scan scan, Listener listener) {
+        load();
+        List<File> zips = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files)
+                if (file.isFile() && file.getName().endsWith(".zip")) zips.add(file);
+        }
+        Collections.sort(zips);
+
+        Set<String> paths = new HashSet<>();
+        for (File zip : zips)
+            paths.add(zip.getAbsolutePath());
+        boolean changed = mPacks.keySet().retainAll(paths);
+
+        List<File> changedZips = new ArrayList<>();
+        for (File zip : zips) {
+            Pack pack = mPacks.get(zip.getAbsolutePath());
+            if (pack == null || pack.mSize != zip.length() ||
+                    pack.mLastModified != zip.lastModified()) {
+                changedZips.add(zip);
+            } else if (pack.isValid()) {
+                publish(scan, listener, pack);
+            }
+        }
+        for (File zip : changedZips) {
+            if (scan.isCancelled()) break;
+            Pack pack = read(zip);
+            mPacks.put(zip.getAbsolutePath(), pack);
+            changed = true;
+            if (pack.isValid()) publish(scan, listener, pack);
+        }
+        if (changed) writeIndex();
+    }
+
+    private void publish(final Scan scan, final Listener listener, final Pack pack) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (!scan.isCancelled()) listener.onPackFound(pack);
+            }
+        });
+    }
+
+    private void load() {
+        if (mLoaded) return;
+        mLoaded = true;
+        if (!mIndex.exists()) return;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(mIndex));
+            try {
+                if (!INDEX_VERSION.equals(reader.readLine())) return;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Pack pack = Pack.fromLine(line);
+                    if (pack != null) mPacks.put(pack.mFile.getAbsolutePath(), pack);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | NumberFormatException e) {
+            Log.e(TAG, "Discarding unreadable index: " + e.getMessage());
+            mPacks.clear();
+        }
+    }
+
+    private void writeIndex() {
+        File temp = new File(mIndex.getParentFile(), INDEX_NAME + ".tmp");
+        try {
+            BufferedWriter writer = new BufferedWriter(new FileWriter(temp));
+            try {
+                writer.write(INDEX_VERSION);
+                writer.newLine();
+                for (Pack pack : mPacks.values()) {
+                    writer.write(pack.toLine());
+                    writer.newLine();
+                }
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(mIndex)) temp.delete();
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to write index: " + e.getMessage());
+        }
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread for every ZIP with a readable headers.xml.
+         */
+        void onPackFound(Pack pack);
+    }
+
+    public static class Scan {
+
+        private volatile boolean mCancelled;
+
+        /**
+         * Stops the scan and keeps anything it still finds from reaching the listener.
+         */
+        public void cancel() {
+            mCancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    /**
+     * What we know about one ZIP. A ZIP without a readable headers.xml is kept in the index too,
+     * so it isn't opened again until it changes, but it's never handed to a listener.
+     */
+    public static class Pack {
+
+        private final File mFile;
+        private final long mSize;
+        private final long mLastModified;
+        private final List<String> mHeaders = new ArrayList<>();
+        private HeaderManifest mManifest;
+
+        Pack(File file, long size, long lastModified) {
+            mFile = file;
+            mSize = size;
+            mLastModified = lastModified;
+        }
+
+        static Pack fromLine(String line) {
+            String[] fields = line.split("\t", -1);
+            if (fields.length != 9) return null;
+            Pack pack = new Pack(new File(fields[0]), Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]));
+            if (fields[3].equals("1"))
+                pack.mManifest = new HeaderManifest(fields[4], fields[5], fields[6], fields[7]);
+            if (!fields[8].isEmpty()) pack.mHeaders.addAll(Arrays.asList(fields[8].split(",")));
+            return pack;
+        }
+
+        private static String clean(String field) {
+            return field.replace('\t', ' ').replace('\n', ' ')
+                    .replace('\r', ' ');
+        }
+
+        String toLine() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(mFile.getAbsolutePath()).append('\t').append(mSize).append('\t')
+                    .append(mLastModified).append('\t').append(isValid() ? "1" : "0");
+            if (isValid()) {
+                sb.append('\t').append(clean(mManifest.getName()))
+                        .append('\t').append(clean(mManifest.getAuthor()))
+                        .append('\t').append(clean(mManifest.getTeam()))
+                        .append('\t').append(clean(mManifest.getVersion()));
+            } else {
+                sb.append("\t\t\t\t");
+            }
+            sb.append('\t');
+            for (int i = 0; i < mHeaders.size(); i++) {
+                if (i > 0) sb.append(',');
+                sb.append(mHeaders.get(i));
+            }
+            return sb.toString();
+        }
+
+        public boolean isValid() {
+            return mManifest != null;
+        }
+
+        public File getFile() {
+            return mFile;
+        }
+
+        public HeaderManifest getManifest() {
+            return mManifest;
+        }
+
+        /**
+         * @return the SystemUI headers the pack has a replacement for
+         */
+        public List<String> getHeaders() {
+            return Collections.unmodifiableList(mHeaders);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package projekt.dashboard.util;
+
+import android.support.v7.widget.RecyclerView;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The notifications that turn one list a RecyclerView shows into another, so only what changed
+ * is animated; the support library we're on doesn't have DiffUtil yet. Items are told apart by
+ * identity. As many items as their order allows stay where they are, the rest are removed and
+ * inserted again. Can be worked out on any thread, but has to be dispatched on the main one.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class ListDiff {
+
+    // (position, count) pairs, removals from the end so every position is still valid
+    private final int[] mRemoved;
+    private int mRemovedLength;
+    // ... and insertions from the start
+    private final int[] mInserted;
+    private int mInsertedLength;
+
+    private ListDiff(int before, int after) {
+        mRemoved = new int[before + 1];
+        mInserted = new int[after + 1];
+    }
+
+    public static ListDiff between(List<?> before, List<?> after) {
+        ListDiff diff = new ListDiff(before.size(), after.size());
+        Map<Object, Integer> positions = new IdentityHashMap<>(after.size());
+        for (int i = 0; i < after.size(); i++)
+            positions.put(after.get(i), i);
+        int[] moved = new int[before.size()];
+        for (int i = 0; i < before.size(); i++) {
+            Integer position = positions.get(before.get(i));
+            moved[i] = position != null ? position : -1;
+        }
+
+        boolean[] stays = staying(moved);
+        boolean[] kept = new boolean[after.size()];
+        for (int i = moved.length - 1; i >= 0; i--) {
+            if (stays[i]) {
+                kept[moved[i]] = true;
+                continue;
+            }
+            int end = i;
+            while (i > 0 && !stays[i - 1]) i--;
+            diff.mRemoved[diff.mRemovedLength++] = i;
+            diff.mRemoved[diff.mRemovedLength++] = end - i + 1;
+        }
+        for (int i = 0; i < kept.length; i++) {
+            if (kept[i]) continue;
+            int start = i;
+            while (i + 1 < kept.length && !kept[i + 1]) i++;
+            diff.mInserted[diff.mInsertedLength++] = start;
+            diff.mInserted[diff.mInsertedLength++] = i - start + 1;
+        }
+        return diff;
+    }
+
+    /**
+     * @return which of the items, given their new positions or -1, can stay where they are: the
+     * longest run of them, in order, whose new positions increase too
+     */
+    private static boolean[] staying(int[] moved) {
+        // tails[k] is the item ending the best run of length k + 1 found so far
+        int[] tails = new int[moved.length];
+        int[] previous = new int[moved.length];
+        int length = 0;
+        for (int i = 0; i < moved.length; i++) {
+            if (moved[i] < 0) continue;
+            int low = 0;
+            int high = length;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (moved[tails[mid]] < moved[i]) low = mid + 1;
+                else high = mid;
+            }
+            previous[i] = low > 0 ? tails[low - 1] : -1;
+            tails[low] = i;
+            if (low == length) length++;
+        }
+        boolean[] stays = new boolean[moved.length];
+        for (int i = length > 0 ? tails[length - 1] : -1; i >= 0; i = previous[i])
+            stays[i] = true;
+        return stays;
+    }
+
+    public boolean isEmpty() {
+        return mRemovedLength == 0 && mInsertedLength == 0;
+    }
+
+    public void dispatchTo(RecyclerView.Adapter adapter) {
+        for (int i = 0; i < mRemovedLength; i += 2)
+            adapter.notifyItemRangeRemoved(mRemoved[i], mRemoved[i + 1]);
+        for (int i = 0; i < mInsertedLength; i += 2)
+            adapter.notifyItemRangeInserted(mInserted[i], mInserted[i + 1]);
+    }
+}
@@ -0,0 +1,325 @@
+package projekt.dashboard.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+import projekt.dashboard.pipeline.StageMetrics;
+
+/**
+ * Downloads theme resource APKs into local storage.
+ * <p>
+ * Every completed download leaves a small ".meta" file next to it holding the ETag,
+ * Last-Modified and SHA-256 of what we got, so the next fetch of the same file is a conditional
+ * request that usually ends in a 304. Data is streamed into a ".part" file that is only renamed
+ * over the destination once it is complete and its digest checks out; an interrupted download is
+ * picked up again with a Range request, as long as the server still has the same file.
+ * <p>
+ * This only relies on HttpURLConnection, so it runs just as well against a local HTTP server on a
+ * desktop JVM.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class ResourceDownloader {
+
+    private static final String KEY_URL = "url";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "last_modified";
+    private static final String KEY_SHA256 = "sha256";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TIMEOUT = 15000;
+
+    private long mProgressInterval = 250;
+    private String mUserAgent = "ProjektDashboard";
+
+    /**
+     * @param millis minimum time between two progress callbacks, the final one is always sent
+     */
+    public ResourceDownloader setProgressInterval(long millis) {
+        mProgressInterval = millis;
+        return this;
+    }
+
+    public ResourceDownloader setUserAgent(String userAgent) {
+        mUserAgent = userAgent;
+        return this;
+    }
+
+    /**
+     * Same as {@link #download(String, File, String, ProgressListener)}, for files nobody
+     * publishes a digest for. What we got is still hashed, and checked again before revalidating.
+     */
+    public Result download(String url, File destination, ProgressListener listener)
+            throws IOException {
+        return download(url, destination, null, listener);
+    }
+
+    /**
+     * Makes sure {@code destination} holds the current version of {@code url}.
+     *
+     * @param expectedSha256 hex digest the download has to match, or null to accept any content
+     * @param listener       may be null
+     */
+    public Result download(String url, File destination, String expectedSha256,
+                           ProgressListener listener) throws IOException {
+        File directory = destination.getAbsoluteFile().getParentFile();
+        if (!directory.exists() && !directory.mkdirs())
+            throw new IOException("Unable to create " + directory.getAbsolutePath());
+
+        File meta = new File(directory, destination.getName() + ".meta");
+        File part = new File(directory, destination.getName() + ".part");
+        File partMeta = new File(directory, destination.getName() + ".part.meta");
+
+        Properties current = readMeta(meta);
+        if (!destination.exists() || !url.equals(current.getProperty(KEY_URL))
+                || !matches(expectedSha256, current.getProperty(KEY_SHA256))
+                || !current.getProperty(KEY_SHA256, "").equals(sha256(destination))) {
+            // Whatever we have on disk can't be revalidated, so fetch it unconditionally
+            current = new Properties();
+        }
+
+        Properties partial = readMeta(partMeta);
+        if (!part.exists() || !url.equals(partial.getProperty(KEY_URL))
+                || validator(partial) == null) {
+            part.delete();
+            partial = new Properties();
+        }
+
+        HttpURLConnection connection = open(url);
+        try {
+            String etag = current.getProperty(KEY_ETAG);
+            String lastModified = current.getProperty(KEY_LAST_MODIFIED);
+            if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+            if (lastModified != null)
+                connection.setRequestProperty("If-Modified-Since", lastModified);
+
+            long offset = part.length();
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+                connection.setRequestProperty("If-Range", validator(partial));
+            }
+
+            int code = connection.getResponseCode();
+            if (code == HttpURLConnection.HTTP_NOT_MODIFIED && !current.isEmpty()) {
+                return new Result(destination, false, current.getProperty(KEY_SHA256));
+            }
+            boolean misplaced = code == HttpURLConnection.HTTP_PARTIAL && offset > 0
+                    && rangeStart(connection.getHeaderField("Content-Range")) != offset;
+            if (code == 416 || misplaced) {
+                // Our partial file no longer lines up with the server's copy, or the server sent
+                // a different range than the one we asked for, start over
+                part.delete();
+                partMeta.delete();
+                connection.disconnect();
+                return download(url, destination, expectedSha256, listener);
+            }
+            if (code != HttpURLConnection.HTTP_OK && code != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Unexpected response " + code + " for " + url);
+            }
+
+            boolean resuming = code == HttpURLConnection.HTTP_PARTIAL && offset > 0;
+            if (!resuming) {
+                offset = 0;
+                part.delete();
+            }
+
+            Properties received = new Properties();
+            received.setProperty(KEY_URL, url);
+            putIfNotNull(received, KEY_ETAG, connection.getHeaderField("ETag"));
+            putIfNotNull(received, KEY_LAST_MODIFIED, connection.getHeaderField("Last-Modified"));
+            if (!resuming) writeMeta(partMeta, received);
+
+            long length = connection.getContentLength();
+            long total = length < 0 ? -1 : offset + length;
+
+            MessageDigest digest = newDigest();
+            if (resuming) update(digest, part);
+
+            InputStream input = connection.getInputStream();
+            FileOutputStream output = new FileOutputStream(part, resuming);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                long downloaded = offset;
+                long lastProgress = 0;
+                int count;
+                while ((count = input.read(buffer)) != -1) {
+                    output.write(buffer, 0, count);
+                    digest.update(buffer, 0, count);
+                    downloaded += count;
+                    StageMetrics.addBytesWritten(count);
+                    long now = System.currentTimeMillis();
+                    if (listener != null && now - lastProgress >= mProgressInterval) {
+                        lastProgress = now;
+                        listener.onProgress(downloaded, total);
+                    }
+                }
+                output.getFD().sync();
+                if (listener != null) listener.onProgress(downloaded, total);
+                if (total >= 0 && downloaded != total)
+                    throw new IOException("Expected " + total + " bytes, got " + downloaded);
+            } finally {
+                output.close();
+                input.close();
+            }
+
+            String sha256 = toHex(digest.digest());
+            if (!matches(expectedSha256, sha256)) {
+                part.delete();
+                partMeta.delete();
+                throw new IOException("Checksum mismatch for " + url + ": " + sha256);
+            }
+
+            if (!part.renameTo(destination)) {
+                destination.delete();
+                if (!part.renameTo(destination))
+                    throw new IOException("Unable to move " + part + " to " + destination);
+            }
+            received.setProperty(KEY_SHA256, sha256);
+            writeMeta(meta, received);
+            partMeta.delete();
+            return new Result(destination, true, sha256);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(TIMEOUT);
+        connection.setReadTimeout(TIMEOUT);
+        connection.setUseCaches(false);
+        connection.setRequestProperty("User-Agent", mUserAgent);
+        // Ranges are byte offsets into the file itself, not into a compressed transfer
+        connection.setRequestProperty("Accept-Encoding", "identity");
+        return connection;
+    }
+
+    private static String validator(Properties meta) {
+        // A strong ETag is the safest If-Range validator, Last-Modified is the fallback
+        String etag = meta.getProperty(KEY_ETAG);
+        if (etag != null && !etag.startsWith("W/")) return etag;
+        return meta.getProperty(KEY_LAST_MODIFIED);
+    }
+
+    /**
+     * @return where the range in a Content-Range header like "bytes 100-199/200" starts, -1 if
+     * there is none
+     */
+    private static long rangeStart(String contentRange) {
+        if (contentRange == null) return -1;
+        String range = contentRange.trim();
+        if (!range.startsWith("bytes ")) return -1;
+        int dash = range.indexOf('-');
+        if (dash == -1) return -1;
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static boolean matches(String expected, String actual) {
+        return expected == null || expected.equalsIgnoreCase(actual);
+    }
+
+    private static void putIfNotNull(Properties properties, String key, String value) {
+        if (value != null) properties.setProperty(key, value);
+    }
+
+    private static Properties readMeta(File file) {
+        Properties properties = new Properties();
+        if (!file.exists()) return properties;
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            properties.clear();
+        }
+        return properties;
+    }
+
+    private static void writeMeta(File file, Properties properties) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    private static String sha256(File file) throws IOException {
+        if (!file.exists()) return null;
+        MessageDigest digest = newDigest();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    private static void update(MessageDigest digest, File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        StageMetrics.addBytesRead(file.length());
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                digest.update(buffer, 0, read);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] digits = "0123456789abcdef".toCharArray();
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = digits[(bytes[i] >> 4) & 0xf];
+            hex[i * 2 + 1] = digits[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    public interface ProgressListener {
+        /**
+         * @param total full size in bytes, or -1 if the server didn't say
+         */
+        void onProgress(long downloaded, long total);
+    }
+
+    public static class Result {
+
+        public final File file;
+        public final boolean modified;
+        public final String sha256;
+
+        public Result(File file, boolean modified, String sha256) {
+            this.file = file;
+            this.modified = modified;
+            this.sha256 = sha256;
+        }
+    }
+}
@@ -0,0 +1,279 @@
+package projekt.dashboard.util;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import projekt.dashboard.pipeline.StageMetrics;
+
+/**
+ * Keeps a single interactive su session open for the whole app, so a patch run pays for su
+ * startup once instead of once per command. Commands are written to the shell in batches, each
+ * followed by a marker on stdout carrying its exit code and one on stderr, which lets us split
+ * both streams back up per command.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class RootShell {
+
+    public static final int EXIT_SHELL_DIED = -1;
+    public static final int EXIT_TIMED_OUT = -2;
+    // Long enough for the cp and sync of an install on a slow device
+    public static final long DEFAULT_TIMEOUT = 2 * 60 * 1000;
+
+    private static final String TAG = "RootShell";
+    // Queued by a reader once its stream has ended, told apart from an empty line by identity
+    private static final String END = new String();
+    private static RootShell mInstance;
+
+    private final String mMarker = "__dashboard_" + UUID.randomUUID().toString().replace("-", "");
+    private final ReentrantLock mLock = new ReentrantLock();
+    private volatile Process mProcess;
+    private Writer mStdin;
+    private BlockingQueue<String> mStdout;
+    private BlockingQueue<String> mStderr;
+
+    private RootShell() {
+    }
+
+    public static synchronized RootShell get() {
+        if (mInstance == null)
+            mInstance = new RootShell();
+        return mInstance;
+    }
+
+    public static synchronized void destroy() {
+        if (mInstance != null) {
+            mInstance.close();
+            mInstance = null;
+        }
+    }
+
+    public Result run(String command) {
+        return run(Collections.singletonList(command)).get(0);
+    }
+
+    public List<Result> run(String... commands) {
+        return run(Arrays.asList(commands));
+    }
+
+    public List<Result> run(List<String> commands) {
+        return run(commands, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Runs all of the commands in order within the shared session. A failing command does not stop
+     * the ones after it, the same way consecutive Shell.SU.run calls behaved. Waiting for another
+     * caller to be done with the session counts towards the timeout. Commands it runs out on get
+     * EXIT_TIMED_OUT, and if one of them was already running the session is killed, so whatever
+     * hung doesn't hold up the next caller too.
+     */
+    public List<Result> run(List<String> commands, long timeoutMillis) {
+        List<Result> results = new ArrayList<>(commands.size());
+        if (commands.isEmpty()) return results;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        try {
+            if (!mLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                Log.e(TAG, "Timed out waiting for the root shell");
+                fail(commands, results, EXIT_TIMED_OUT);
+                return results;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(commands, results, EXIT_TIMED_OUT);
+            return results;
+        }
+        try {
+            StageMetrics.addRootCommands(commands.size());
+            ensureOpen();
+
+            StringBuilder script = new StringBuilder();
+            for (int i = 0; i < commands.size(); i++) {
+                script.append(commands.get(i)).append('\n');
+                script.append("echo \"").append(mMarker).append(' ').append(i)
+                        .append(" $?\"\n");
+                // Whatever the command wrote to stderr comes before this
+                script.append("echo \"").append(mMarker).append(' ').append(i)
+                        .append("\" >&2\n");
+            }
+            mStdin.write(script.toString());
+            mStdin.flush();
+
+            for (String command : commands) {
+                results.add(readResult(command, deadline));
+            }
+        } catch (TimeoutException | InterruptedException e) {
+            Log.e(TAG, "Timed out running: " + e.getMessage());
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            reset();
+            fail(commands, results, EXIT_TIMED_OUT);
+        } catch (IOException e) {
+            Log.e(TAG, "Root shell died: " + e.getMessage());
+            reset();
+            fail(commands, results, EXIT_SHELL_DIED);
+        } finally {
+            mLock.unlock();
+        }
+        return results;
+    }
+
+    private static void fail(List<String> commands, List<Result> results, int exitCode) {
+        for (int i = results.size(); i < commands.size(); i++) {
+            results.add(new Result(commands.get(i), exitCode, Collections.<String>emptyList()));
+        }
+    }
+
+    private Result readResult(String command, long deadline)
+            throws IOException, TimeoutException, InterruptedException {
+        List<String> output = new ArrayList<>();
+        int exitCode;
+        while (true) {
+            String line = next(mStdout, command, deadline);
+            int markerIndex = line.indexOf(mMarker);
+            if (markerIndex == -1) {
+                output.add(line);
+                continue;
+            }
+            // Output without a trailing newline ends up on the same line as the marker
+            if (markerIndex > 0) output.add(line.substring(0, markerIndex));
+            String[] parts = line.substring(markerIndex).split(" ");
+            try {
+                exitCode = Integer.parseInt(parts[parts.length - 1]);
+            } catch (NumberFormatException e) {
+                exitCode = EXIT_SHELL_DIED;
+            }
+            break;
+        }
+        List<String> errors = new ArrayList<>();
+        while (true) {
+            String line = next(mStderr, command, deadline);
+            int markerIndex = line.indexOf(mMarker);
+            if (markerIndex == -1) {
+                errors.add(line);
+                continue;
+            }
+            if (markerIndex > 0) errors.add(line.substring(0, markerIndex));
+            break;
+        }
+        return new Result(command, exitCode, output, errors);
+    }
+
+    private static String next(BlockingQueue<String> lines, String command, long deadline)
+            throws IOException, TimeoutException, InterruptedException {
+        String line = lines.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (line == null) throw new TimeoutException(command);
+        if (line == END) throw new IOException("su exited while running: " + command);
+        return line;
+    }
+
+    private void ensureOpen() throws IOException {
+        if (mProcess != null) {
+            try {
+                mProcess.exitValue();
+                // The process has exited, so a fresh session is needed
+                reset();
+            } catch (IllegalThreadStateException e) {
+                return;
+            }
+        }
+        mProcess = Runtime.getRuntime().exec("su");
+        StageMetrics.addFork();
+        mStdin = new OutputStreamWriter(mProcess.getOutputStream(), "UTF-8");
+        // Fresh queues, so the readers of a session that was killed can't feed into this one
+        mStdout = new LinkedBlockingQueue<>();
+        mStderr = new LinkedBlockingQueue<>();
+        read(mProcess.getInputStream(), mStdout, "RootShell-stdout");
+        read(mProcess.getErrorStream(), mStderr, "RootShell-stderr");
+    }
+
+    /**
+     * Queues the lines of {@code stream} from a thread of its own, which is what lets the reading
+     * side give up on a command.
+     */
+    private static void read(InputStream stream, final BlockingQueue<String> lines, String name)
+            throws IOException {
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(stream, "UTF-8"));
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null)
+                        lines.add(line);
+                } catch (IOException ignored) {
+                } finally {
+                    lines.add(END);
+                }
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Called with mLock held
+    private void reset() {
+        if (mProcess == null) return;
+        try {
+            mStdin.write("exit\n");
+            mStdin.flush();
+        } catch (IOException ignored) {
+        }
+        mProcess.destroy();
+        mProcess = null;
+        mStdin = null;
+        mStdout = null;
+        mStderr = null;
+    }
+
+    /**
+     * Kills the session without waiting for whatever it's running, which then fails with
+     * EXIT_SHELL_DIED. Safe to call from the main thread; the next run opens a new session.
+     */
+    public void close() {
+        Process process = mProcess;
+        if (process != null) process.destroy();
+    }
+
+    public static class Result {
+
+        public final String command;
+        public final int exitCode;
+        public final List<String> output;
+        public final List<String> errors;
+
+        public Result(String command, int exitCode, List<String> output) {
+            this(command, exitCode, output, Collections.<String>emptyList());
+        }
+
+        public Result(String command, int exitCode, List<String> output, List<String> errors) {
+            this.command = command;
+            this.exitCode = exitCode;
+            this.output = output;
+            this.errors = errors;
+        }
+
+        public boolean isSuccessful() {
+            return exitCode == 0;
+        }
+
+        @Override
+        public String toString() {
+            return command + " -> " + exitCode;
+        }
+    }
+}
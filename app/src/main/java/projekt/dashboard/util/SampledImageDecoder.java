@@ -0,0 +1,136 @@
+package projekt.dashboard.util;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Decodes a user picked image without ever holding all of its pixels. Only the bounds are read
+ * up front; the picture shown for cropping is subsampled down to about the size of the screen,
+ * and the final crop is decoded straight from the source with a region decoder, at the
+ * resolution it's going to be used at.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class SampledImageDecoder {
+
+    private final ContentResolver mResolver;
+    private final Uri mUri;
+    private final int mWidth;
+    private final int mHeight;
+
+    public SampledImageDecoder(ContentResolver resolver, Uri uri) throws IOException {
+        mResolver = resolver;
+        mUri = uri;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        InputStream in = open();
+        try {
+            BitmapFactory.decodeStream(in, null, options);
+        } finally {
+            in.close();
+        }
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new IOException("Unable to decode " + uri);
+        mWidth = options.outWidth;
+        mHeight = options.outHeight;
+    }
+
+    /**
+     * @return the largest power of two that keeps {@code width} x {@code height} at least
+     * {@code minWidth} x {@code minHeight}
+     */
+    static int sampleSize(int width, int height, int minWidth, int minHeight) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= minWidth && height / (sampleSize * 2) >= minHeight)
+            sampleSize *= 2;
+        return sampleSize;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Decodes the whole image for display, at no less than {@code minWidth} x {@code minHeight}
+     * unless the image itself is smaller.
+     */
+    public Bitmap decodePreview(int minWidth, int minHeight) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(mWidth, mHeight, minWidth, minHeight);
+        // Only ever looked at, half the memory of ARGB_8888 is plenty
+        options.inPreferredConfig = Bitmap.Config.RGB_565;
+        InputStream in = open();
+        try {
+            Bitmap bitmap = BitmapFactory.decodeStream(in, null, options);
+            if (bitmap == null) throw new IOException("Unable to decode " + mUri);
+            return bitmap;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes part of the image at full quality.
+     *
+     * @param crop        the part to decode, in the coordinates of {@code preview}
+     * @param preview     the bitmap the crop was picked on, as returned by {@link
+     *                    #decodePreview(int, int)}
+     * @param outputWidth width of the result, the image is never scaled up to reach it
+     */
+    public Bitmap decodeCrop(RectF crop, Bitmap preview, int outputWidth) throws IOException {
+        float scale = (float) mWidth / preview.getWidth();
+        Rect region = new Rect(
+                Math.max(0, Math.round(crop.left * scale)),
+                Math.max(0, Math.round(crop.top * scale)),
+                Math.min(mWidth, Math.round(crop.right * scale)),
+                Math.min(mHeight, Math.round(crop.bottom * scale)));
+        if (region.isEmpty()) throw new IOException("Empty crop " + crop);
+
+        int outputHeight = Math.round((float) outputWidth * region.height() / region.width());
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize(region.width(), region.height(), outputWidth,
+                outputHeight);
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+
+        Bitmap bitmap;
+        InputStream in = open();
+        try {
+            BitmapRegionDecoder decoder = BitmapRegionDecoder.newInstance(in, false);
+            try {
+                bitmap = decoder.decodeRegion(region, options);
+            } finally {
+                decoder.recycle();
+            }
+        } finally {
+            in.close();
+        }
+        if (bitmap == null) throw new IOException("Unable to decode " + region + " of " + mUri);
+
+        // Power of two sampling lands somewhere between one and two times the output size
+        if (bitmap.getWidth() > outputWidth) {
+            Bitmap scaled = Bitmap.createScaledBitmap(bitmap, outputWidth,
+                    Math.max(1, outputHeight), true);
+            bitmap.recycle();
+            bitmap = scaled;
+        }
+        return bitmap;
+    }
+
+    private InputStream open() throws IOException {
+        InputStream in = mResolver.openInputStream(mUri);
+        if (in == null) throw new IOException("Unable to open " + mUri);
+        return in;
+    }
+}
@@ -0,0 +1,125 @@
+package projekt.dashboard.util;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.net.Uri;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Finds the base.apk of installed packages. The install directory's suffix (-1, -2, ...) changes
+ * with every update, so it's asked from the PackageManager instead of guessed, and remembered
+ * together with the package's last update time until a broadcast says the package was added,
+ * replaced or removed.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class ThemeApkResolver {
+
+    private static ThemeApkResolver mInstance;
+
+    private final PackageManager mPackageManager;
+    // Keyed by package name, packages that aren't installed are remembered too
+    private final Map<String, Entry> mEntries = new HashMap<>();
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+    private int mGeneration;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            Uri data = intent.getData();
+            if (data != null) invalidate(data.getSchemeSpecificPart());
+        }
+    };
+
+    public ThemeApkResolver(PackageManager packageManager) {
+        mPackageManager = packageManager;
+    }
+
+    public static synchronized ThemeApkResolver get(Context context) {
+        if (mInstance == null) {
+            Context application = context.getApplicationContext();
+            mInstance = new ThemeApkResolver(application.getPackageManager());
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addDataScheme("package");
+            application.registerReceiver(mInstance.mReceiver, filter);
+        }
+        return mInstance;
+    }
+
+    /**
+     * @return the APK {@code packageName} is installed from, null if it isn't installed
+     */
+    public File resolve(String packageName) {
+        int generation;
+        synchronized (this) {
+            Entry entry = mEntries.get(packageName);
+            if (entry != null) return entry.mApk;
+            generation = mGeneration;
+        }
+        Entry entry;
+        try {
+            PackageInfo info = mPackageManager.getPackageInfo(packageName, 0);
+            entry = new Entry(new File(info.applicationInfo.sourceDir), info.lastUpdateTime);
+        } catch (PackageManager.NameNotFoundException e) {
+            entry = new Entry(null, 0);
+        }
+        synchronized (this) {
+            // Not remembered if the package changed while we were asking, it may be outdated
+            Entry current = mEntries.get(packageName);
+            if (generation == mGeneration &&
+                    (current == null || current.mLastUpdateTime <= entry.mLastUpdateTime))
+                mEntries.put(packageName, entry);
+        }
+        return entry.mApk;
+    }
+
+    /**
+     * Forgets what's known about {@code packageName} and tells the listeners.
+     */
+    public void invalidate(String packageName) {
+        synchronized (this) {
+            mEntries.remove(packageName);
+            mGeneration++;
+        }
+        for (Listener listener : mListeners)
+            listener.onPackageChanged(packageName);
+    }
+
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread when a package was added, replaced or removed.
+         */
+        void onPackageChanged(String packageName);
+    }
+
+    private static class Entry {
+
+        final File mApk;
+        final long mLastUpdateTime;
+
+        Entry(File apk, long lastUpdateTime) {
+            mApk = apk;
+            mLastUpdateTime = lastUpdateTime;
+        }
+    }
+}
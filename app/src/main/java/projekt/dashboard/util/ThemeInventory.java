@@ -0,0 +1,187 @@
+package projekt.dashboard.util;
+
+import android.content.Context;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The themes that have overlays in /data/resource-cache, one directory per theme package. The
+ * directory is listed once in the background and every theme is resolved to its APK; after that
+ * it's watched, so a theme that's added, removed or updated is the only thing looked at again.
+ * Listeners get the whole list on the main thread, straight from memory if it's already known.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class ThemeInventory {
+
+    public static final String RESOURCE_CACHE = "/data/resource-cache";
+    private static final int EVENTS = FileObserver.CREATE | FileObserver.DELETE |
+            FileObserver.MOVED_FROM | FileObserver.MOVED_TO;
+    private static ThemeInventory mInstance;
+
+    private final File mDirectory;
+    private final ThemeApkResolver mResolver;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    // Keyed by package name, only ever touched from mExecutor's thread
+    private final Map<String, Theme> mThemes = new TreeMap<>();
+    // Only ever touched from the main thread
+    private final List<Listener> mListeners = new ArrayList<>();
+    private List<Theme> mSnapshot;
+    // Held on to, a collected observer stops watching
+    private final FileObserver mObserver;
+
+    public ThemeInventory(File directory, ThemeApkResolver resolver) {
+        mDirectory = directory;
+        mResolver = resolver;
+        mObserver = new FileObserver(directory.getAbsolutePath(), EVENTS) {
+            @Override
+            public void onEvent(int event, final String path) {
+                if (path == null) return;
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (update(path)) publish();
+                    }
+                });
+            }
+        };
+        mObserver.startWatching();
+        mResolver.addListener(new ThemeApkResolver.Listener() {
+            @Override
+            public void onPackageChanged(final String packageName) {
+                mExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mThemes.containsKey(packageName) && update(packageName)) publish();
+                    }
+                });
+            }
+        });
+        refresh();
+    }
+
+    public static synchronized ThemeInventory get(Context context) {
+        if (mInstance == null) {
+            mInstance = new ThemeInventory(new File(RESOURCE_CACHE),
+                    ThemeApkResolver.get(context));
+        }
+        return mInstance;
+    }
+
+    /**
+     * Lists the directory again, only themes that weren't known yet are resolved. Needed when the
+     * directory couldn't be watched, e.g. because it didn't exist yet.
+     */
+    public void refresh() {
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                String[] names = mDirectory.list();
+                List<String> found = new ArrayList<>();
+                if (names != null) Collections.addAll(found, names);
+                boolean changed = mThemes.keySet().retainAll(found);
+                for (String name : found)
+                    if (!mThemes.containsKey(name)) changed |= update(name);
+                if (changed || mSnapshot == null) publish();
+            }
+        });
+    }
+
+    /**
+     * Starts sending {@code listener} the list, right away if it's known already. Must be called
+     * on the main thread.
+     */
+    public void addListener(Listener listener) {
+        mListeners.add(listener);
+        if (mSnapshot != null) listener.onThemesChanged(mSnapshot);
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * @return whether the theme directory {@code name} changed anything
+     */
+    private boolean update(String name) {
+        if (!new File(mDirectory, name).isDirectory()) return mThemes.remove(name) != null;
+        // Overlays are left behind until the next reboot when a theme is uninstalled
+        Theme theme = new Theme(name, mResolver.resolve(name));
+        return !theme.equals(mThemes.put(name, theme));
+    }
+
+    private void publish() {
+        final List<Theme> snapshot = Collections.unmodifiableList(
+                new ArrayList<>(mThemes.values()));
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshot = snapshot;
+                for (Listener listener : new ArrayList<>(mListeners))
+                    listener.onThemesChanged(snapshot);
+            }
+        });
+    }
+
+    public interface Listener {
+        /**
+         * Called on the main thread with every theme that has overlays, sorted by package name.
+         */
+        void onThemesChanged(List<Theme> themes);
+    }
+
+    public static class Theme {
+
+        private final String mPackageName;
+        private final File mApk;
+
+        Theme(String packageName, File apk) {
+            mPackageName = packageName;
+            mApk = apk;
+        }
+
+        public String getPackageName() {
+            return mPackageName;
+        }
+
+        /**
+         * @return the theme's base.apk, null if it isn't installed anymore
+         */
+        public File getApk() {
+            return mApk;
+        }
+
+        public boolean isInstalled() {
+            return mApk != null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Theme)) return false;
+            Theme theme = (Theme) o;
+            return mPackageName.equals(theme.mPackageName) &&
+                    (mApk == null ? theme.mApk == null : mApk.equals(theme.mApk));
+        }
+
+        @Override
+        public int hashCode() {
+            return mPackageName.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return mPackageName;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package projekt.dashboard.util;
+
+import android.support.annotation.Nullable;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+import projekt.dashboard.util.WallpaperUtils.Wallpaper;
+
+/**
+ * Reads a wallpaper feed one wallpaper at a time, straight off the stream it's downloaded from:
+ * <pre>
+ * { "wallpapers": [ { "author": "...", "url": "...", "name": "...", "thumbnail": "..." }, ... ] }
+ * </pre>
+ * A bare array of wallpapers is fine too. Unknown fields are skipped and nothing after the
+ * wallpapers is looked at.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class WallpaperFeedReader implements Closeable {
+
+    private final JsonReader mReader;
+    private boolean mStarted;
+    private boolean mFinished;
+
+    public WallpaperFeedReader(InputStream in) throws IOException {
+        mReader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+    }
+
+    /**
+     * @return the next wallpaper of the feed, null once there are no more
+     */
+    @Nullable
+    public Wallpaper next() throws IOException {
+        if (mFinished) return null;
+        if (!mStarted) {
+            mStarted = true;
+            mFinished = !start();
+        }
+        if (mFinished || !mReader.hasNext()) {
+            mFinished = true;
+            return null;
+        }
+        return readWallpaper();
+    }
+
+    /**
+     * Moves into the array of wallpapers.
+     *
+     * @return false if the feed has none
+     */
+    private boolean start() throws IOException {
+        if (mReader.peek() == JsonToken.BEGIN_ARRAY) {
+            mReader.beginArray();
+            return true;
+        }
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            if (mReader.nextName().equals("wallpapers") &&
+                    mReader.peek() == JsonToken.BEGIN_ARRAY) {
+                mReader.beginArray();
+                return true;
+            }
+            mReader.skipValue();
+        }
+        return false;
+    }
+
+    private Wallpaper readWallpaper() throws IOException {
+        Wallpaper wallpaper = new Wallpaper();
+        mReader.beginObject();
+        while (mReader.hasNext()) {
+            String name = mReader.nextName();
+            JsonToken token = mReader.peek();
+            if (token != JsonToken.STRING && token != JsonToken.NUMBER) {
+                mReader.skipValue();
+                continue;
+            }
+            switch (name) {
+                case "author":
+                    wallpaper.author = mReader.nextString();
+                    break;
+                case "url":
+                    wallpaper.url = mReader.nextString();
+                    break;
+                case "name":
+                    wallpaper.name = mReader.nextString();
+                    break;
+                case "thumbnail":
+                    wallpaper.thumbnail = mReader.nextString();
+                    break;
+                default:
+                    mReader.skipValue();
+            }
+        }
+        mReader.endObject();
+        return wallpaper;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+}
@@ -0,0 +1,354 @@
+package projekt.dashboard.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Search over wallpaper names and authors, indexed once per list of wallpapers. Names and authors
+ * are split into lower case words; a query matches a wallpaper when each of its words starts a
+ * word of the wallpaper. Words are kept sorted, so the words a query word starts are a range, and
+ * every word has the wallpapers it's in.
+ * <p>
+ * A query that only adds to the previous one can only match less, so it just narrows down what
+ * that one matched. Searching doesn't allocate; an instance is not safe to use from more than one
+ * thread at a time. Kept free of Android classes so it can be benchmarked on a desktop JVM.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class WallpaperSearch<T extends WallpaperSearch.Item> {
+
+    // A query word matching a word of the name rather than the author
+    private static final int IN_NAME = 4;
+    // ... the whole word rather than its start
+    private static final int WHOLE_WORD = 2;
+    // ... the first word of the name
+    private static final int FIRST_WORD = 1;
+
+    private final T[] mItems;
+    // Sorted, a word's id is its index
+    private final String[] mWords;
+    // Keyed by word id, the items having that word, ascending
+    private final int[][] mPostings;
+    // mPostingCounts[i] is the number of postings of every word before word i
+    private final int[] mPostingCounts;
+    // Keyed by item, the ids of its words, the ones of its name first
+    private final int[][] mItemWords;
+    private final int[] mNameWords;
+
+    // Scratch space, kept around so searching doesn't allocate
+    private char[] mQuery = new char[32];
+    private int mQueryLength;
+    private int[] mQueryWords = new int[8];
+    private int mQueryWordCount;
+    // Keyed by query word, the range of words it starts and the one it equals, or -1
+    private int[] mFrom = new int[4];
+    private int[] mTo = new int[4];
+    private int[] mWhole = new int[4];
+    private final int[] mSeen;
+    private int mSeenMark;
+    private int[] mTopItems = new int[0];
+    private int[] mTopScores = new int[0];
+
+    // Everything the last query matched, so a longer one only has to look at those
+    private final int[] mCandidates;
+    private final int[] mScores;
+    private int mCandidateCount;
+    private char[] mLast = new char[32];
+    private int mLastLength = -1;
+
+    public WallpaperSearch(T[] items) {
+        mItems = items;
+        Map<String, List<Integer>> postings = new HashMap<>();
+        List<List<String>> itemWords = new ArrayList<>(items.length);
+        mNameWords = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            List<String> words = new ArrayList<>();
+            split(items[i].getName(), words);
+            mNameWords[i] = words.size();
+            split(items[i].getAuthor(), words);
+            itemWords.add(words);
+            for (String word : words) {
+                List<Integer> posting = postings.get(word);
+                if (posting == null) {
+                    posting = new ArrayList<>();
+                    postings.put(word, posting);
+                }
+                if (posting.isEmpty() || posting.get(posting.size() - 1) != i)
+                    posting.add(i);
+            }
+        }
+
+        mWords = postings.keySet().toArray(new String[postings.size()]);
+        Arrays.sort(mWords);
+        Map<String, Integer> ids = new HashMap<>();
+        mPostings = new int[mWords.length][];
+        mPostingCounts = new int[mWords.length + 1];
+        for (int id = 0; id < mWords.length; id++) {
+            ids.put(mWords[id], id);
+            List<Integer> posting = postings.get(mWords[id]);
+            mPostings[id] = new int[posting.size()];
+            for (int j = 0; j < mPostings[id].length; j++)
+                mPostings[id][j] = posting.get(j);
+            mPostingCounts[id + 1] = mPostingCounts[id] + mPostings[id].length;
+        }
+        mItemWords = new int[items.length][];
+        for (int i = 0; i < items.length; i++) {
+            List<String> words = itemWords.get(i);
+            mItemWords[i] = new int[words.size()];
+            for (int j = 0; j < mItemWords[i].length; j++)
+                mItemWords[i][j] = ids.get(words.get(j));
+        }
+        mSeen = new int[items.length];
+        mCandidates = new int[items.length];
+        mScores = new int[items.length];
+    }
+
+    /**
+     * Replaces the contents of {@code results} with the best {@code limit} items matching
+     * {@code query}, best first. Items that match equally well stay in their original order, and
+     * a query without any words matches every item.
+     */
+    public void search(String query, int limit, List<T> results) {
+        results.clear();
+        normalize(query);
+        if (mQueryWordCount == 0) {
+            for (int i = 0; i < mItems.length && i < limit; i++)
+                results.add(mItems[i]);
+            mLastLength = -1;
+            return;
+        }
+        boolean found = locate();
+        if (!found) {
+            mCandidateCount = 0;
+        } else if (narrows()) {
+            int kept = 0;
+            for (int i = 0; i < mCandidateCount; i++) {
+                int score = score(mCandidates[i]);
+                if (score < 0) continue;
+                mCandidates[kept] = mCandidates[i];
+                mScores[kept++] = score;
+            }
+            mCandidateCount = kept;
+        } else {
+            collect();
+        }
+        remember();
+        rank(limit, results);
+    }
+
+    /**
+     * Lower cases {@code query} into mQuery, its words separated by a single space, and notes where
+     * every word starts.
+     */
+    private void normalize(String query) {
+        mQueryLength = 0;
+        mQueryWordCount = 0;
+        boolean inWord = false;
+        int length = query != null ? query.length() : 0;
+        for (int i = 0; i < length; i++) {
+            char c = query.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                inWord = false;
+                continue;
+            }
+            if (!inWord) {
+                if (mQueryWordCount > 0) append(' ');
+                if (mQueryWordCount == mQueryWords.length)
+                    mQueryWords = Arrays.copyOf(mQueryWords, mQueryWordCount * 2);
+                mQueryWords[mQueryWordCount++] = mQueryLength;
+                inWord = true;
+            }
+            append(Character.toLowerCase(c));
+        }
+    }
+
+    private void append(char c) {
+        if (mQueryLength == mQuery.length) mQuery = Arrays.copyOf(mQuery, mQueryLength * 2);
+        mQuery[mQueryLength++] = c;
+    }
+
+    private int wordEnd(int word) {
+        return word + 1 < mQueryWordCount ? mQueryWords[word + 1] - 1 : mQueryLength;
+    }
+
+    /**
+     * Finds the range of words every query word starts.
+     *
+     * @return false if there's a query word that doesn't start any
+     */
+    private boolean locate() {
+        if (mFrom.length < mQueryWordCount) {
+            mFrom = new int[mQueryWordCount * 2];
+            mTo = new int[mQueryWordCount * 2];
+            mWhole = new int[mQueryWordCount * 2];
+        }
+        for (int w = 0; w < mQueryWordCount; w++) {
+            int start = mQueryWords[w];
+            int end = wordEnd(w);
+            mFrom[w] = bound(start, end, false);
+            mTo[w] = bound(start, end, true);
+            if (mFrom[w] == mTo[w]) return false;
+            mWhole[w] = mWords[mFrom[w]].length() == end - start ? mFrom[w] : -1;
+        }
+        return true;
+    }
+
+    /**
+     * @return the first word that mQuery[start, end) doesn't come after, or if {@code after},
+     * the first word it comes before and doesn't start
+     */
+    private int bound(int start, int end, boolean after) {
+        int low = 0;
+        int high = mWords.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compare(mWords[mid], start, end);
+            if (cmp < 0 || (after && cmp == 0)) low = mid + 1;
+            else high = mid;
+        }
+        return low;
+    }
+
+    /**
+     * @return 0 if {@code word} starts with mQuery[start, end), otherwise how it compares to it
+     */
+    private int compare(String word, int start, int end) {
+        int length = Math.min(word.length(), end - start);
+        for (int i = 0; i < length; i++) {
+            char c = word.charAt(i);
+            if (c != mQuery[start + i]) return c < mQuery[start + i] ? -1 : 1;
+        }
+        return word.length() >= end - start ? 0 : -1;
+    }
+
+    /**
+     * @return whether the query only adds to the last one, in which case it can only match what
+     * that one did. Its words are those of the last query, the last one maybe longer, and maybe
+     * a few more.
+     */
+    private boolean narrows() {
+        if (mLastLength < 0 || mLastLength > mQueryLength) return false;
+        for (int i = 0; i < mLastLength; i++)
+            if (mQuery[i] != mLast[i]) return false;
+        return true;
+    }
+
+    /**
+     * Matches the query against every item that has the rarest of its words.
+     */
+    private void collect() {
+        int rarest = 0;
+        for (int w = 1; w < mQueryWordCount; w++) {
+            if (postings(w) < postings(rarest)) rarest = w;
+        }
+        if (++mSeenMark == 0) {
+            Arrays.fill(mSeen, 0);
+            mSeenMark = 1;
+        }
+        mCandidateCount = 0;
+        for (int id = mFrom[rarest]; id < mTo[rarest]; id++) {
+            for (int item : mPostings[id]) {
+                if (mSeen[item] == mSeenMark) continue;
+                mSeen[item] = mSeenMark;
+                int score = score(item);
+                if (score < 0) continue;
+                mCandidates[mCandidateCount] = item;
+                mScores[mCandidateCount++] = score;
+            }
+        }
+    }
+
+    private int postings(int word) {
+        return mPostingCounts[mTo[word]] - mPostingCounts[mFrom[word]];
+    }
+
+    private void remember() {
+        if (mLast.length < mQueryLength) mLast = new char[mQuery.length];
+        System.arraycopy(mQuery, 0, mLast, 0, mQueryLength);
+        mLastLength = mQueryLength;
+    }
+
+    /**
+     * @return how well {@code item} matches the query, -1 if it doesn't
+     */
+    private int score(int item) {
+        int[] words = mItemWords[item];
+        int score = 0;
+        for (int w = 0; w < mQueryWordCount; w++) {
+            int best = -1;
+            for (int i = 0; i < words.length; i++) {
+                int id = words[i];
+                if (id < mFrom[w] || id >= mTo[w]) continue;
+                int match = 1;
+                if (i < mNameWords[item]) match += IN_NAME;
+                if (id == mWhole[w]) match += WHOLE_WORD;
+                if (i == 0 && mNameWords[item] > 0) match += FIRST_WORD;
+                if (match > best) best = match;
+            }
+            if (best < 0) return -1;
+            score += best;
+        }
+        return score;
+    }
+
+    /**
+     * Keeps the best {@code limit} candidates, sorted by insertion since the limit is small.
+     */
+    private void rank(int limit, List<T> results) {
+        limit = Math.min(limit, mCandidateCount);
+        if (mTopItems.length < limit) {
+            mTopItems = new int[limit];
+            mTopScores = new int[limit];
+        }
+        int count = 0;
+        for (int c = 0; c < mCandidateCount; c++) {
+            int item = mCandidates[c];
+            int score = mScores[c];
+            int i = count;
+            while (i > 0 && (mTopScores[i - 1] < score ||
+                    (mTopScores[i - 1] == score && mTopItems[i - 1] > item))) {
+                i--;
+            }
+            if (i >= limit) continue;
+            int moved = Math.min(count, limit - 1) - i;
+            System.arraycopy(mTopItems, i, mTopItems, i + 1, moved);
+            System.arraycopy(mTopScores, i, mTopScores, i + 1, moved);
+            mTopItems[i] = item;
+            mTopScores[i] = score;
+            if (count < limit) count++;
+        }
+        for (int i = 0; i < count; i++)
+            results.add(mItems[mTopItems[i]]);
+    }
+
+    private static void split(String text, List<String> words) {
+        if (text == null) return;
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean letter = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                words.add(lowerCase(text, start, i));
+                start = -1;
+            }
+        }
+    }
+
+    // Character by character, the same as queries are
+    private static String lowerCase(String text, int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = start; i < end; i++)
+            chars[i - start] = Character.toLowerCase(text.charAt(i));
+        return new String(chars);
+    }
+
+    public interface Item {
+        String getName();
+
+        String getAuthor();
+    }
+}
@@ -0,0 +1,396 @@
+package projekt.dashboard.util;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import projekt.dashboard.R;
+import projekt.dashboard.util.WallpaperUtils.Wallpaper;
+import projekt.dashboard.util.WallpaperUtils.WallpapersCallback;
+import projekt.dashboard.util.WallpaperUtils.WallpapersHolder;
+
+/**
+ * The wallpaper feeds we know of. Every source is cached in its own table and, once loaded, kept
+ * in memory too, so switching between sources doesn't have to go back to the network. The "all"
+ * source fetches every feed in parallel and merges them; a wallpaper that's in more than one
+ * feed is only listed once, under the first source that has it.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class WallpaperSources {
+
+    public static final String PREFERENCE = "selected_wallpaper_source";
+    public static final String DEFAULT = "default";
+    public static final String ALL = "all";
+    // In the order of R.array.wallpaper_sources, which lists ALL after them
+    public static final String[] SOURCES = {DEFAULT, "customworx", "gagan", "vignesh_headers",
+            "vignesh"};
+    private static final String TAG = "WallpaperSources";
+    // Keyed by source, the wallpapers as they were last loaded
+    private static final Map<String, Wallpaper[]> mLoaded = new HashMap<>();
+    private static final int CONNECT_TIMEOUT = 15000;
+    private static final int READ_TIMEOUT = 30000;
+    // About a screen of thumbnails, batches double from there
+    private static final int FIRST_BATCH = 12;
+    private static final int MAX_BATCH = 512;
+    // Bumped by every load, a load that isn't the latest one stops
+    private static final AtomicInteger mGeneration = new AtomicInteger();
+    private static final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    private WallpaperSources() {
+    }
+
+    public static String getSelected(Context context) {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        return prefs.getString(PREFERENCE, DEFAULT);
+    }
+
+    /**
+     * @return the position of {@code source} in R.array.wallpaper_sources
+     */
+    public static int indexOf(String source) {
+        for (int i = 0; i < SOURCES.length; i++)
+            if (SOURCES[i].equals(source)) return i;
+        return source.equals(ALL) ? SOURCES.length : 0;
+    }
+
+    public static String getUrl(Context context, String source) {
+        switch (source) {
+            case "customworx":
+                return context.getString(R.string.wallpapers_json_url_customworx);
+            case "gagan":
+                return context.getString(R.string.wallpapers_json_url_gagan);
+            case "vignesh":
+                return context.getString(R.string.wallpapers_json_url_vignesh);
+            case "vignesh_headers":
+                return context.getString(R.string.wallpapers_json_url_vignesh_headers);
+            default:
+                return context.getString(R.string.wallpapers_json_url);
+        }
+    }
+
+    public static String getTable(String source) {
+        return WallpaperUtils.TABLE_NAME + "_" + source;
+    }
+
+    /**
+     * @return the wallpapers of {@code source} as they were last loaded, null if they weren't
+     * yet. All sources are only known once every one of them is.
+     */
+    @Nullable
+    public static synchronized WallpapersHolder getLoaded(String source) {
+        if (!source.equals(ALL)) {
+            Wallpaper[] wallpapers = mLoaded.get(source);
+            return wallpapers != null ? new WallpapersHolder(wallpapers) : null;
+        }
+        List<Wallpaper[]> all = new ArrayList<>();
+        for (String each : SOURCES) {
+            Wallpaper[] wallpapers = mLoaded.get(each);
+            if (wallpapers == null) return null;
+            all.add(wallpapers);
+        }
+        return merge(all);
+    }
+
+    /**
+     * Remembers {@code wallpapers} as the current ones of {@code source} and tags them with it.
+     */
+    public static synchronized void setLoaded(String source, Wallpaper[] wallpapers) {
+        for (Wallpaper wallpaper : wallpapers)
+            wallpaper.source = source;
+        mLoaded.put(source, wallpapers);
+    }
+
+    /**
+     * Loads {@code source} in the background and reports back to {@code callback} on the main
+     * thread, with what's been read so far while the feed is still downloading. Starting a load
+     * cancels the one before it, a cancelled load doesn't report anything.
+     */
+    public static void load(Context context, final String source, final boolean allowCached,
+                            final WallpapersCallback callback) {
+        final Context application = context.getApplicationContext();
+        final int generation = mGeneration.incrementAndGet();
+        final Progress progress = new Progress() {
+            @Override
+            public void onProgress(final Wallpaper[] wallpapers) {
+                post(generation, new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onRetrievingWallpapers(new WallpapersHolder(wallpapers));
+                    }
+                });
+            }
+        };
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final WallpapersHolder holder = source.equals(ALL) ?
+                            loadAll(application, allowCached, progress, generation) :
+                            new WallpapersHolder(load(application, source, allowCached,
+                                    progress, generation));
+                    post(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onRetrievedWallpapers(holder, null, false);
+                        }
+                    });
+                } catch (CancelledException e) {
+                    Log.d(TAG, String.format("Cancelled loading %s wallpapers.", source));
+                } catch (final Exception e) {
+                    Log.d(TAG, String.format("Failed to load %s wallpapers... %s", source,
+                            e.getMessage()));
+                    post(generation, new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onRetrievedWallpapers(null, e, false);
+                        }
+                    });
+                }
+            }
+        }).start();
+    }
+
+    /**
+     * Loads {@code source}, blocking until all of it is there. Cancels any load in progress.
+     */
+    public static WallpapersHolder load(Context context, String source, boolean allowCached)
+            throws Exception {
+        int generation = mGeneration.incrementAndGet();
+        if (source.equals(ALL)) return loadAll(context, allowCached, null, generation);
+        return new WallpapersHolder(load(context, source, allowCached, null, generation));
+    }
+
+    /**
+     * Stops the load in progress, if there is one.
+     */
+    public static void cancel() {
+        mGeneration.incrementAndGet();
+    }
+
+    private static void post(final int generation, final Runnable runnable) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mGeneration.get() == generation) runnable.run();
+            }
+        });
+    }
+
+    /**
+     * Loads a single source, from its cache if {@code allowCached} and there is one, otherwise
+     * from the web. Safe to call for several sources at once.
+     */
+    private static Wallpaper[] load(Context context, String source, boolean allowCached,
+                                    @Nullable Progress progress, int generation)
+            throws IOException {
+        Wallpaper[] wallpapers = allowCached ? WallpaperSync.read(context, getTable(source)) : null;
+        if (wallpapers != null) {
+            Log.d(TAG, String.format("Loaded %d %s wallpapers from cache.", wallpapers.length,
+                    source));
+        } else {
+            wallpapers = fetch(context, source, progress, generation);
+            Log.d(TAG, String.format("Loaded %d %s wallpapers from web.", wallpapers.length,
+                    source));
+        }
+        setLoaded(source, wallpapers);
+        return wallpapers;
+    }
+
+    /**
+     * Reads the feed of {@code source} as it downloads. Every batch is written to the cache and
+     * then handed to {@code progress}, batches start small so the first screen fills quickly and
+     * double from there. Wallpapers that are gone from the feed are only deleted from the cache
+     * once all of it was read.
+     */
+    private static Wallpaper[] fetch(Context context, String source, @Nullable Progress progress,
+                                     int generation) throws IOException {
+        String url = getUrl(context, source);
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        List<Wallpaper> wallpapers = new ArrayList<>();
+        WallpaperSync.Writer writer = null;
+        try {
+            int code = connection.getResponseCode();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException(String.format("%s returned %d %s", url, code,
+                        connection.getResponseMessage()));
+            }
+            try {
+                writer = WallpaperSync.open(context, getTable(source));
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+            WallpaperFeedReader reader = new WallpaperFeedReader(connection.getInputStream());
+            try {
+                int written = 0;
+                int batch = FIRST_BATCH;
+                Wallpaper wallpaper;
+                while ((wallpaper = reader.next()) != null) {
+                    if (mGeneration.get() != generation) throw new CancelledException();
+                    wallpaper.source = source;
+                    wallpapers.add(wallpaper);
+                    if (wallpapers.size() - written < batch) continue;
+                    writer = write(writer, wallpapers.subList(written, wallpapers.size()));
+                    written = wallpapers.size();
+                    batch = Math.min(batch * 2, MAX_BATCH);
+                    if (progress != null)
+                        progress.onProgress(wallpapers.toArray(new Wallpaper[written]));
+                }
+                if (written < wallpapers.size())
+                    writer = write(writer, wallpapers.subList(written, wallpapers.size()));
+            } finally {
+                reader.close();
+            }
+            // An empty feed is more likely broken than empty, the cache is left alone then
+            if (writer != null && !wallpapers.isEmpty()) {
+                try {
+                    writer.finish();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        } finally {
+            if (writer != null) writer.close();
+            connection.disconnect();
+        }
+        return wallpapers.toArray(new Wallpaper[wallpapers.size()]);
+    }
+
+    /**
+     * @return {@code writer}, null once it failed; the feed is still shown, just not cached
+     */
+    @Nullable
+    private static WallpaperSync.Writer write(@Nullable WallpaperSync.Writer writer,
+                                              List<Wallpaper> batch) {
+        if (writer == null) return null;
+        try {
+            writer.write(batch.toArray(new Wallpaper[batch.size()]));
+            return writer;
+        } catch (Throwable t) {
+            t.printStackTrace();
+            writer.close();
+            return null;
+        }
+    }
+
+    /**
+     * Loads every source in parallel and merges them. Sources that fail are left out, unless all
+     * of them do. Only the first source reports progress, whatever it has is at the top of the
+     * merged list anyway.
+     */
+    private static WallpapersHolder loadAll(Context context, final boolean allowCached,
+                                            @Nullable final Progress progress,
+                                            final int generation) throws Exception {
+        final Context application = context.getApplicationContext();
+        ExecutorService executor = Executors.newFixedThreadPool(SOURCES.length);
+        try {
+            List<Future<Wallpaper[]>> results = new ArrayList<>();
+            for (final String source : SOURCES) {
+                results.add(executor.submit(new Callable<Wallpaper[]>() {
+                    @Override
+                    public Wallpaper[] call() throws Exception {
+                        return load(application, source, allowCached,
+                                source.equals(SOURCES[0]) ? progress : null, generation);
+                    }
+                }));
+            }
+            List<Wallpaper[]> loaded = new ArrayList<>();
+            Exception error = null;
+            for (int i = 0; i < SOURCES.length; i++) {
+                try {
+                    loaded.add(results.get(i).get());
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof CancelledException)
+                        throw (CancelledException) e.getCause();
+                    Log.d(TAG, String.format("Failed to load %s wallpapers... %s", SOURCES[i],
+                            e.getCause().getMessage()));
+                    if (error == null) {
+                        error = e.getCause() instanceof Exception ?
+                                (Exception) e.getCause() : new Exception(e.getCause());
+                    }
+                }
+            }
+            if (loaded.isEmpty()) throw error;
+            return merge(loaded);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    static WallpapersHolder merge(List<Wallpaper[]> sources) {
+        Set<String> seen = new HashSet<>();
+        List<Wallpaper> merged = new ArrayList<>();
+        for (Wallpaper[] wallpapers : sources) {
+            for (Wallpaper wallpaper : wallpapers) {
+                if (wallpaper.url == null || seen.add(key(wallpaper.url)))
+                    merged.add(wallpaper);
+            }
+        }
+        return new WallpapersHolder(merged.toArray(new Wallpaper[merged.size()]));
+    }
+
+    /**
+     * Feeds link the same file over http and https, or with stray whitespace.
+     */
+    private static String key(String url) {
+        url = url.trim();
+        int scheme = url.indexOf("://");
+        return scheme >= 0 ? url.substring(scheme + 3) : url;
+    }
+
+    /**
+     * Stores the palette colors worked out for {@code holder} in the cache of every source it has
+     * wallpapers from. A source that's still loading is left alone, its feed is synced once it's
+     * all there.
+     */
+    public static void save(Context context, WallpapersHolder holder) {
+        Map<String, List<Wallpaper>> bySource = new LinkedHashMap<>();
+        for (Wallpaper wallpaper : holder.wallpapers) {
+            if (wallpaper.source == null) continue;
+            List<Wallpaper> wallpapers = bySource.get(wallpaper.source);
+            if (wallpapers == null) {
+                wallpapers = new ArrayList<>();
+                bySource.put(wallpaper.source, wallpapers);
+            }
+            wallpapers.add(wallpaper);
+        }
+        for (Map.Entry<String, List<Wallpaper>> entry : bySource.entrySet()) {
+            synchronized (WallpaperSources.class) {
+                if (!mLoaded.containsKey(entry.getKey())) continue;
+            }
+            List<Wallpaper> wallpapers = entry.getValue();
+            WallpaperSync.savePalettes(context, getTable(entry.getKey()),
+                    wallpapers.toArray(new Wallpaper[wallpapers.size()]));
+        }
+    }
+
+    private interface Progress {
+        void onProgress(Wallpaper[] wallpapers);
+    }
+
+    private static class CancelledException extends IOException {
+    }
+}
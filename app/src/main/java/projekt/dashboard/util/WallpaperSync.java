@@ -0,0 +1,395 @@
+package projekt.dashboard.util;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.support.annotation.Nullable;
+import android.text.TextUtils;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import projekt.dashboard.util.WallpaperUtils.Wallpaper;
+
+/**
+ * Brings the cached wallpaper table of a source in line with its freshly loaded feed instead of
+ * emptying and refilling it. Rows are matched to wallpapers by URL, so the palette colors of a
+ * wallpaper survive refreshes, and only rows that differ are written. Every row keeps its place in
+ * the feed in a column of its own, so a wallpaper added to or moved within the feed only costs
+ * updating that column of the rows after it. Palette colors worked out while browsing are saved
+ * on their own, by URL.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public final class WallpaperSync {
+
+    private static final String TAG = "WallpaperSync";
+    private static final String CREATE = "CREATE TABLE IF NOT EXISTS %s (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT NOT NULL, author TEXT, url TEXT, name TEXT, " +
+            "thumbnail TEXT, paletteNameColor INTEGER, paletteAuthorColor INTEGER, " +
+            "paletteBgColor INTEGER, position INTEGER)";
+    // Tables cached before there was a position column were kept in row order
+    private static final String ADD_POSITION = "ALTER TABLE %s ADD COLUMN position INTEGER";
+    private static final String FILL_POSITION = "UPDATE %s SET position = _id";
+    // Held whichever source was picked last, every source has its own table now
+    private static final String DROP_LEGACY = "DROP TABLE IF EXISTS " +
+            WallpaperUtils.TABLE_NAME;
+    private static final String EXISTS = "SELECT 1 FROM sqlite_master " +
+            "WHERE type = 'table' AND name = ?";
+    private static final String SELECT = "SELECT _id, url, name, author, thumbnail, " +
+            "paletteNameColor, paletteAuthorColor, paletteBgColor, position FROM %s " +
+            "ORDER BY position, _id";
+    private static final String INSERT = "INSERT INTO %s (url, name, author, thumbnail, " +
+            "paletteNameColor, paletteAuthorColor, paletteBgColor, position) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE = "UPDATE %s SET url = ?, name = ?, author = ?, " +
+            "thumbnail = ?, paletteNameColor = ?, paletteAuthorColor = ?, paletteBgColor = ?, " +
+            "position = ? WHERE _id = ?";
+    private static final String MOVE = "UPDATE %s SET position = ? WHERE _id = ?";
+    private static final String DELETE = "DELETE FROM %s WHERE _id = ?";
+    // Only colors that differ are written, IS also matches a missing thumbnail
+    private static final String SAVE_PALETTE = "UPDATE %s SET paletteNameColor = ?, " +
+            "paletteAuthorColor = ?, paletteBgColor = ? WHERE url = ? AND thumbnail IS ? AND " +
+            "(paletteNameColor IS NOT ?1 OR paletteAuthorColor IS NOT ?2 OR " +
+            "paletteBgColor IS NOT ?3)";
+    private static final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    private WallpaperSync() {
+    }
+
+    /**
+     * Stores the palette colors worked out for {@code wallpapers} in the background. Only rows
+     * with the same URL and thumbnail are updated, nothing is ever added or deleted, so this is
+     * safe to call with part of a feed or while it's still being synced.
+     */
+    public static void savePalettes(Context context, final String table,
+                                    final Wallpaper[] wallpapers) {
+        final Context application = context.getApplicationContext();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writePalettes(application, table, wallpapers);
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+            }
+        });
+    }
+
+    private static synchronized void writePalettes(Context context, String table,
+                                                   Wallpaper[] wallpapers) {
+        if (!context.getDatabasePath(WallpaperUtils.DATABASE_NAME).exists()) return;
+        SQLiteDatabase db = context.openOrCreateDatabase(WallpaperUtils.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            Cursor cursor = db.rawQuery(EXISTS, new String[]{table});
+            try {
+                if (!cursor.moveToFirst()) return;
+            } finally {
+                cursor.close();
+            }
+            SQLiteStatement statement = db.compileStatement(String.format(SAVE_PALETTE, table));
+            int updated = 0;
+            db.beginTransaction();
+            try {
+                for (Wallpaper wallpaper : wallpapers) {
+                    if (!wallpaper.isPaletteComplete() || wallpaper.url == null) continue;
+                    statement.bindLong(1, wallpaper.getPaletteNameColor());
+                    statement.bindLong(2, wallpaper.getPaletteAuthorColor());
+                    statement.bindLong(3, wallpaper.getPaletteBgColor());
+                    statement.bindString(4, wallpaper.url);
+                    bind(statement, 5, wallpaper.thumbnail);
+                    updated += statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+                statement.close();
+            }
+            Log.d(TAG, String.format("Saved palettes of %d wallpapers to %s.", updated, table));
+        } finally {
+            db.close();
+        }
+    }
+
+    /**
+     * Starts syncing {@code table} with a feed that's still coming in, see {@link Writer}.
+     */
+    public static synchronized Writer open(Context context, String table) {
+        SQLiteDatabase db = context.openOrCreateDatabase(WallpaperUtils.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            db.beginTransaction();
+            try {
+                if (db.getVersion() == 0) db.setVersion(WallpaperUtils.DATABASE_VERSION);
+                db.execSQL(DROP_LEGACY);
+                db.execSQL(String.format(CREATE, table));
+                addPosition(db, table);
+                Writer writer = new Writer(db, table, read(db, table));
+                db.setTransactionSuccessful();
+                return writer;
+            } finally {
+                db.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            db.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the cached wallpapers of {@code table}, safe to call from any thread.
+     *
+     * @return the cached wallpapers in order, null if there are none
+     */
+    @Nullable
+    public static synchronized Wallpaper[] read(Context context, String table) {
+        if (!context.getDatabasePath(WallpaperUtils.DATABASE_NAME).exists()) return null;
+        SQLiteDatabase db = context.openOrCreateDatabase(WallpaperUtils.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        try {
+            Cursor cursor = db.rawQuery(EXISTS, new String[]{table});
+            try {
+                if (!cursor.moveToFirst()) return null;
+            } finally {
+                cursor.close();
+            }
+            addPosition(db, table);
+            List<Row> rows = read(db, table);
+            if (rows.isEmpty()) return null;
+            Wallpaper[] wallpapers = new Wallpaper[rows.size()];
+            for (int i = 0; i < wallpapers.length; i++)
+                wallpapers[i] = rows.get(i).toWallpaper();
+            return wallpapers;
+        } finally {
+            db.close();
+        }
+    }
+
+    // Does nothing once the table has a position column
+    private static void addPosition(SQLiteDatabase db, String table) {
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        try {
+            int name = cursor.getColumnIndexOrThrow("name");
+            while (cursor.moveToNext()) {
+                if ("position".equals(cursor.getString(name))) return;
+            }
+        } finally {
+            cursor.close();
+        }
+        db.execSQL(String.format(ADD_POSITION, table));
+        db.execSQL(String.format(FILL_POSITION, table));
+    }
+
+    private static List<Row> read(SQLiteDatabase db, String table) {
+        List<Row> rows = new ArrayList<>();
+        Cursor cursor = db.rawQuery(String.format(SELECT, table), null);
+        try {
+            while (cursor.moveToNext())
+                rows.add(new Row(cursor));
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+
+    private static void bind(SQLiteStatement statement, Wallpaper wallpaper, int position) {
+        bind(statement, 1, wallpaper.url);
+        bind(statement, 2, wallpaper.name);
+        bind(statement, 3, wallpaper.author);
+        bind(statement, 4, wallpaper.thumbnail);
+        statement.bindLong(5, wallpaper.getPaletteNameColor());
+        statement.bindLong(6, wallpaper.getPaletteAuthorColor());
+        statement.bindLong(7, wallpaper.getPaletteBgColor());
+        statement.bindLong(8, position);
+    }
+
+    private static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) statement.bindNull(index);
+        else statement.bindString(index, value);
+    }
+
+    /**
+     * Syncs a table with a feed batch by batch, while it's being read. Every batch is written in a
+     * transaction of its own as it comes in. Rows that are gone from the feed are only deleted by
+     * {@link #finish()}, so a feed that breaks off halfway doesn't cost any of the cache.
+     */
+    public static class Writer {
+
+        private final SQLiteDatabase mDb;
+        private final String mTable;
+        private final Map<String, ArrayDeque<Row>> mByUrl = new HashMap<>();
+        private final SQLiteStatement mInsert;
+        private final SQLiteStatement mUpdate;
+        private final SQLiteStatement mMove;
+        private final SQLiteStatement mDelete;
+        // Also the position of the next wallpaper
+        private int mCount;
+        private int mInserted, mUpdated, mMoved, mDeleted;
+
+        Writer(SQLiteDatabase db, String table, List<Row> rows) {
+            mDb = db;
+            mTable = table;
+            for (Row row : rows) {
+                ArrayDeque<Row> sameUrl = mByUrl.get(row.mUrl);
+                if (sameUrl == null) {
+                    sameUrl = new ArrayDeque<>(1);
+                    mByUrl.put(row.mUrl, sameUrl);
+                }
+                sameUrl.add(row);
+            }
+            mInsert = db.compileStatement(String.format(INSERT, table));
+            mUpdate = db.compileStatement(String.format(UPDATE, table));
+            mMove = db.compileStatement(String.format(MOVE, table));
+            mDelete = db.compileStatement(String.format(DELETE, table));
+        }
+
+        /**
+         * Adds the next wallpapers of the feed. Those missing palette colors get the ones cached
+         * for their URL, as long as their thumbnail didn't change.
+         */
+        public void write(Wallpaper[] batch) {
+            write(batch, false);
+        }
+
+        /**
+         * Deletes what's gone from the feed.
+         */
+        public void finish() {
+            write(null, true);
+        }
+
+        public void close() {
+            mInsert.close();
+            mUpdate.close();
+            mMove.close();
+            mDelete.close();
+            mDb.close();
+        }
+
+        private void write(@Nullable Wallpaper[] batch, boolean finish) {
+            synchronized (WallpaperSync.class) {
+                mDb.beginTransaction();
+                try {
+                    if (batch != null) add(batch);
+                    if (finish) deleteUnmatched();
+                    mDb.setTransactionSuccessful();
+                } finally {
+                    mDb.endTransaction();
+                }
+            }
+        }
+
+        private void add(Wallpaper[] batch) {
+            for (Wallpaper wallpaper : batch) {
+                int position = mCount++;
+                ArrayDeque<Row> sameUrl = mByUrl.get(wallpaper.url);
+                Row row = sameUrl != null ? sameUrl.poll() : null;
+                if (row == null) {
+                    insert(wallpaper, position);
+                    continue;
+                }
+                if (!wallpaper.isPaletteComplete() &&
+                        TextUtils.equals(row.mThumbnail, wallpaper.thumbnail)) {
+                    wallpaper.setPaletteNameColor(row.mNameColor);
+                    wallpaper.setPaletteAuthorColor(row.mAuthorColor);
+                    wallpaper.setPaletteBgColor(row.mBgColor);
+                }
+                update(row, wallpaper, position);
+            }
+        }
+
+        private void deleteUnmatched() {
+            for (ArrayDeque<Row> unmatched : mByUrl.values()) {
+                for (Row row : unmatched)
+                    delete(row);
+            }
+            Log.d(TAG, String.format("Synced %d wallpapers to %s: %d inserted, %d updated, " +
+                    "%d moved, %d deleted.", mCount, mTable, mInserted, mUpdated, mMoved,
+                    mDeleted));
+        }
+
+        private void insert(Wallpaper wallpaper, int position) {
+            bind(mInsert, wallpaper, position);
+            wallpaper._id = mInsert.executeInsert();
+            mInserted++;
+        }
+
+        private void update(Row row, Wallpaper wallpaper, int position) {
+            wallpaper._id = row.mId;
+            if (!row.matches(wallpaper)) {
+                bind(mUpdate, wallpaper, position);
+                mUpdate.bindLong(9, row.mId);
+                mUpdate.executeUpdateDelete();
+                mUpdated++;
+            } else if (row.mPosition != position) {
+                mMove.bindLong(1, position);
+                mMove.bindLong(2, row.mId);
+                mMove.executeUpdateDelete();
+                mMoved++;
+            }
+        }
+
+        private void delete(Row row) {
+            mDelete.bindLong(1, row.mId);
+            mDelete.executeUpdateDelete();
+            mDeleted++;
+        }
+    }
+
+    private static class Row {
+
+        final long mId;
+        final String mUrl;
+        final String mName;
+        final String mAuthor;
+        final String mThumbnail;
+        final int mNameColor;
+        final int mAuthorColor;
+        final int mBgColor;
+        final long mPosition;
+
+        Row(Cursor cursor) {
+            mId = cursor.getLong(0);
+            mUrl = cursor.getString(1);
+            mName = cursor.getString(2);
+            mAuthor = cursor.getString(3);
+            mThumbnail = cursor.getString(4);
+            mNameColor = cursor.getInt(5);
+            mAuthorColor = cursor.getInt(6);
+            mBgColor = cursor.getInt(7);
+            mPosition = cursor.getLong(8);
+        }
+
+        Wallpaper toWallpaper() {
+            Wallpaper wallpaper = new Wallpaper();
+            wallpaper._id = mId;
+            wallpaper.url = mUrl;
+            wallpaper.name = mName;
+            wallpaper.author = mAuthor;
+            wallpaper.thumbnail = mThumbnail;
+            wallpaper.setPaletteNameColor(mNameColor);
+            wallpaper.setPaletteAuthorColor(mAuthorColor);
+            wallpaper.setPaletteBgColor(mBgColor);
+            return wallpaper;
+        }
+
+        boolean matches(Wallpaper wallpaper) {
+            return TextUtils.equals(mUrl, wallpaper.url) &&
+                    TextUtils.equals(mName, wallpaper.name) &&
+                    TextUtils.equals(mAuthor, wallpaper.author) &&
+                    TextUtils.equals(mThumbnail, wallpaper.thumbnail) &&
+                    mNameColor == wallpaper.getPaletteNameColor() &&
+                    mAuthorColor == wallpaper.getPaletteAuthorColor() &&
+                    mBgColor == wallpaper.getPaletteBgColor();
+        }
+    }
+}
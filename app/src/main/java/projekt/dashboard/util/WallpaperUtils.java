@@ -4,13 +4,10 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.media.MediaScannerConnection;
 import android.net.Uri;
 import android.os.Environment;
-import android.preference.PreferenceManager;
 import android.support.annotation.ColorInt;
-import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.support.annotation.StringRes;
 import android.util.Log;
@@ -24,12 +21,6 @@ import com.afollestad.bridge.BridgeException;
 import com.afollestad.bridge.Callback;
 import com.afollestad.bridge.Request;
 import com.afollestad.bridge.Response;
-import com.afollestad.bridge.ResponseConvertCallback;
-import com.afollestad.bridge.annotations.Body;
-import com.afollestad.bridge.annotations.ContentType;
-import com.afollestad.inquiry.Inquiry;
-import com.afollestad.inquiry.annotations.Column;
-import com.afollestad.inquiry.callbacks.RunCallback;
 import com.afollestad.materialdialogs.MaterialDialog;
 
 import java.io.File;
@@ -37,7 +28,6 @@ import java.io.Serializable;
 import java.util.Locale;
 
 import projekt.dashboard.R;
-import projekt.dashboard.fragments.WallpapersFragment;
 
 /**
  * @author Aidan Follestad (afollestad)
@@ -57,158 +47,17 @@ public class WallpaperUtils {
     }
 
     public static WallpapersHolder getAll(final Context context, boolean allowCached) throws Exception {
-        Inquiry.init(context, DATABASE_NAME, DATABASE_VERSION);
-        try {
-            if (allowCached) {
-                Wallpaper[] cache = Inquiry.get().selectFrom(TABLE_NAME, Wallpaper.class).all();
-                if (cache != null && cache.length > 0) {
-                    Log.d("WallpaperUtils", String.format("Loaded %d wallpapers from cache.", cache.length));
-                    return new WallpapersHolder(cache);
-                }
-            } else {
-                Inquiry.get().deleteFrom(TABLE_NAME, Wallpaper.class).run();
-            }
-        } catch (Throwable t) {
-            t.printStackTrace();
-            return null;
-        }
-
-        try {
-            String defaultSource = "";
-            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-            String mapTypeString = prefs.getString("selected_wallpaper_source", "default");
-            if (!mapTypeString.equals("default")) {
-                if (mapTypeString.equals("customworx")) {
-                    defaultSource = context.getString(R.string.wallpapers_json_url_customworx);
-                }
-                if (mapTypeString.equals("gagan")) {
-                    defaultSource = context.getString(R.string.wallpapers_json_url_gagan);
-                }
-                if (mapTypeString.equals("vignesh")) {
-                    defaultSource = context.getString(R.string.wallpapers_json_url_vignesh);
-                }
-                if (mapTypeString.equals("vignesh_headers")) {
-                    defaultSource = context.getString(R.string.wallpapers_json_url_vignesh_headers);
-                }
-            } else {
-                defaultSource = context.getString(R.string.wallpapers_json_url);
-            }
-
-            WallpapersHolder holder = Bridge.get(defaultSource)
-                    .tag(WallpapersFragment.class.getName())
-                    .asClass(WallpapersHolder.class);
-            if (holder == null)
-                throw new Exception("No wallpapers returned.");
-            Log.d("WallpaperUtils", String.format("Loaded %d wallpapers from web.", holder.length()));
-            if (holder.length() > 0) {
-                try {
-                    Inquiry.init(context, DATABASE_NAME, DATABASE_VERSION);
-                    Inquiry.get().insertInto(TABLE_NAME, Wallpaper.class)
-                            .values(holder.wallpapers)
-                            .run();
-                } catch (Throwable t) {
-                    t.printStackTrace();
-                }
-            }
-            return holder;
-        } catch (Exception e1) {
-            Log.d("WallpaperUtils", String.format("Failed to load wallpapers... %s", e1.getMessage()));
-            throw e1;
-        } finally {
-            Inquiry.deinit();
-        }
+        return WallpaperSources.load(context, WallpaperSources.getSelected(context), allowCached);
     }
 
     public static void saveDb(@Nullable final Context context, @Nullable final WallpapersHolder holder) {
         if (context == null || holder == null || holder.length() == 0) return;
-        Inquiry.init(context, DATABASE_NAME, DATABASE_VERSION);
-        try {
-            Inquiry.get().deleteFrom(TABLE_NAME, Wallpaper.class).run();
-            Inquiry.get().insertInto(TABLE_NAME, Wallpaper.class)
-                    .values(holder.wallpapers)
-                    .run(new RunCallback<Long[]>() {
-                        @Override
-                        public void result(Long[] changed) {
-                            Inquiry.deinit();
-                        }
-                    });
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
+        WallpaperSources.save(context, holder);
     }
 
-    public static void getAll(final Context context, boolean allowCached, final WallpapersCallback callback) {
-        Inquiry.init(context, DATABASE_NAME, DATABASE_VERSION);
-        try {
-            if (allowCached) {
-                Wallpaper[] cache = Inquiry.get().selectFrom(TABLE_NAME, Wallpaper.class).all();
-                if (cache != null && cache.length > 0) {
-                    Log.d("WallpaperUtils", String.format("Loaded %d wallpapers from cache.", cache.length));
-                    callback.onRetrievedWallpapers(new WallpapersHolder(cache), null, false);
-                    return;
-                }
-            } else {
-                Inquiry.get().deleteFrom(TABLE_NAME, Wallpaper.class).run();
-            }
-        } catch (Throwable t) {
-            t.printStackTrace();
-        }
-
-        String defaultSource = "";
-        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
-        String mapTypeString = prefs.getString("selected_wallpaper_source", "default");
-        if (!mapTypeString.equals("default")) {
-            if (mapTypeString.equals("customworx")) {
-                defaultSource = context.getString(R.string.wallpapers_json_url_customworx);
-            }
-            if (mapTypeString.equals("gagan")) {
-                defaultSource = context.getString(R.string.wallpapers_json_url_gagan);
-            }
-            if (mapTypeString.equals("vignesh")) {
-                defaultSource = context.getString(R.string.wallpapers_json_url_vignesh);
-            }
-            if (mapTypeString.equals("vignesh_headers")) {
-                defaultSource = context.getString(R.string.wallpapers_json_url_vignesh_headers);
-            }
-        } else {
-            defaultSource = context.getString(R.string.wallpapers_json_url);
-        }
-
-        Bridge.get(defaultSource)
-                .tag(WallpapersFragment.class.getName())
-                .asClass(WallpapersHolder.class, new ResponseConvertCallback<WallpapersHolder>() {
-                    @Override
-                    public void onResponse(@NonNull Response response, @Nullable WallpapersHolder holder, @Nullable BridgeException e) {
-                        if (e != null) {
-                            callback.onRetrievedWallpapers(null, e, e.reason() == BridgeException.REASON_REQUEST_CANCELLED);
-                        } else {
-                            if (holder == null) {
-                                callback.onRetrievedWallpapers(null, new Exception("No wallpapers returned."), false);
-                                return;
-                            }
-                            try {
-                                Log.d("WallpaperUtils", String.format("Loaded %d wallpapers from web.", holder.length()));
-                                if (holder.length() > 0) {
-                                    try {
-                                        Inquiry.init(context, DATABASE_NAME, DATABASE_VERSION);
-                                        Inquiry.get().insertInto(TABLE_NAME, Wallpaper.class)
-                                                .values(holder.wallpapers)
-                                                .run();
-                                    } catch (Throwable t) {
-                                        t.printStackTrace();
-                                    }
-                                }
-                                callback.onRetrievedWallpapers(holder, null, false);
-                            } catch (Throwable e1) {
-                                Log.d("WallpaperUtils", String.format("Failed to load wallpapers... %s", e1.getMessage()));
-                                if (e1 instanceof Exception)
-                                    callback.onRetrievedWallpapers(null, (Exception) e1, false);
-                            } finally {
-                                Inquiry.deinit();
-                            }
-                        }
-                    }
-                });
+    public static void getAll(final Context context, final boolean allowCached, final WallpapersCallback callback) {
+        WallpaperSources.load(context, WallpaperSources.getSelected(context), allowCached,
+                callback);
     }
 
     private static void showToast(Context context, @StringRes int msg) {
@@ -343,18 +192,16 @@ public class WallpaperUtils {
     }
 
     public interface WallpapersCallback {
+        // The wallpapers read so far, while the feed is still downloading
+        void onRetrievingWallpapers(WallpapersHolder wallpapers);
+
         void onRetrievedWallpapers(WallpapersHolder wallpapers, Exception error, boolean cancelled);
     }
 
-    @ContentType("application/json")
     public static class WallpapersHolder implements Serializable {
 
-        @Body
         public Wallpaper[] wallpapers;
 
-        public WallpapersHolder() {
-        }
-
         public WallpapersHolder(Wallpaper[] wallpapers) {
             this.wallpapers = wallpapers;
         }
@@ -368,33 +215,32 @@ public class WallpaperUtils {
         }
     }
 
-    @ContentType("application/json")
-    public static class Wallpaper implements Serializable {
+    public static class Wallpaper implements Serializable, WallpaperSearch.Item {
 
-        @Column(primaryKey = true, notNull = true, autoIncrement = true)
         public long _id;
-        @Body
-        @Column
         public String author;
-        @Body
-        @Column
         public String url;
-        @Body
-        @Column
         public String name;
-        @Body
-        @Column
         public String thumbnail;
-        @Column
         private int paletteNameColor;
-        @Column
         private int paletteAuthorColor;
-        @Column
         private int paletteBgColor;
+        // Not stored, every source is cached in a table of its own
+        public String source;
 
         public Wallpaper() {
         }
 
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getAuthor() {
+            return author;
+        }
+
         public String getListingImageUrl() {
             return thumbnail != null ? thumbnail : url;
         }
@@ -0,0 +1,182 @@
+package projekt.dashboard.overlay;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import projekt.dashboard.backend.LocalBackend;
+import projekt.dashboard.pipeline.Pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the color job the way the color changer does, against a {@link LocalBackend}.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class AccentColorJobTest {
+
+    private static final String THEME_PATH =
+            "/data/resource-cache/com.chummy.jezebel.materialdark.donate/common/resources.apk";
+    private static final String[] ACCENT_XMLS = {
+            "res/color-v14/accent_color_dark.xml",
+            "res/color-v14/accent_color_light.xml",
+            "res/color-v14/accent_color.xml"};
+    private static final byte[] OTHER = "untouched".getBytes();
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private LocalBackend mBackend;
+    private OverlayCache mCache;
+    private File mResources;
+
+    @Before
+    public void setUp() throws IOException {
+        mBackend = new LocalBackend(mFolder.newFolder("device"));
+        mCache = new OverlayCache(mFolder.newFolder("cache"), 64 * 1024 * 1024);
+        mResources = mFolder.newFile("stock-materialdark-resources.apk");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(mResources));
+        try {
+            for (String xml : ACCENT_XMLS) {
+                out.putNextEntry(new ZipEntry(xml));
+                out.write(ColorStateListEncoder.encode("#ff009688"));
+            }
+            out.putNextEntry(new ZipEntry("res/color-v14/primary_text.xml"));
+            out.write(OTHER);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void installsPatchedResources() throws Exception {
+        AccentColorJob job = run("#ffff5722");
+
+        assertTrue(job.isInstalled());
+        assertFalse(job.wasCached());
+        File installed = mBackend.resolve(THEME_PATH);
+        for (String xml : ACCENT_XMLS)
+            assertArrayEquals(ColorStateListEncoder.encode("#ffff5722"), read(installed, xml));
+        assertArrayEquals(OTHER, read(installed, "res/color-v14/primary_text.xml"));
+        assertEquals(Arrays.asList("com.android.systemui", "com.android.settings"),
+                mBackend.getRestarts());
+    }
+
+    @Test
+    public void secondRunOfSameColorIsCached() throws Exception {
+        run("#ffff5722");
+        File installed = mBackend.resolve(THEME_PATH);
+        byte[] first = FileUtils.readFileToByteArray(installed);
+
+        AccentColorJob second = run("#ffff5722");
+        assertTrue(second.wasCached());
+        assertArrayEquals(first, FileUtils.readFileToByteArray(installed));
+        assertEquals(4, mBackend.getRestarts().size());
+
+        // Released once installed, so nothing is left pinned
+        mCache.clear();
+        assertFalse(run("#ffff5722").wasCached());
+    }
+
+    @Test
+    public void otherColorIsPatchedAgain() throws Exception {
+        run("#ffff5722");
+        AccentColorJob job = run("#ff3f51b5");
+
+        assertFalse(job.wasCached());
+        assertArrayEquals(ColorStateListEncoder.encode("#ff3f51b5"),
+                read(mBackend.resolve(THEME_PATH), ACCENT_XMLS[0]));
+    }
+
+    @Test
+    public void rollsBackOneInstall() throws Exception {
+        run("#ffff5722");
+        run("#ff3f51b5");
+
+        mBackend.rollback(THEME_PATH);
+        assertArrayEquals(ColorStateListEncoder.encode("#ffff5722"),
+                read(mBackend.resolve(THEME_PATH), ACCENT_XMLS[0]));
+        try {
+            mBackend.rollback(THEME_PATH);
+            fail("Rolled back twice");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void missingResourcesSkipInstall() throws Exception {
+        assertTrue(mResources.delete());
+        AccentColorJob job = new AccentColorJob(mBackend, mCache, mResources,
+                mFolder.newFolder(), THEME_PATH, "#ffff5722");
+        Pipeline pipeline = new Pipeline("color");
+        String install = job.addStages(pipeline, "akZent");
+        pipeline.finalStage("restart", restart(Collections.singletonList(job)), install);
+
+        assertFalse(pipeline.run());
+        assertFalse(job.isInstalled());
+        assertFalse(mBackend.resolve(THEME_PATH).exists());
+        assertTrue(mBackend.getRestarts().isEmpty());
+    }
+
+    private AccentColorJob run(String color) throws Exception {
+        AccentColorJob job = new AccentColorJob(mBackend, mCache, mResources,
+                mFolder.newFolder(), THEME_PATH, color);
+        Pipeline pipeline = new Pipeline("color " + color);
+        String install = job.addStages(pipeline, "akZent");
+        pipeline.finalStage("restart", restart(Collections.singletonList(job)), install);
+        assertTrue(String.valueOf(pipeline.getFailure()), pipeline.run());
+        return job;
+    }
+
+    /**
+     * The color changer's restart, only once something got installed.
+     */
+    private Pipeline.Task restart(final Iterable<AccentColorJob> jobs) {
+        return new Pipeline.Task() {
+            @Override
+            public void run() {
+                for (AccentColorJob job : jobs) {
+                    if (job.isInstalled()) {
+                        mBackend.restart(Arrays.asList("com.android.systemui",
+                                "com.android.settings"));
+                        return;
+                    }
+                }
+            }
+        };
+    }
+
+    static byte[] read(File zip, String name) throws IOException {
+        ZipFile file = new ZipFile(zip);
+        try {
+            ZipEntry entry = file.getEntry(name);
+            assertTrue(name, entry != null);
+            InputStream in = file.getInputStream(entry);
+            try {
+                return IOUtils.toByteArray(in);
+            } finally {
+                in.close();
+            }
+        } finally {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package projekt.dashboard.overlay;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * Checks the encoder byte for byte against res/color/secondary_text_nofocus.xml as aapt compiled
+ * it for framework-res in the Android 6.0.1_r3 build (taken from
+ * org.robolectric:android-all:6.0.1_r3-robolectric-r1). Its source is a license header followed by
+ *
+ * <pre>
+ * 17: &lt;selector xmlns:android="http://schemas.android.com/apk/res/android"&gt;
+ * 18:     &lt;item android:color="#eeeeee"/&gt; &lt;!-- not selected --&gt;
+ * 19: &lt;/selector&gt;
+ * </pre>
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class ColorStateListEncoderTest {
+
+    @Test
+    public void matchesAaptOutput() throws IOException {
+        assertArrayEquals(read("secondary_text_nofocus.xml"),
+                ColorStateListEncoder.encode("#eeeeee", 17));
+    }
+
+    private static byte[] read(String name) throws IOException {
+        InputStream in = ColorStateListEncoderTest.class.getResourceAsStream(name);
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
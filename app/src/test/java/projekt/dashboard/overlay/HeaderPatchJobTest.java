@@ -0,0 +1,131 @@
+package projekt.dashboard.overlay;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import projekt.dashboard.backend.LocalBackend;
+import projekt.dashboard.pipeline.Pipeline;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the header swap the way the header swapper and importer do, against a
+ * {@link LocalBackend}.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class HeaderPatchJobTest {
+
+    private static final String PACKAGE_NAME = "com.example.theme";
+    private static final String THEME_PATH = "/data/app/" + PACKAGE_NAME + "-1/base.apk";
+    private static final String SYSTEMUI_CACHE =
+            "/data/resource-cache/" + PACKAGE_NAME + "/com.android.systemui";
+    private static final byte[] OLD_HEADER = "old header".getBytes();
+    private static final byte[] NEW_HEADER = "new header".getBytes();
+    private static final byte[] OTHER = "untouched".getBytes();
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private LocalBackend mBackend;
+    private File mTheme;
+
+    @Before
+    public void setUp() throws IOException {
+        mBackend = new LocalBackend(mFolder.newFolder("device"));
+        mTheme = mBackend.resolve(THEME_PATH);
+        FileUtils.forceMkdir(mTheme.getParentFile());
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(mTheme));
+        try {
+            for (String header : SystemUIHeaders.FILENAMES) {
+                out.putNextEntry(new ZipEntry(SystemUIHeaders.entryName(header)));
+                out.write(OLD_HEADER);
+            }
+            out.putNextEntry(new ZipEntry("resources.arsc"));
+            out.write(OTHER);
+        } finally {
+            out.close();
+        }
+        FileUtils.forceMkdir(mBackend.resolve(SYSTEMUI_CACHE));
+    }
+
+    @Test
+    public void swapsPickedHeaders() throws Exception {
+        File picked = mFolder.newFile("notifhead_night.png");
+        FileUtils.writeByteArrayToFile(picked, NEW_HEADER);
+        Map<String, File> files = new LinkedHashMap<>();
+        files.put("notifhead_night.png", picked);
+        files.put("notifhead_sunset.png", picked);
+
+        HeaderPatchJob job = new HeaderPatchJob(mBackend, mFolder.newFolder(), THEME_PATH,
+                PACKAGE_NAME).headers(files).clearSystemUICache(true);
+        run(job);
+
+        for (String header : SystemUIHeaders.FILENAMES) {
+            byte[] expected = files.containsKey(header) ? NEW_HEADER : OLD_HEADER;
+            assertArrayEquals(header, expected,
+                    AccentColorJobTest.read(mTheme, SystemUIHeaders.entryName(header)));
+        }
+        assertArrayEquals(OTHER, AccentColorJobTest.read(mTheme, "resources.arsc"));
+        assertFalse(mBackend.resolve(SYSTEMUI_CACHE).exists());
+        assertEquals(Collections.singletonList("zygote"), mBackend.getRestarts());
+    }
+
+    @Test
+    public void swapsHeaderPack() throws Exception {
+        File pack = mFolder.newFile("pack.zip");
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(pack));
+        try {
+            for (String header : SystemUIHeaders.FILENAMES) {
+                out.putNextEntry(new ZipEntry(header));
+                out.write(NEW_HEADER);
+            }
+        } finally {
+            out.close();
+        }
+
+        HeaderPatchJob job = new HeaderPatchJob(mBackend, mFolder.newFolder(), THEME_PATH,
+                PACKAGE_NAME).headerPack(pack);
+        run(job);
+
+        assertEquals(SystemUIHeaders.FILENAMES, job.getHeaders());
+        for (String header : SystemUIHeaders.FILENAMES) {
+            assertArrayEquals(header, NEW_HEADER,
+                    AccentColorJobTest.read(mTheme, SystemUIHeaders.entryName(header)));
+        }
+        // Left alone unless asked for
+        assertTrue(mBackend.resolve(SYSTEMUI_CACHE).exists());
+        assertEquals(Collections.singletonList("zygote"), mBackend.getRestarts());
+
+        mBackend.rollback(THEME_PATH);
+        assertArrayEquals(OLD_HEADER, AccentColorJobTest.read(mTheme,
+                SystemUIHeaders.entryName(SystemUIHeaders.FILENAMES.get(0))));
+    }
+
+    private void run(HeaderPatchJob job) throws Exception {
+        Pipeline pipeline = new Pipeline("headers");
+        String install = job.addStages(pipeline);
+        pipeline.stage("restart", new Pipeline.Task() {
+            @Override
+            public void run() {
+                mBackend.restart(Collections.singletonList("zygote"));
+            }
+        }, install);
+        assertTrue(String.valueOf(pipeline.getFailure()), pipeline.run());
+    }
+}
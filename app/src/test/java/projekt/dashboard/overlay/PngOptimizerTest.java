@@ -0,0 +1,143 @@
+package projekt.dashboard.overlay;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that optimizing never changes how an image looks, and hands back anything it can't
+ * read as it is.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class PngOptimizerTest {
+
+    @Test
+    public void shrinksWithoutChangingPixels() throws IOException {
+        BufferedImage image = new BufferedImage(64, 32, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++)
+                image.setRGB(x, y, x < 32 ? 0xff3f51b5 : 0xffff5722);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        byte[] png = out.toByteArray();
+
+        byte[] optimized = PngOptimizer.optimize(png);
+        assertTrue(optimized.length < png.length);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(optimized));
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++)
+                assertEquals(image.getRGB(x, y), decoded.getRGB(x, y));
+        }
+    }
+
+    @Test
+    public void keepsChunkLongerThanFile() {
+        ByteArrayOutputStream out = signature();
+        writeInt(out, Integer.MAX_VALUE);
+        out.write('I');
+        out.write('H');
+        out.write('D');
+        out.write('R');
+        byte[] png = out.toByteArray();
+        assertSame(png, PngOptimizer.optimize(png));
+    }
+
+    @Test
+    public void keepsShortHeader() {
+        ByteArrayOutputStream out = signature();
+        chunk(out, "IHDR", new byte[]{0, 0, 0, 1, 0});
+        chunk(out, "IEND", new byte[0]);
+        byte[] png = out.toByteArray();
+        assertSame(png, PngOptimizer.optimize(png));
+    }
+
+    @Test
+    public void keepsPaletteIndexOutOfRange() {
+        ByteArrayOutputStream out = signature();
+        chunk(out, "IHDR", header(2, 1, 3));
+        chunk(out, "PLTE", new byte[]{0, 0, 0});
+        // No filter, then indices 0 and 9 of a one color palette
+        chunk(out, "IDAT", deflate(new byte[]{0, 0, 9}));
+        chunk(out, "IEND", new byte[0]);
+        byte[] png = out.toByteArray();
+        assertSame(png, PngOptimizer.optimize(png));
+    }
+
+    @Test
+    public void keepsImageTooLargeToDecode() {
+        ByteArrayOutputStream out = signature();
+        chunk(out, "IHDR", header(16384, 16384, 6));
+        chunk(out, "IDAT", deflate(new byte[16]));
+        chunk(out, "IEND", new byte[0]);
+        byte[] png = out.toByteArray();
+        assertSame(png, PngOptimizer.optimize(png));
+    }
+
+    private static ByteArrayOutputStream signature() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(0x89);
+        out.write('P');
+        out.write('N');
+        out.write('G');
+        out.write('\r');
+        out.write('\n');
+        out.write(0x1a);
+        out.write('\n');
+        return out;
+    }
+
+    private static byte[] header(int width, int height, int colorType) {
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8);
+        header.write(colorType);
+        header.write(0);
+        header.write(0);
+        header.write(0);
+        return header.toByteArray();
+    }
+
+    private static void chunk(ByteArrayOutputStream out, String type, byte[] data) {
+        byte[] name = type.getBytes();
+        writeInt(out, data.length);
+        out.write(name, 0, 4);
+        out.write(data, 0, data.length);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static byte[] deflate(byte[] data) {
+        Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[1024];
+        int length = deflater.deflate(buffer);
+        deflater.end();
+        byte[] deflated = new byte[length];
+        System.arraycopy(buffer, 0, deflated, 0, length);
+        return deflated;
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+}
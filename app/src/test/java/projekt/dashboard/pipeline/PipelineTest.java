@@ -0,0 +1,173 @@
+package projekt.dashboard.pipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a final stage doesn't start while anything upstream of it is still running, which
+ * is what lets it release what those stages took.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class PipelineTest {
+
+    private final ExecutorService mExecutor = Executors.newFixedThreadPool(4);
+
+    @After
+    public void tearDown() {
+        mExecutor.shutdownNow();
+    }
+
+    @Test
+    public void cancelWaitsForRunningStages() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean lookupDone = new AtomicBoolean();
+        final AtomicBoolean sawLookupDone = new AtomicBoolean();
+        final Pipeline pipeline = new Pipeline("cancel", mExecutor)
+                .stage("lookup", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                        started.countDown();
+                        // Like a copy that doesn't notice the interrupt
+                        awaitUninterruptibly(release);
+                        lookupDone.set(true);
+                    }
+                })
+                .stage("patch", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                    }
+                }, "lookup")
+                .finalStage("release", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                        sawLookupDone.set(lookupDone.get());
+                    }
+                }, "patch");
+        Thread runner = run(pipeline);
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        pipeline.cancel();
+        // Time for the final stage to start, if it were going to
+        Thread.sleep(200);
+        assertEquals(Pipeline.State.PENDING, state(pipeline, "release"));
+        release.countDown();
+        runner.join(5000);
+
+        assertFalse(runner.isAlive());
+        assertTrue(sawLookupDone.get());
+        assertEquals(Pipeline.State.CANCELLED, state(pipeline, "patch"));
+        assertEquals(Pipeline.State.SUCCEEDED, state(pipeline, "release"));
+    }
+
+    @Test
+    public void failureWaitsForOtherDependencies() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicBoolean generateDone = new AtomicBoolean();
+        final AtomicBoolean sawGenerateDone = new AtomicBoolean();
+        Pipeline pipeline = new Pipeline("failure", mExecutor)
+                .stage("lookup", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        try {
+                            throw new IllegalStateException("No theme installed");
+                        } finally {
+                            release.countDown();
+                        }
+                    }
+                })
+                .stage("generate", new Pipeline.Task() {
+                    @Override
+                    public void run() throws Exception {
+                        release.await();
+                        Thread.sleep(200);
+                        generateDone.set(true);
+                    }
+                })
+                .stage("patch", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                    }
+                }, "lookup", "generate")
+                .finalStage("release", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                        sawGenerateDone.set(generateDone.get());
+                    }
+                }, "patch");
+
+        assertFalse(pipeline.run());
+        assertTrue(sawGenerateDone.get());
+        assertEquals(Pipeline.State.FAILED, state(pipeline, "lookup"));
+        assertEquals(Pipeline.State.SKIPPED, state(pipeline, "patch"));
+        assertEquals(Pipeline.State.SUCCEEDED, state(pipeline, "release"));
+    }
+
+    @Test
+    public void cancelBeforeRunStillRunsFinalStages() throws Exception {
+        final AtomicBoolean ran = new AtomicBoolean();
+        Pipeline pipeline = new Pipeline("cancelled", mExecutor)
+                .stage("download", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                        ran.set(true);
+                    }
+                })
+                .finalStage("cleanup", new Pipeline.Task() {
+                    @Override
+                    public void run() {
+                    }
+                }, "download");
+        pipeline.cancel();
+
+        assertFalse(pipeline.run());
+        assertFalse(ran.get());
+        assertEquals(Pipeline.State.CANCELLED, state(pipeline, "download"));
+        assertEquals(Pipeline.State.SUCCEEDED, state(pipeline, "cleanup"));
+    }
+
+    private static Thread run(final Pipeline pipeline) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.run();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static Pipeline.State state(Pipeline pipeline, String name) {
+        for (Pipeline.Stage stage : pipeline.getStages()) {
+            if (stage.getName().equals(name)) return stage.getState();
+        }
+        throw new IllegalArgumentException(name);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
@@ -0,0 +1,282 @@
+package projekt.dashboard.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the downloader against an in-process HTTP server that honours If-None-Match, Range and
+ * If-Range the way a static file server would, and can be told to misbehave.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+public class ResourceDownloaderTest {
+
+    private static final String ETAG = "\"v1\"";
+
+    @Rule
+    public final TemporaryFolder mFolder = new TemporaryFolder();
+
+    private final List<Request> mRequests = new ArrayList<>();
+    private byte[] mBody;
+    private String mEtag = ETAG;
+    // Ways to misbehave on the next ranged request
+    private boolean mRejectRange;
+    private boolean mMisplaceRange;
+    private HttpServer mServer;
+    private String mUrl;
+    private File mDestination;
+
+    @Before
+    public void setUp() throws IOException {
+        mBody = new byte[300 * 1024];
+        new Random(1).nextBytes(mBody);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                serve(exchange);
+            }
+        });
+        mServer.start();
+        mUrl = "http://127.0.0.1:" + mServer.getAddress().getPort() + "/resources.apk";
+        mDestination = new File(mFolder.getRoot(), "resources.apk");
+    }
+
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+    }
+
+    @Test
+    public void downloadsThenRevalidates() throws IOException {
+        ResourceDownloader.Result first = download(null);
+        assertTrue(first.modified);
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+        assertNull(request(0).ifNoneMatch);
+
+        ResourceDownloader.Result second = download(null);
+        assertFalse(second.modified);
+        assertEquals(first.sha256, second.sha256);
+        assertEquals(ETAG, request(1).ifNoneMatch);
+        assertEquals(2, mRequests.size());
+    }
+
+    @Test
+    public void fetchesAgainOnceTheServerChanges() throws IOException {
+        download(null);
+        mBody = Arrays.copyOf(mBody, 1000);
+        mEtag = "\"v2\"";
+
+        assertTrue(download(null).modified);
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+    }
+
+    @Test
+    public void resumesPartialDownload() throws IOException {
+        int offset = 100 * 1024;
+        writePart(offset, ETAG);
+
+        download(sha256(mBody));
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+        assertEquals("bytes=" + offset + "-", request(0).range);
+        assertEquals(ETAG, request(0).ifRange);
+        assertEquals(206, request(0).status);
+        assertEquals(1, mRequests.size());
+    }
+
+    @Test
+    public void restartsWhenIfRangeNoLongerMatches() throws IOException {
+        writePart(100 * 1024, "\"v0\"");
+
+        download(sha256(mBody));
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+        assertEquals("\"v0\"", request(0).ifRange);
+        // The server ignored the range and sent the whole file
+        assertEquals(200, request(0).status);
+        assertFalse(part().exists());
+    }
+
+    @Test
+    public void restartsOnRangeNotSatisfiable() throws IOException {
+        writePart(100 * 1024, ETAG);
+        mRejectRange = true;
+
+        download(sha256(mBody));
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+        assertEquals(416, request(0).status);
+        assertNull(request(1).range);
+        assertEquals(200, request(1).status);
+    }
+
+    @Test
+    public void restartsWhenServerSendsAnotherRange() throws IOException {
+        writePart(100 * 1024, ETAG);
+        mMisplaceRange = true;
+
+        download(sha256(mBody));
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+        assertEquals(206, request(0).status);
+        assertNull(request(1).range);
+        assertEquals(200, request(1).status);
+    }
+
+    @Test
+    public void rejectsChecksumMismatch() throws IOException {
+        try {
+            download(sha256(new byte[1]));
+            fail("Downloaded a file with the wrong digest");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Checksum mismatch"));
+        }
+        assertFalse(mDestination.exists());
+        assertFalse(part().exists());
+    }
+
+    @Test
+    public void refetchesCorruptedFile() throws IOException {
+        download(null);
+        byte[] corrupted = mBody.clone();
+        corrupted[0]++;
+        FileUtils.writeByteArrayToFile(mDestination, corrupted);
+
+        assertTrue(download(null).modified);
+        assertArrayEquals(mBody, FileUtils.readFileToByteArray(mDestination));
+        // Its digest no longer matches, so it can't be revalidated
+        assertNull(request(1).ifNoneMatch);
+    }
+
+    @Test
+    public void reportsProgress() throws IOException {
+        final List<long[]> progress = new ArrayList<>();
+        new ResourceDownloader().setProgressInterval(0).download(mUrl, mDestination, null,
+                new ResourceDownloader.ProgressListener() {
+                    @Override
+                    public void onProgress(long downloaded, long total) {
+                        progress.add(new long[]{downloaded, total});
+                    }
+                });
+        long[] last = progress.get(progress.size() - 1);
+        assertEquals(mBody.length, last[0]);
+        assertEquals(mBody.length, last[1]);
+    }
+
+    private ResourceDownloader.Result download(String sha256) throws IOException {
+        return new ResourceDownloader().download(mUrl, mDestination, sha256, null);
+    }
+
+    private File part() {
+        return new File(mFolder.getRoot(), "resources.apk.part");
+    }
+
+    /**
+     * Leaves the first {@code length} bytes behind the way an interrupted download would.
+     */
+    private void writePart(int length, String etag) throws IOException {
+        FileUtils.writeByteArrayToFile(part(), Arrays.copyOf(mBody, length));
+        Properties meta = new Properties();
+        meta.setProperty("url", mUrl);
+        meta.setProperty("etag", etag);
+        OutputStream out = new FileOutputStream(
+                new File(mFolder.getRoot(), "resources.apk.part.meta"));
+        try {
+            meta.store(out, null);
+        } finally {
+            out.close();
+        }
+    }
+
+    private synchronized Request request(int index) {
+        return mRequests.get(index);
+    }
+
+    private synchronized void serve(HttpExchange exchange) throws IOException {
+        Request request = new Request(exchange);
+        mRequests.add(request);
+        exchange.getResponseHeaders().set("ETag", mEtag);
+        byte[] body = mBody;
+        int start = 0;
+        if (mEtag.equals(request.ifNoneMatch)) {
+            request.status = 304;
+        } else if (request.range != null && (request.ifRange == null ||
+                mEtag.equals(request.ifRange))) {
+            start = Integer.parseInt(request.range.substring("bytes=".length(),
+                    request.range.length() - 1));
+            if (mRejectRange || start >= mBody.length) {
+                mRejectRange = false;
+                request.status = 416;
+            } else {
+                if (mMisplaceRange) {
+                    mMisplaceRange = false;
+                    start = 0;
+                }
+                request.status = 206;
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (mBody.length - 1) + "/" + mBody.length);
+            }
+        } else {
+            request.status = 200;
+        }
+        if (request.status != 200 && request.status != 206) {
+            exchange.sendResponseHeaders(request.status, -1);
+            exchange.close();
+            return;
+        }
+        exchange.sendResponseHeaders(request.status, body.length - start);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body, start, body.length - start);
+        out.close();
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes);
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) sb.append(String.format("%02x", b));
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Request {
+
+        final String range;
+        final String ifRange;
+        final String ifNoneMatch;
+        int status;
+
+        Request(HttpExchange exchange) {
+            range = exchange.getRequestHeaders().getFirst("Range");
+            ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+            ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        }
+    }
+}
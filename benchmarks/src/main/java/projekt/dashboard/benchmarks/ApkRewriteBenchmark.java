@@ -0,0 +1,121 @@
+package projekt.dashboard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+
+import projekt.dashboard.overlay.ApkRewriter;
+import projekt.dashboard.overlay.HeaderEncoder;
+import projekt.dashboard.overlay.SystemUIHeaders;
+
+/**
+ * Swapping entries inside theme APKs, the bulk of every header and color patch. Headers come in
+ * the way the apply path hands them over: as the files HeaderEncoder encodes a cropped picture
+ * to, or as the entries of a header pack, streamed straight from the pack.
+ * <p>
+ * {@link #headersEntryAtATime()} rewrites the whole archive once per header, which is how many
+ * passes the old aapt remove/add loops made, so it shows what batching the replacements buys
+ * independently of the cost of forking aapt.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ApkRewriteBenchmark {
+
+    /**
+     * Theme APK size in megabytes.
+     */
+    @Param({"4", "16"})
+    public int size;
+
+    private File mDirectory;
+    private File mThemeApk;
+    private File mCommonResources;
+    private File mOutput;
+    private Map<String, File> mHeaderFiles;
+    private ZipFile mHeaderPack;
+    private byte[] mHeader;
+    private byte[] mAccentColor;
+
+    @Setup
+    public void setUp() throws Exception {
+        mDirectory = Fixtures.tempDir("apk-rewrite");
+        mThemeApk = Fixtures.themeApk(new File(mDirectory, "base.apk"), size * 1024L * 1024L);
+        mCommonResources = Fixtures.commonResourcesApk(new File(mDirectory, "resources.apk"));
+        mOutput = new File(mDirectory, "out.apk");
+        BufferedImage image = Fixtures.headerImage(1440, 360);
+        mHeaderFiles = HeaderEncoder.files(mDirectory, SystemUIHeaders.FILENAMES);
+        HeaderEncodeBenchmark.encodeAll(image, HeaderEncodeBenchmark.variants(mDirectory));
+        mHeaderPack = new ZipFile(Fixtures.headerPack(new File(mDirectory, "pack.zip"), image));
+        mHeader = Fixtures.png(image);
+        mAccentColor = new byte[512];
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mHeaderPack.close();
+        Fixtures.deleteRecursive(mDirectory);
+    }
+
+    @Benchmark
+    public long headersSinglePass() throws IOException {
+        ApkRewriter rewriter = new ApkRewriter(mThemeApk);
+        for (String header : SystemUIHeaders.FILENAMES)
+            rewriter.replace(SystemUIHeaders.entryName(header), mHeaderFiles.get(header));
+        rewriter.writeTo(mOutput);
+        return mOutput.length();
+    }
+
+    @Benchmark
+    public long headersFromPack() throws IOException {
+        ApkRewriter rewriter = new ApkRewriter(mThemeApk);
+        for (String header : SystemUIHeaders.FILENAMES) {
+            rewriter.replace(SystemUIHeaders.entryName(header), mHeaderPack,
+                    mHeaderPack.getEntry(header));
+        }
+        rewriter.writeTo(mOutput);
+        return mOutput.length();
+    }
+
+    @Benchmark
+    public long headersEntryAtATime() throws IOException {
+        File source = mThemeApk;
+        for (String header : SystemUIHeaders.FILENAMES) {
+            new ApkRewriter(source).replace(SystemUIHeaders.entryName(header), mHeader)
+                    .writeTo(mOutput);
+            source = mOutput;
+        }
+        return mOutput.length();
+    }
+
+    @Benchmark
+    public long accentColors() throws IOException {
+        new ApkRewriter(mCommonResources)
+                .replace("res/color-v14/accent_color_dark.xml", mAccentColor)
+                .replace("res/color-v14/accent_color_light.xml", mAccentColor)
+                .replace("res/color-v14/accent_color.xml", mAccentColor)
+                .writeTo(mOutput);
+        return mOutput.length();
+    }
+}
@@ -0,0 +1,242 @@
+package projekt.dashboard.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.imageio.ImageIO;
+
+import projekt.dashboard.overlay.SystemUIHeaders;
+import projekt.dashboard.util.WallpaperSearch;
+
+/**
+ * Generates the inputs the benchmarks run on. Everything is seeded, so the fixtures are the same
+ * from one run (and one release) to the next.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+final class Fixtures {
+
+    private static final String[] WORDS = {
+            "night", "sunset", "material", "dark", "blue", "amber", "polar", "mountain", "city",
+            "ocean", "forest", "abstract", "minimal", "neon", "sunrise", "winter", "desert",
+            "galaxy", "lines", "waves", "chummy", "radius", "arcus", "blacked", "out", "glass"};
+
+    private Fixtures() {
+    }
+
+    static File tempDir(String name) throws IOException {
+        File dir = File.createTempFile(name, "");
+        if (!dir.delete() || !dir.mkdirs()) throw new IOException("Unable to create " + dir);
+        return dir;
+    }
+
+    static void deleteRecursive(File fileOrDirectory) {
+        File[] children = fileOrDirectory.listFiles();
+        if (children != null)
+            for (File child : children)
+                deleteRecursive(child);
+        fileOrDirectory.delete();
+    }
+
+    /**
+     * Writes a theme APK laid out like a real one: a resources.arsc, a pile of drawables and
+     * XML, and the SystemUI overlay with its header drawables. Drawables are stored and XML is
+     * deflated, the same way aapt packages them.
+     *
+     * @param size rough size of the APK in bytes
+     */
+    static File themeApk(File file, long size) throws IOException {
+        Random random = new Random(size);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            deflated(out, "AndroidManifest.xml", xml(random, 4 * 1024));
+            stored(out, "resources.arsc", noise(random, (int) (size / 16)));
+            for (String header : SystemUIHeaders.FILENAMES)
+                stored(out, SystemUIHeaders.entryName(header), noise(random, 200 * 1024));
+
+            long written = size / 16 + SystemUIHeaders.FILENAMES.size() * 200 * 1024;
+            for (int i = 0; written < size; i++) {
+                if (i % 4 == 0) {
+                    byte[] layout = xml(random, 1024 + random.nextInt(8 * 1024));
+                    deflated(out, "res/layout/layout_" + i + ".xml", layout);
+                    deflated(out, "assets/overlays/com.android.systemui/res/layout/layout_" + i +
+                            ".xml", layout);
+                    written += layout.length / 4;
+                } else {
+                    byte[] drawable = noise(random, 2 * 1024 + random.nextInt(24 * 1024));
+                    stored(out, "res/drawable-xxhdpi-v4/drawable_" + i + ".png", drawable);
+                    written += drawable.length;
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * A common-resources APK like the ones the color switcher patches.
+     */
+    static File commonResourcesApk(File file) throws IOException {
+        Random random = new Random(36);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            deflated(out, "AndroidManifest.xml", xml(random, 2 * 1024));
+            stored(out, "resources.arsc", noise(random, 8 * 1024));
+            for (String color : new String[]{"accent_color", "accent_color_dark",
+                    "accent_color_light", "primary_text", "secondary_text"})
+                deflated(out, "res/color-v14/" + color + ".xml", noise(random, 600));
+            for (int i = 0; i < 24; i++)
+                stored(out, "res/drawable-xxhdpi-v4/common_" + i + ".png", noise(random, 1024));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * A header pack ZIP with {@code image} as every header, deflated like a ZIP tool packs it.
+     */
+    static File headerPack(File file, BufferedImage image) throws IOException {
+        byte[] png = png(image);
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(file));
+        try {
+            for (String header : SystemUIHeaders.FILENAMES)
+                deflated(out, header, png);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * A photo-like header image: smooth gradients with sensor-style noise on top, which
+     * compresses about as badly as a real picture does.
+     */
+    static BufferedImage headerImage(int width, int height) {
+        Random random = new Random(width * 31 + height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = clamp(255 * x / width + random.nextInt(17) - 8);
+                int g = clamp(255 * y / height + random.nextInt(17) - 8);
+                int b = clamp(128 + 127 * (x - y) / width + random.nextInt(17) - 8);
+                image.setRGB(x, y, 0xff000000 | r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    static byte[] png(BufferedImage image) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    static File headersXml(File file) throws IOException {
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<headers>\n");
+            out.write("    <header id=\"3.1\">\n");
+            out.write("        <name>Polar Nights</name>\n");
+            out.write("        <author>Nicholas Chum</author>\n");
+            out.write("        <team>chummy development team</team>\n");
+            out.write("    </header>\n</headers>\n");
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    static Wallpaper[] wallpapers(int count) {
+        Random random = new Random(count);
+        Wallpaper[] wallpapers = new Wallpaper[count];
+        for (int i = 0; i < count; i++) {
+            wallpapers[i] = new Wallpaper(capitalize(words(random, 2 + random.nextInt(2))),
+                    capitalize(words(random, 1)) + " " + (char) ('A' + random.nextInt(26)) + ".");
+        }
+        return wallpapers;
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) sb.append(' ');
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String capitalize(String s) {
+        return Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+
+    private static int clamp(int value) {
+        return Math.max(0, Math.min(255, value));
+    }
+
+    private static byte[] noise(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+
+    private static byte[] xml(Random random, int length) {
+        StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+        while (sb.length() < length) {
+            sb.append("<View android:id=\"@+id/").append(words(random, 1))
+                    .append("\" android:layout_width=\"match_parent\" />\n");
+        }
+        return sb.toString().getBytes();
+    }
+
+    private static void deflated(ZipOutputStream out, String name, byte[] data)
+            throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        out.write(data);
+        out.closeEntry();
+    }
+
+    private static void stored(ZipOutputStream out, String name, byte[] data) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        ZipEntry entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(data);
+        out.closeEntry();
+    }
+
+    static class Wallpaper implements WallpaperSearch.Item {
+
+        final String name;
+        final String author;
+
+        Wallpaper(String name, String author) {
+            this.name = name;
+            this.author = author;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getAuthor() {
+            return author;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package projekt.dashboard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import projekt.dashboard.overlay.HeaderEncoder;
+import projekt.dashboard.overlay.PngOptimizer;
+import projekt.dashboard.overlay.SystemUIHeaders;
+
+/**
+ * What the header swapper's save button does with a cropped picture when all headers are
+ * selected: encode every density's variant once, each on its own core, into the files
+ * {@link HeaderEncoder#files} maps the headers to, then have the optimizer shrink them.
+ * <p>
+ * Bitmap only exists on the device, so ImageIO's PNG writer and a bilinear Graphics2D scale stand
+ * in for compress and createScaledBitmap. Both are zlib based, which is where nearly all of the
+ * time goes. The optimizer runs as it ships, caching included: with an empty cache for the first
+ * time a picture gets applied, and with a warm one for applying it again.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HeaderEncodeBenchmark {
+
+    /**
+     * Width of the cropped header, which is cropped at 4:1 by default.
+     */
+    @Param({"1080", "1440"})
+    public int width;
+
+    private File mDirectory;
+    private BufferedImage mImage;
+    // Every file the headers are encoded to, and how much that variant is scaled down
+    private Map<File, Float> mVariants;
+    private PngOptimizer mOptimizer;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = Fixtures.tempDir("header-encode");
+        mImage = Fixtures.headerImage(width, width / 4);
+        mVariants = variants(mDirectory);
+        mOptimizer = new PngOptimizer(new File(mDirectory, "png-cache"));
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.deleteRecursive(mDirectory);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return Fixtures.png(mImage);
+    }
+
+    @Benchmark
+    public long encodeAll() throws Exception {
+        return encodeAll(mImage, mVariants);
+    }
+
+    @Benchmark
+    public long encodeAndOptimize(EmptyCache cache) throws Exception {
+        encodeAll(mImage, mVariants);
+        return size(cache.mOptimizer.optimize(mVariants.keySet()).values());
+    }
+
+    @Benchmark
+    public long encodeAndOptimizeCached() throws Exception {
+        encodeAll(mImage, mVariants);
+        return size(mOptimizer.optimize(mVariants.keySet()).values());
+    }
+
+    private static long size(Collection<File> files) {
+        long size = 0;
+        for (File file : files)
+            size += file.length();
+        return size;
+    }
+
+    static Map<File, Float> variants(File directory) {
+        Map<File, Float> variants = new LinkedHashMap<>();
+        for (Map.Entry<String, File> file :
+                HeaderEncoder.files(directory, SystemUIHeaders.FILENAMES).entrySet()) {
+            variants.put(file.getValue(),
+                    HeaderEncoder.scale(HeaderEncoder.density(file.getKey())));
+        }
+        return variants;
+    }
+
+    /**
+     * Encodes every one of {@code variants} of {@code image}, in parallel.
+     *
+     * @return the combined size of the files
+     */
+    static long encodeAll(final BufferedImage image, Map<File, Float> variants)
+            throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(variants.size(), Runtime.getRuntime().availableProcessors()));
+        try {
+            List<Future<Long>> results = new ArrayList<>();
+            for (final Map.Entry<File, Float> variant : variants.entrySet()) {
+                results.add(executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws Exception {
+                        return encode(image, variant.getValue(), variant.getKey());
+                    }
+                }));
+            }
+            long size = 0;
+            for (Future<Long> result : results)
+                size += result.get();
+            return size;
+        } catch (ExecutionException e) {
+            throw (Exception) e.getCause();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static long encode(BufferedImage image, float scale, File file) throws IOException {
+        BufferedImage scaled = image;
+        if (scale != 1f) {
+            scaled = new BufferedImage(Math.max(1, Math.round(image.getWidth() * scale)),
+                    Math.max(1, Math.round(image.getHeight() * scale)), image.getType());
+            Graphics2D graphics = scaled.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(image, 0, 0, scaled.getWidth(), scaled.getHeight(), null);
+            graphics.dispose();
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(Fixtures.png(scaled));
+        } finally {
+            out.close();
+        }
+        return file.length();
+    }
+
+    /**
+     * An optimizer that hasn't seen any of the headers yet, a new one for every call.
+     */
+    @State(Scope.Thread)
+    public static class EmptyCache {
+
+        private File mDirectory;
+        private PngOptimizer mOptimizer;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            mDirectory = Fixtures.tempDir("png-cache");
+            mOptimizer = new PngOptimizer(mDirectory);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            Fixtures.deleteRecursive(mDirectory);
+        }
+    }
+}
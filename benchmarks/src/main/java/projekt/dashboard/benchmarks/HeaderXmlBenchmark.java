@@ -0,0 +1,56 @@
+package projekt.dashboard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import projekt.dashboard.util.HeaderManifest;
+
+/**
+ * Reading a header pack's headers.xml, done for every new or changed pack the header importer
+ * indexes. The XML is parsed from memory, the way it comes out of the pack's ZIP entry.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HeaderXmlBenchmark {
+
+    private File mDirectory;
+    private byte[] mXml;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDirectory = Fixtures.tempDir("header-xml");
+        mXml = Files.readAllBytes(
+                Fixtures.headersXml(new File(mDirectory, "headers.xml")).toPath());
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.deleteRecursive(mDirectory);
+    }
+
+    @Benchmark
+    public HeaderManifest parse() throws IOException {
+        return HeaderManifest.read(new ByteArrayInputStream(mXml));
+    }
+}
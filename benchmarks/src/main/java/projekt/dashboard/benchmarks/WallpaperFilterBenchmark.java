@@ -0,0 +1,74 @@
+package projekt.dashboard.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import projekt.dashboard.util.WallpaperSearch;
+
+/**
+ * The wallpaper search, which runs on every keystroke once the debounce fires. Queries range
+ * from one that matches most wallpapers to one that matches none. {@link #type} searches every
+ * prefix of the query in turn, as typing it does, so all but the first narrow the one before.
+ *
+ * @author Nicholas Chum (nicholaschum)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class WallpaperFilterBenchmark {
+
+    // Same as WallpaperAdapter.SEARCH_RESULT_LIMIT
+    private static final int SEARCH_RESULT_LIMIT = 10;
+
+    @Param({"200", "5000"})
+    public int count;
+
+    @Param({"n", "galaxy waves", "Chum", "xyzzy"})
+    public String query;
+
+    private Fixtures.Wallpaper[] mWallpapers;
+    private WallpaperSearch<Fixtures.Wallpaper> mSearch;
+    private final List<Fixtures.Wallpaper> mResults = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        mWallpapers = Fixtures.wallpapers(count);
+        mSearch = new WallpaperSearch<>(mWallpapers);
+    }
+
+    @Benchmark
+    public WallpaperSearch<Fixtures.Wallpaper> index() {
+        return new WallpaperSearch<>(mWallpapers);
+    }
+
+    @Benchmark
+    public List<Fixtures.Wallpaper> search() {
+        // Searched fresh, not narrowed from the same query the last invocation ran
+        mSearch.search(null, SEARCH_RESULT_LIMIT, mResults);
+        mSearch.search(query, SEARCH_RESULT_LIMIT, mResults);
+        return mResults;
+    }
+
+    @Benchmark
+    public List<Fixtures.Wallpaper> type() {
+        for (int i = 1; i <= query.length(); i++)
+            mSearch.search(query.substring(0, i), SEARCH_RESULT_LIMIT, mResults);
+        return mResults;
+    }
+}